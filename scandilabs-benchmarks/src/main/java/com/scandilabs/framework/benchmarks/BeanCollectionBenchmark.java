@@ -0,0 +1,112 @@
+package com.scandilabs.framework.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scandilabs.framework.util.BeanPropertyComparator;
+import com.scandilabs.framework.util.CollectionUtils;
+
+/**
+ * Bean property based collection operations, which read properties through
+ * PropertyAccessor, once per element, and collect distinct values in hash
+ * sets. Sorting includes copying the list, which is small next to the sort
+ * itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BeanCollectionBenchmark {
+
+    @Param({ "100", "10000" })
+    public int size;
+
+    @Param({ "10", "1000" })
+    public int categories;
+
+    private List<SampleBean> beans;
+
+    private List<String> names;
+
+    private List<String> otherNames;
+
+    @Setup
+    public void setup() {
+        beans = SampleBean.createList(size, categories);
+        names = new ArrayList<String>();
+        for (SampleBean bean : beans) {
+            names.add(bean.getName());
+        }
+        otherNames = new ArrayList<String>();
+        for (SampleBean bean : SampleBean.createList(size, categories + 1)) {
+            otherNames.add(bean.getName());
+        }
+    }
+
+    @Benchmark
+    public List<SampleBean> sortListByProperty() {
+        List<SampleBean> copy = new ArrayList<SampleBean>(beans);
+        CollectionUtils.sortListByProperty(copy, "name");
+        return copy;
+    }
+
+    /**
+     * The comparator sortListByProperty replaced, which reads both properties
+     * on every comparison
+     */
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<SampleBean> sortWithComparator() {
+        List<SampleBean> copy = new ArrayList<SampleBean>(beans);
+        Collections.sort(copy, new BeanPropertyComparator("name"));
+        return copy;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<SampleBean> sortListByPropertyConcurrent() {
+        List<SampleBean> copy = new ArrayList<SampleBean>(beans);
+        CollectionUtils.sortListByProperty(copy, "name");
+        return copy;
+    }
+
+    @Benchmark
+    public List<?> extractUniquePropertyList() {
+        return CollectionUtils.extractUniquePropertyList(beans, "category");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<?> extractUniquePropertyListConcurrent() {
+        return CollectionUtils.extractUniquePropertyList(beans, "category");
+    }
+
+    @Benchmark
+    public List<?> extractStringList() {
+        return CollectionUtils.extractStringList(beans, "category");
+    }
+
+    @Benchmark
+    public Collection<?> subtractByString() {
+        return CollectionUtils.subtractByString(names, otherNames);
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.scandilabs.framework.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar. Plain arguments are treated as regular
+ * expressions selecting benchmarks, which then run with the gc profiler so
+ * each result comes with its allocation rate per operation. As soon as one
+ * argument is a JMH option (starts with '-') everything is handed to JMH's own
+ * command line as is.
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) {
+            if (arg.startsWith("-")) {
+                org.openjdk.jmh.Main.main(args);
+                return;
+            }
+        }
+        run(args);
+    }
+
+    private static void run(String[] includes) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder().addProfiler(GCProfiler.class);
+        if (includes.length == 0) {
+            options.include(".*");
+        }
+        for (String include : includes) {
+            options.include(include);
+        }
+        new Runner(options.build()).run();
+    }
+
+}
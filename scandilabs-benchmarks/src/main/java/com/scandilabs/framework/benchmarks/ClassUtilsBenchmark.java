@@ -0,0 +1,45 @@
+package com.scandilabs.framework.benchmarks;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scandilabs.framework.util.ClassUtils;
+
+/**
+ * Assignability checks and class lookups by name, both answered from caches
+ * after the first call
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassUtilsBenchmark {
+
+    @Benchmark
+    public boolean isInstanceOf() {
+        return ClassUtils.isInstanceOf(ArrayList.class, Serializable.class);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean isInstanceOfConcurrent() {
+        return ClassUtils.isInstanceOf(ArrayList.class, Serializable.class);
+    }
+
+    @Benchmark
+    public Class<?> toClass() {
+        return ClassUtils.toClass("java.util.ArrayList");
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.scandilabs.framework.benchmarks;
+
+import com.scandilabs.framework.util.TimedBloomFilter;
+import com.scandilabs.framework.util.TimedSet;
+
+/**
+ * Compares the memory per key of an exact TimedSet with that of a
+ * TimedBloomFilter, and measures the false positive rate the filter really
+ * gets. A plain main class, as JMH measures neither:
+ * 
+ * <pre>
+ * java -Xmx2g -cp target/benchmarks.jar com.scandilabs.framework.benchmarks.DedupeSimulation [keys]
+ * </pre>
+ * 
+ * Keys are added at a steady rate over a 4 second window, as the filter
+ * expects, then as many keys that were never added are looked up.
+ */
+public class DedupeSimulation {
+
+    private static final long WINDOW_MILLIS = 4000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        long before = usedMemory();
+        TimedSet<String> set = new TimedSet<String>(WINDOW_MILLIS * 1000);
+        for (int i = 0; i < keys; i++) {
+            set.add("event:" + i);
+        }
+        long setBytes = usedMemory() - before;
+        System.out.println(String.format("%-26s %12s %10s %16s", "", "bytes", "bytes/key", "false positives"));
+        System.out.println(String.format("%-26s %12d %10.1f %16s", "TimedSet", setBytes, (double) setBytes / keys,
+                "0"));
+        set.clear();
+        set = null;
+
+        for (double rate : new double[] { 0.01, 0.001, 0.0001 }) {
+            TimedBloomFilter<String> filter = new TimedBloomFilter<String>(WINDOW_MILLIS, keys, rate);
+            long start = System.currentTimeMillis();
+            int added = 0;
+            while (added < keys) {
+                long due = Math.min(keys, (long) keys * (System.currentTimeMillis() - start) / WINDOW_MILLIS + 1);
+                while (added < due) {
+                    filter.add("event:" + added++);
+                }
+                Thread.sleep(1);
+            }
+            int falsePositives = 0;
+            for (int i = keys; i < 2 * keys; i++) {
+                if (filter.contains("event:" + i)) {
+                    falsePositives++;
+                }
+            }
+            System.out.println(String.format("%-26s %12d %10.1f %16.5f", "TimedBloomFilter " + rate, filter
+                    .getMemoryBytes(), (double) filter.getMemoryBytes() / keys, (double) falsePositives / keys));
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.scandilabs.framework.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.scandilabs.framework.util.EvictionPolicy;
+import com.scandilabs.framework.util.LRUCache;
+
+/**
+ * Replays key traces through LRUCache with each eviction policy at equal
+ * capacity and prints the hit ratios. Hit ratio is not something JMH measures,
+ * so this is a plain main class:
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar com.scandilabs.framework.benchmarks.HitRatioSimulation [trace file...]
+ * </pre>
+ * 
+ * Without arguments it runs synthetic Zipf traces, with and without scans
+ * mixed in. A trace file has one key per line, for instance the document keys
+ * of ShardedSolrServer.loadByKey calls taken from a debug log.
+ */
+public class HitRatioSimulation {
+
+    private static final int[] CAPACITIES = { 1000, 10000, 50000 };
+
+    public static void main(String[] args) throws IOException {
+        Map<String, int[]> traces = new LinkedHashMap<String, int[]>();
+        if (args.length == 0) {
+            traces.put("zipf 0.8", zipf(1000000, 200000, 0.8, 0, 1));
+            traces.put("zipf 0.99", zipf(1000000, 200000, 0.99, 0, 2));
+            traces.put("zipf 0.8 + 20% scans", zipf(1000000, 200000, 0.8, 0.2, 3));
+        }
+        for (String file : args) {
+            traces.put(file, read(file));
+        }
+
+        System.out.println(String.format("%-24s %10s %8s %8s", "trace", "capacity", "LRU", "TinyLFU"));
+        for (Map.Entry<String, int[]> trace : traces.entrySet()) {
+            for (int capacity : CAPACITIES) {
+                System.out.println(String.format("%-24s %10d %8.4f %8.4f", trace.getKey(), capacity, hitRatio(
+                        EvictionPolicy.LRU, capacity, trace.getValue()), hitRatio(EvictionPolicy.TINY_LFU, capacity,
+                        trace.getValue())));
+            }
+        }
+    }
+
+    static double hitRatio(EvictionPolicy policy, int capacity, int[] trace) {
+        LRUCache<Integer, Integer> cache = new LRUCache<Integer, Integer>(capacity, Long.MAX_VALUE / 2, 16, policy);
+        long hits = 0;
+        for (int key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    /**
+     * @param scanFraction
+     *            share of the requests that page through keys in order, each
+     *            used only once, in bursts like a crawler
+     */
+    static int[] zipf(int length, int keys, double exponent, double scanFraction, long seed) {
+        Random random = new Random(seed);
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        int[] trace = new int[length];
+        int scanned = keys;
+        int burst = 10000;
+        for (int i = 0; i < length; i++) {
+            if (i % burst < burst * scanFraction) {
+                trace[i] = scanned++;
+            } else {
+                int k = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                trace[i] = k < 0 ? -k - 1 : k;
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Reads one key per line, mapping each distinct key to a number
+     */
+    static int[] read(String file) throws IOException {
+        Map<String, Integer> numbers = new HashMap<String, Integer>();
+        List<Integer> trace = new ArrayList<Integer>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                Integer number = numbers.get(line);
+                if (number == null) {
+                    number = numbers.size();
+                    numbers.put(line, number);
+                }
+                trace.add(number);
+            }
+        } finally {
+            reader.close();
+        }
+        int[] result = new int[trace.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = trace.get(i);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.scandilabs.framework.benchmarks;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per thread supply of keys shaped like the ones used in production
+ * ("abcd:&lt;number&gt;:efgh"), built up front so that creating them is not part
+ * of the measurement. Each thread starts at its own offset so concurrent
+ * benchmarks do not walk the same keys in lock step.
+ */
+@State(Scope.Thread)
+public class KeyState {
+
+    public static final int KEYS = 4096;
+
+    private static int threads;
+
+    public String[] keys;
+
+    public int[] numbers;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        keys = new String[KEYS];
+        numbers = new int[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            numbers[i] = i * 7919 % (KEYS * 4);
+            keys[i] = "abcd:" + numbers[i] + ":efgh";
+        }
+        synchronized (KeyState.class) {
+            next = threads++ * 997;
+        }
+    }
+
+    /**
+     * @return index of the next key, wrapping around
+     */
+    public int next() {
+        next = (next + 1) & (KEYS - 1);
+        return next;
+    }
+
+    public String nextKey() {
+        return keys[next()];
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.scandilabs.framework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scandilabs.framework.util.EvictionPolicy;
+import com.scandilabs.framework.util.LRUCache;
+
+/**
+ * Cache reads and writes. Keys are spread over four times the cache size, so
+ * about a quarter of the gets hit and puts keep evicting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LRUCacheBenchmark {
+
+    @Param({ "1024", "4096" })
+    public int size;
+
+    @Param({ "LRU", "TINY_LFU" })
+    public EvictionPolicy policy;
+
+    private LRUCache<String, Integer> cache;
+
+    @Setup
+    public void setup() {
+        cache = new LRUCache<String, Integer>(size, TimeUnit.HOURS.toMillis(1), 16, policy);
+        KeyState keys = new KeyState();
+        keys.setup();
+        for (int i = 0; i < size; i++) {
+            cache.put(keys.keys[i], keys.numbers[i]);
+        }
+    }
+
+    @Benchmark
+    public Integer get(KeyState keys) {
+        return cache.get(keys.nextKey());
+    }
+
+    @Benchmark
+    public void put(KeyState keys) {
+        int i = keys.next();
+        cache.put(keys.keys[i], keys.numbers[i]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer getConcurrent(KeyState keys) {
+        return cache.get(keys.nextKey());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Integer getPutConcurrent(KeyState keys) {
+        int i = keys.next();
+        Integer value = cache.get(keys.keys[i]);
+        if (value == null) {
+            cache.put(keys.keys[i], keys.numbers[i]);
+        }
+        return value;
+    }
+
+}
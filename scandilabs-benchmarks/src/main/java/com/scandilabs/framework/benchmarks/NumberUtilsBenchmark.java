@@ -0,0 +1,42 @@
+package com.scandilabs.framework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scandilabs.framework.util.NumberUtils;
+
+/**
+ * Key hashing, which every resource pool lookup starts with
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberUtilsBenchmark {
+
+    @Benchmark
+    public int stringToUnsignedIntegerCode(KeyState keys) {
+        return NumberUtils.stringToUnsignedIntegerCode(keys.nextKey());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int stringToUnsignedIntegerCodeConcurrent(KeyState keys) {
+        return NumberUtils.stringToUnsignedIntegerCode(keys.nextKey());
+    }
+
+    @Benchmark
+    public int murmurHash3(KeyState keys) {
+        return NumberUtils.murmurHash3(keys.nextKey(), 0);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.scandilabs.framework.benchmarks;
+
+import com.scandilabs.framework.pool.ConsistentHashingResourcePool;
+import com.scandilabs.framework.pool.PlacementStrategy;
+
+/**
+ * Measures what ResourcePoolBenchmark does not: the memory each placement
+ * strategy takes, and the share of keys that go to another resource when one
+ * resource is added. A plain main class, as JMH measures neither:
+ *
+ * <pre>
+ * java -Xmx1g -cp target/benchmarks.jar com.scandilabs.framework.benchmarks.PlacementSimulation [keys]
+ * </pre>
+ *
+ * The best any strategy can do when going from n to n + 1 resources is to move
+ * 1 / (n + 1) of the keys, printed as "ideal". Max load is the most keys on
+ * one resource over the mean.
+ */
+public class PlacementSimulation {
+
+    private static final String[] TYPES = { "range", "ring", "jump", "rendezvous" };
+
+    private static final int[] RESOURCES = { 4, 16, 64, 256, 1024 };
+
+    // Strategies built at once to measure their memory, as one small
+    // strategy is lost in the noise
+    private static final int COPIES = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int[] keyHashes = new int[keys];
+        ConsistentHashingResourcePool hasher = new ConsistentHashingResourcePool(1);
+        for (int i = 0; i < keys; i++) {
+            keyHashes[i] = hasher.computeKeyHash("abcd:" + i + ":efgh");
+        }
+
+        System.out.println(String.format("%-12s %9s %12s %8s %8s %8s", "type", "resources", "bytes", "remapped",
+                "ideal", "max load"));
+        for (String type : TYPES) {
+            for (int resources : RESOURCES) {
+                PlacementStrategy[] copies = new PlacementStrategy[COPIES];
+                long before = usedMemory();
+                for (int i = 0; i < COPIES; i++) {
+                    copies[i] = ResourcePoolBenchmark.createStrategy(type, resources);
+                }
+                long bytes = (usedMemory() - before) / COPIES;
+                ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(copies[0]);
+                copies = null;
+                ConsistentHashingResourcePool grown = new ConsistentHashingResourcePool(ResourcePoolBenchmark
+                        .createStrategy(type, resources + 1));
+
+                int remapped = 0;
+                int[] load = new int[resources];
+                for (int keyHash : keyHashes) {
+                    int resource = pool.locateResourceByKeyHash(keyHash);
+                    load[resource]++;
+                    if (grown.locateResourceByKeyHash(keyHash) != resource) {
+                        remapped++;
+                    }
+                }
+                int maxLoad = 0;
+                for (int count : load) {
+                    maxLoad = Math.max(maxLoad, count);
+                }
+                System.out.println(String.format("%-12s %9d %12d %8.4f %8.4f %8.2f", type, resources, bytes,
+                        (double) remapped / keys, 1.0 / (resources + 1), (double) maxLoad * resources / keys));
+            }
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
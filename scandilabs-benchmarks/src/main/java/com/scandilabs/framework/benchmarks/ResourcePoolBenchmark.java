@@ -0,0 +1,99 @@
+package com.scandilabs.framework.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scandilabs.framework.pool.ConsistentHashingResourcePool;
+import com.scandilabs.framework.pool.HashRing;
+import com.scandilabs.framework.pool.JumpHashPlacementStrategy;
+import com.scandilabs.framework.pool.PlacementStrategy;
+import com.scandilabs.framework.pool.RangePlacementStrategy;
+import com.scandilabs.framework.pool.RendezvousPlacementStrategy;
+
+/**
+ * Resource lookups for every placement strategy. The *ByKeyHash benchmarks
+ * leave out key hashing and so measure the placement strategy alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResourcePoolBenchmark {
+
+    @Param({ "range", "ring", "jump", "rendezvous" })
+    public String type;
+
+    @Param({ "4", "16", "64", "256", "1024" })
+    public int resources;
+
+    private ConsistentHashingResourcePool pool;
+
+    private int[] keyHashes;
+
+    @Setup
+    public void setup() {
+        pool = new ConsistentHashingResourcePool(createStrategy(type, resources));
+        keyHashes = new int[KeyState.KEYS];
+        for (int i = 0; i < keyHashes.length; i++) {
+            keyHashes[i] = pool.computeKeyHash("abcd:" + i + ":efgh");
+        }
+    }
+
+    static PlacementStrategy createStrategy(String type, int resources) {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < resources; i++) {
+            names.add("solr" + i);
+        }
+        if (type.equals("range")) {
+            return new RangePlacementStrategy(resources);
+        }
+        if (type.equals("ring")) {
+            return new HashRing(names, HashRing.DEFAULT_VIRTUAL_NODES_PER_RESOURCE);
+        }
+        if (type.equals("jump")) {
+            return new JumpHashPlacementStrategy(resources);
+        }
+        if (type.equals("rendezvous")) {
+            return new RendezvousPlacementStrategy(names);
+        }
+        throw new IllegalArgumentException("Unknown placement strategy: " + type);
+    }
+
+    @Benchmark
+    public int locateResource(KeyState keys) {
+        return pool.locateResource(keys.nextKey());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int locateResourceConcurrent(KeyState keys) {
+        return pool.locateResource(keys.nextKey());
+    }
+
+    @Benchmark
+    public int locateResourceByKeyHash(KeyState keys) {
+        return pool.locateResourceByKeyHash(keyHashes[keys.next()]);
+    }
+
+    @Benchmark
+    public int[] locateReplicasByKeyHash(KeyState keys) {
+        return pool.locateResourcesByKeyHash(keyHashes[keys.next()], 3);
+    }
+
+}
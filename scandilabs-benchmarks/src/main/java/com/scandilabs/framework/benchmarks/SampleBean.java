@@ -0,0 +1,63 @@
+package com.scandilabs.framework.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A plain bean used by the benchmarks that go through bean property access
+ */
+public class SampleBean {
+
+    private String name;
+
+    private String category;
+
+    private int price;
+
+    public SampleBean(String name, String category, int price) {
+        this.name = name;
+        this.category = category;
+        this.price = price;
+    }
+
+    /**
+     * @return a list of beans in random order spread over the given number of
+     *         distinct categories, the same for every call with the same
+     *         arguments
+     */
+    public static List<SampleBean> createList(int size, int categories) {
+        Random random = new Random(size * 31 + categories);
+        List<SampleBean> beans = new ArrayList<SampleBean>(size);
+        for (int i = 0; i < size; i++) {
+            beans.add(new SampleBean("bean" + random.nextInt(size), "category" + random.nextInt(categories), random
+                    .nextInt(100000)));
+        }
+        return beans;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public void setPrice(int price) {
+        this.price = price;
+    }
+
+}
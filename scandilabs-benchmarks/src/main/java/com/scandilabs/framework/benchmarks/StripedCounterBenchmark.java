@@ -0,0 +1,63 @@
+package com.scandilabs.framework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scandilabs.framework.util.StripedCounter;
+
+/**
+ * What recording a cache statistic costs, against one AtomicLong shared by
+ * all threads. The cost of a TimedSet.contains() or LoadingCache.get() hit
+ * goes up by about the time of one increment.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StripedCounterBenchmark {
+
+    private final StripedCounter striped = new StripedCounter();
+
+    private final AtomicLong atomic = new AtomicLong();
+
+    @Benchmark
+    public void striped() {
+        striped.increment();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void stripedConcurrent() {
+        striped.increment();
+    }
+
+    @Benchmark
+    public void atomicLong() {
+        atomic.incrementAndGet();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void atomicLongConcurrent() {
+        atomic.incrementAndGet();
+    }
+
+    @Benchmark
+    public long sum() {
+        return striped.sum();
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.scandilabs.framework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scandilabs.framework.util.TimedSet;
+
+/**
+ * Set membership as used for de-duplication. Half of the keys are in the set,
+ * the add benchmarks remove what they added so the set keeps its size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimedSetBenchmark {
+
+    @Param({ "4096", "65536" })
+    public int size;
+
+    private TimedSet<String> set;
+
+    @Setup
+    public void setup() {
+        set = new TimedSet<String>(TimeUnit.HOURS.toMillis(1));
+        KeyState keys = new KeyState();
+        keys.setup();
+        for (int i = 0; i < KeyState.KEYS; i += 2) {
+            set.add(keys.keys[i]);
+        }
+        for (int i = 0; set.size() < size; i++) {
+            set.add("filler:" + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        set.clear();
+    }
+
+    @Benchmark
+    public boolean contains(KeyState keys) {
+        return set.contains(keys.nextKey());
+    }
+
+    @Benchmark
+    public boolean addRemove(KeyState keys) {
+        String key = keys.nextKey();
+        if (set.add(key)) {
+            return set.remove(key);
+        }
+        return false;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean containsConcurrent(KeyState keys) {
+        return set.contains(keys.nextKey());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean addRemoveConcurrent(KeyState keys) {
+        String key = keys.nextKey();
+        if (set.add(key)) {
+            return set.remove(key);
+        }
+        return false;
+    }
+
+}
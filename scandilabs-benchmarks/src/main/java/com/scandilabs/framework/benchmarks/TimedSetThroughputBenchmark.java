@@ -0,0 +1,83 @@
+package com.scandilabs.framework.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.scandilabs.framework.util.TimedSet;
+
+/**
+ * Throughput of a de-duplication style workload on one shared TimedSet: 9 out
+ * of 10 operations are contains(), the rest addIfAbsent(). The same workload
+ * runs at 1 to 64 threads, on a machine with fewer cores the higher counts
+ * show how it degrades under oversubscription.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimedSetThroughputBenchmark {
+
+    private TimedSet<String> set;
+
+    @Setup
+    public void setup() {
+        set = new TimedSet<String>(TimeUnit.SECONDS.toMillis(10));
+        KeyState keys = new KeyState();
+        keys.setup();
+        for (int i = 0; i < KeyState.KEYS; i += 2) {
+            set.add(keys.keys[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        set.clear();
+    }
+
+    private boolean mixed(KeyState keys) {
+        int i = keys.next();
+        if (i % 10 == 0) {
+            return set.addIfAbsent(keys.keys[i]);
+        }
+        return set.contains(keys.keys[i]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean mixed1(KeyState keys) {
+        return mixed(keys);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean mixed4(KeyState keys) {
+        return mixed(keys);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean mixed16(KeyState keys) {
+        return mixed(keys);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean mixed64(KeyState keys) {
+        return mixed(keys);
+    }
+
+}
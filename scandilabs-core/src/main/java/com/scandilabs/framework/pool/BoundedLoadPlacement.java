@@ -0,0 +1,140 @@
+package com.scandilabs.framework.pool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deterministic bounded-load placement, for routing writes. Given the expected
+ * load of the known hot keys (for instance request or document counts per
+ * full-id), keys are placed heaviest first on the first resource along the ring
+ * that stays within (1+epsilon) times its fair share. Every client computing a
+ * placement from the same input gets the same result, so reads find what was
+ * written.
+ * 
+ * Keys that were not in the input, and hot keys that did not have to move, go
+ * to the resource the pool would pick anyway.
+ * 
+ * @see BoundedLoadResourcePool
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class BoundedLoadPlacement {
+
+    private final ConsistentHashingResourcePool pool;
+
+    private final double[] shares;
+
+    // Only keys placed away from their own resource
+    private final Map<String, Integer> spilledKeys = new HashMap<String, Integer>();
+
+    private final long[] loads;
+
+    private final long[] unboundedLoads;
+
+    public BoundedLoadPlacement(ConsistentHashingResourcePool pool, double epsilon,
+            Map<String, ? extends Number> keyLoads) {
+        if (!pool.isRing()) {
+            throw new IllegalArgumentException("Bounded loads need a ring based pool");
+        }
+        if (!(epsilon > 0)) {
+            throw new IllegalArgumentException("Epsilon must be positive: " + epsilon);
+        }
+        this.pool = pool;
+        this.shares = BoundedLoadResourcePool.weightShares(pool);
+        this.loads = new long[pool.getSize()];
+        this.unboundedLoads = new long[pool.getSize()];
+
+        final HashRing ring = pool.getRing();
+        final Map<String, Long> keyLoadsByKey = new HashMap<String, Long>();
+        final Map<String, Integer> keyHashes = new HashMap<String, Integer>();
+        long total = 0;
+        for (Map.Entry<String, ? extends Number> entry : keyLoads.entrySet()) {
+            long load = entry.getValue().longValue();
+            int keyHashCode = pool.computeKeyHash(entry.getKey());
+            keyLoadsByKey.put(entry.getKey(), load);
+            keyHashes.put(entry.getKey(), keyHashCode);
+            unboundedLoads[ring.locateResource(keyHashCode)] += load;
+            total += load;
+        }
+
+        // Heaviest keys first, ties broken by key so the order is stable
+        List<String> keys = new ArrayList<String>(keyLoadsByKey.keySet());
+        Collections.sort(keys, new Comparator<String>() {
+            public int compare(String k1, String k2) {
+                long l1 = keyLoadsByKey.get(k1);
+                long l2 = keyLoadsByKey.get(k2);
+                if (l1 != l2) {
+                    return l1 > l2 ? -1 : 1;
+                }
+                return k1.compareTo(k2);
+            }
+        });
+
+        long[] capacities = new long[loads.length];
+        for (int i = 0; i < capacities.length; i++) {
+            capacities[i] = (long) Math.ceil((1 + epsilon) * total * shares[i]);
+        }
+
+        int size = ring.getSize();
+        for (String key : keys) {
+            long load = keyLoadsByKey.get(key);
+            int start = ring.locateNode(keyHashes.get(key));
+            int owner = ring.getResource(start);
+            int target = -1;
+            for (int k = 0; k < size && target < 0; k++) {
+                int resource = ring.getResource((start + k) % size);
+                if (loads[resource] + load <= capacities[resource]) {
+                    target = resource;
+                }
+            }
+
+            // A key heavier than any remaining capacity stays home
+            if (target < 0) {
+                target = owner;
+            }
+            loads[target] += load;
+            if (target != owner) {
+                spilledKeys.put(key, target);
+            }
+        }
+    }
+
+    /**
+     * @return a resource index from zero to (numberOfResources-1)
+     */
+    public int locateResource(String key) {
+        Integer spilled = spilledKeys.get(key);
+        if (spilled != null) {
+            return spilled;
+        }
+        return pool.locateResource(key);
+    }
+
+    /**
+     * @return keys placed away from their own resource, and where they went
+     */
+    public Map<String, Integer> getSpilledKeys() {
+        return Collections.unmodifiableMap(spilledKeys);
+    }
+
+    /**
+     * @return expected load per resource with this placement
+     */
+    public SkewReport getSkewReport() {
+        return new SkewReport(loads, shares);
+    }
+
+    /**
+     * @return expected load per resource with plain consistent hashing, for
+     *         comparison
+     */
+    public SkewReport getUnboundedSkewReport() {
+        return new SkewReport(unboundedLoads, shares);
+    }
+
+}
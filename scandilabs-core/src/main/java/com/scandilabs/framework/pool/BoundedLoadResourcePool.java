@@ -0,0 +1,144 @@
+package com.scandilabs.framework.pool;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Consistent hashing with bounded loads on top of a ring based
+ * {@link ConsistentHashingResourcePool}. Callers acquire a resource for a key
+ * and release it when done. No resource is handed more than
+ * (1+epsilon) times its fair share of the currently acquired keys; once a
+ * resource is full, keys spill over to the next resource on the ring.
+ * 
+ * Placement depends on what else is acquired at the time, so this is meant for
+ * routing reads and other work that can go to any copy. For writes, which must
+ * land where later reads will look, use {@link BoundedLoadPlacement}.
+ * 
+ * @see http://arxiv.org/abs/1608.01350
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class BoundedLoadResourcePool {
+
+    private final ConsistentHashingResourcePool pool;
+
+    private final HashRing ring;
+
+    private final double epsilon;
+
+    // Fair share of each resource, from the pool's weights
+    private final double[] shares;
+
+    private final AtomicIntegerArray loads;
+
+    private final AtomicLong totalLoad = new AtomicLong();
+
+    private final AtomicLong spills = new AtomicLong();
+
+    /**
+     * @param pool
+     *            a ring based pool
+     * @param epsilon
+     *            how far above its fair share a resource may go, e.g. 0.25
+     */
+    public BoundedLoadResourcePool(ConsistentHashingResourcePool pool, double epsilon) {
+        if (!pool.isRing()) {
+            throw new IllegalArgumentException("Bounded loads need a ring based pool");
+        }
+        if (!(epsilon > 0)) {
+            throw new IllegalArgumentException("Epsilon must be positive: " + epsilon);
+        }
+        this.pool = pool;
+        this.ring = pool.getRing();
+        this.epsilon = epsilon;
+        this.shares = weightShares(pool);
+        this.loads = new AtomicIntegerArray(pool.getSize());
+    }
+
+    static double[] weightShares(ConsistentHashingResourcePool pool) {
+        double[] shares = new double[pool.getSize()];
+        double totalWeight = 0;
+        for (int i = 0; i < shares.length; i++) {
+            totalWeight += pool.getWeight(i);
+        }
+        for (int i = 0; i < shares.length; i++) {
+            shares[i] = pool.getWeight(i) / totalWeight;
+        }
+        return shares;
+    }
+
+    /**
+     * Picks a resource for the given key and counts it as carrying the key
+     * until {@link #release(int)} is called.
+     * 
+     * @return a resource index from zero to (numberOfResources-1)
+     */
+    public int acquire(String key) {
+        return acquireByKeyHash(pool.computeKeyHash(key));
+    }
+
+    public int acquireByKeyHash(int keyHashCode) {
+        long total = totalLoad.incrementAndGet();
+        int start = ring.locateNode(keyHashCode);
+        int size = ring.getSize();
+        for (int k = 0; k < size; k++) {
+            int resource = ring.getResource((start + k) % size);
+            int capacity = capacity(resource, total);
+            while (true) {
+                int load = loads.get(resource);
+                if (load >= capacity) {
+                    break;
+                }
+                if (loads.compareAndSet(resource, load, load + 1)) {
+                    if (k > 0) {
+                        spills.incrementAndGet();
+                    }
+                    return resource;
+                }
+            }
+        }
+
+        // Capacities add up to more than the total, so this only happens when
+        // concurrent releases race with us. Fall back to the key's owner.
+        int owner = ring.getResource(start);
+        loads.incrementAndGet(owner);
+        return owner;
+    }
+
+    private int capacity(int resource, long total) {
+        return (int) Math.ceil((1 + epsilon) * total * shares[resource]);
+    }
+
+    /**
+     * Stops counting one key against the given resource
+     */
+    public void release(int resourceIndex) {
+        loads.decrementAndGet(resourceIndex);
+        totalLoad.decrementAndGet();
+    }
+
+    public int getLoad(int resourceIndex) {
+        return loads.get(resourceIndex);
+    }
+
+    /**
+     * @return number of acquisitions that did not go to the key's own resource
+     */
+    public long getSpillCount() {
+        return spills.get();
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public SkewReport getSkewReport() {
+        long[] snapshot = new long[loads.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = loads.get(i);
+        }
+        return new SkewReport(snapshot, shares);
+    }
+
+}
@@ -1,15 +1,26 @@
 package com.scandilabs.framework.pool;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import com.scandilabs.framework.util.NumberUtils;
+import com.scandilabs.framework.util.KeyHasher;
+import com.scandilabs.framework.util.Md5KeyHasher;
 
 /**
  * A pool of resources. The location of each resource is determined by computing
  * a pseudo hashcode for a string key, then matching that hashcode with a bucket.
  * 
- * We are using the 24 least significant bits of a MD5 hash to compute the pseudo hashcode. @see NumberUtils.stringToUnsignedIntegerCode for details.
+ * By default we are using the 24 least significant bits of a MD5 hash to compute the pseudo hashcode. @see NumberUtils.stringToUnsignedIntegerCode for details.
+ * A cheaper {@link KeyHasher} can be set for pools that have not placed any keys yet.
+ * 
+ * By default the hash space is cut into one contiguous bucket per resource.
+ * Pools created with a number of virtual nodes use a {@link HashRing} instead,
+ * so that adding or removing a resource only moves about 1/n of the keys. Any
+ * other {@link PlacementStrategy} can be passed in as well.
  * 
  * @see http
  *      ://www.tomkleinpeter.com/2008/03/17/programmers-toolbox-part-3-consistent
@@ -20,35 +31,143 @@ import com.scandilabs.framework.util.NumberUtils;
  */
 public class ConsistentHashingResourcePool {
 
-    private List<HashCodeBucket> buckets = new ArrayList<HashCodeBucket>();
+    private PlacementStrategy placement;
+
+    private KeyHasher keyHasher = new Md5KeyHasher();
+
+    // Only set for pools created with weights
+    private double[] weights;
 
     public static int MAX_HASH_VALUE = (int) Math.pow(2, 24);
 
-    public ConsistentHashingResourcePool(int numberOfResources) {
+    /**
+     * Creates a pool using the given placement strategy
+     */
+    public ConsistentHashingResourcePool(PlacementStrategy placement) {
+        this.placement = placement;
+    }
 
-        int range = MAX_HASH_VALUE / numberOfResources;
+    /**
+     * Creates a ring based pool with the given number of virtual nodes per
+     * resource. Resources are named "resource-0", "resource-1", etc.
+     */
+    public ConsistentHashingResourcePool(int numberOfResources, int virtualNodesPerResource) {
+        this(defaultResourceNames(numberOfResources), virtualNodesPerResource);
+    }
 
-        // Create buckets
-        for (int i = 1; i < (numberOfResources + 1); i++) {
+    /**
+     * Creates a ring based pool. Virtual node positions are derived from the
+     * resource names, so a resource keeps its keys for as long as it keeps its
+     * name, regardless of its index in the list.
+     */
+    public ConsistentHashingResourcePool(List<String> resourceNames, int virtualNodesPerResource) {
+        this.placement = new HashRing(resourceNames, virtualNodesPerResource);
+    }
 
-            int lowerLimit = (i - 1) * range;
-            int upperLimit = (i * range) - 1;
+    /**
+     * Creates a ring based pool where each resource gets a number of virtual
+     * nodes proportional to its weight. A resource with weight 1.0 gets
+     * virtualNodesPerResource nodes, one with weight 2.0 twice as many, and so
+     * on. Since node counts do not depend on the other resources' weights,
+     * adding a resource still only moves keys onto that resource.
+     */
+    public ConsistentHashingResourcePool(List<String> resourceNames, double[] weights, int virtualNodesPerResource) {
+        checkWeights(weights, resourceNames.size());
+        int[] virtualNodeCounts = new int[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            virtualNodeCounts[i] = Math.max(1, (int) Math.round(virtualNodesPerResource * weights[i]));
+        }
+        this.placement = new HashRing(resourceNames, virtualNodeCounts);
+        this.weights = weights.clone();
+    }
+
+    public ConsistentHashingResourcePool(int numberOfResources) {
+        this.placement = new RangePlacementStrategy(numberOfResources);
+    }
 
-            // Last loop?
-            if (i == numberOfResources) {
+    /**
+     * Creates a bucket based pool where each resource's bucket is sized in
+     * proportion to its weight. If all weights are equal the buckets are
+     * exactly those of {@link #ConsistentHashingResourcePool(int)}, so existing
+     * pools can move to this constructor without relocating any keys.
+     */
+    public ConsistentHashingResourcePool(double[] weights) {
+        checkWeights(weights, weights.length);
+        this.placement = new RangePlacementStrategy(weights);
+        this.weights = weights.clone();
+    }
 
-                // Make up for rounding errors
-                int diff = MAX_HASH_VALUE - upperLimit;
-                upperLimit = upperLimit + diff;
+    private static void checkWeights(double[] weights, int numberOfResources) {
+        if (weights.length != numberOfResources) {
+            throw new IllegalArgumentException(String.format("Got %d weights for %d resources", weights.length,
+                    numberOfResources));
+        }
+        for (int i = 0; i < weights.length; i++) {
+            if (!(weights[i] > 0)) {
+                throw new IllegalArgumentException("Weight must be positive for resource " + i + ": " + weights[i]);
             }
+        }
+    }
 
-            HashCodeBucket bucket = new HashCodeBucket(lowerLimit, upperLimit);
-            buckets.add(bucket);
+    private static List<String> defaultResourceNames(int numberOfResources) {
+        List<String> names = new ArrayList<String>(numberOfResources);
+        for (int i = 0; i < numberOfResources; i++) {
+            names.add("resource-" + i);
         }
+        return names;
     }
 
     public int getSize() {
-        return buckets.size();
+        return placement.getNumberOfResources();
+    }
+
+    /**
+     * @return the weight the given resource was created with, 1.0 for
+     *         unweighted pools
+     */
+    public double getWeight(int resourceIndex) {
+        if (weights == null) {
+            return 1.0;
+        }
+        return weights[resourceIndex];
+    }
+
+    /**
+     * Reports the fraction of the hash space, and so the expected fraction of
+     * keys, that each resource is responsible for. For ring based pools this is
+     * the actual share after virtual node placement, which may differ from the
+     * weights by a few percent.
+     * 
+     * @return one share per resource, adding up to 1.0
+     */
+    public double[] getLoadShares() {
+        return placement.getLoadShares();
+    }
+
+    public double getLoadShare(int resourceIndex) {
+        return getLoadShares()[resourceIndex];
+    }
+
+    /**
+     * @see PlacementStrategy#getRangeUpperLimits()
+     */
+    int[] getRangeUpperLimits() {
+        return placement.getRangeUpperLimits();
+    }
+
+    public PlacementStrategy getPlacementStrategy() {
+        return placement;
+    }
+
+    public boolean isRing() {
+        return placement instanceof HashRing;
+    }
+
+    /**
+     * @return the virtual node ring, or null if this pool uses another placement
+     */
+    public HashRing getRing() {
+        return isRing() ? (HashRing) placement : null;
     }
 
     /**
@@ -65,23 +184,164 @@ public class ConsistentHashingResourcePool {
     }
     
     public int locateResourceByKeyHash(int keyHashCode) {
-        for (int i = 0; i < buckets.size(); i++) {
-            HashCodeBucket bucket = buckets.get(i);
-            if (bucket.isMatch(keyHashCode)) {
-                return i;
+        checkKeyHash(keyHashCode);
+        return placement.locateResource(keyHashCode);
+    }
+    
+    private static void checkKeyHash(int keyHashCode) {
+        if (keyHashCode < 0 || keyHashCode > MAX_HASH_VALUE) {
+            throw new RuntimeException("Failed to locate resource for key hash " + keyHashCode);
+        }
+    }
+
+    /**
+     * Looks up a stable, ordered set of distinct resources for the given key,
+     * for instance to store replicas of a record. The first resource is the
+     * one {@link #locateResource(String)} returns. The others depend on the
+     * placement strategy (the ring for ring based pools, the next buckets for
+     * bucket based pools), so that when a resource goes away each of its keys
+     * still has its remaining copies in the set.
+     * 
+     * @param key
+     *            a string representing a unique data record
+     * @param replicas
+     *            number of resources wanted, at most the pool size
+     * @return resource indexes from zero to (numberOfResources-1)
+     */
+    public int[] locateResources(String key, int replicas) {
+        int[] result = new int[replicas];
+        locateResourcesByKeyHash(computeKeyHash(key), result);
+        return result;
+    }
+
+    public int[] locateResourcesByKeyHash(int keyHashCode, int replicas) {
+        int[] result = new int[replicas];
+        locateResourcesByKeyHash(keyHashCode, result);
+        return result;
+    }
+
+    /**
+     * Like {@link #locateResources(String, int)}, but fills a caller supplied
+     * array (one entry per replica) so repeated lookups do not allocate.
+     */
+    public void locateResourcesByKeyHash(int keyHashCode, int[] result) {
+        checkKeyHash(keyHashCode);
+        placement.locateResources(keyHashCode, result);
+    }
+
+    /**
+     * Groups a batch of keys by resource in one pass, so that callers can send
+     * one request per resource instead of one per key.
+     */
+    public KeyPartition partition(Collection<String> keys) {
+        String[] keyArray = keys.toArray(new String[keys.size()]);
+        int[] keyHashes = new int[keyArray.length];
+        int[] resources = new int[keyArray.length];
+        locateRange(keyArray, keyHashes, resources, 0, keyArray.length);
+        return group(keyArray, keyHashes, resources);
+    }
+
+    /**
+     * Like {@link #partition(Collection)}, but hashes large batches in chunks on
+     * the given executor. Keys keep their batch order within each resource.
+     * 
+     * @param chunkSize
+     *            number of keys hashed per task
+     * @throws IllegalArgumentException
+     *             if chunkSize is less than 1
+     */
+    public KeyPartition partition(Collection<String> keys, ExecutorService executor, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1: " + chunkSize);
+        }
+        final String[] keyArray = keys.toArray(new String[keys.size()]);
+        final int[] keyHashes = new int[keyArray.length];
+        final int[] resources = new int[keyArray.length];
+        if (keyArray.length <= chunkSize) {
+            locateRange(keyArray, keyHashes, resources, 0, keyArray.length);
+            return group(keyArray, keyHashes, resources);
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int start = 0; start < keyArray.length; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(keyArray.length, start + chunkSize);
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    locateRange(keyArray, keyHashes, resources, from, to);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while partitioning keys", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to partition keys", e.getCause());
             }
         }
-        
-        // This should never happen
-        throw new RuntimeException("Failed to locate resource for key hash" + keyHashCode);
+        return group(keyArray, keyHashes, resources);
     }
-    
+
+    private void locateRange(String[] keys, int[] keyHashes, int[] resources, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int keyHashCode = computeKeyHash(keys[i]);
+            keyHashes[i] = keyHashCode;
+            resources[i] = locateResourceByKeyHash(keyHashCode);
+        }
+    }
+
+    private KeyPartition group(String[] keys, int[] keyHashes, int[] resources) {
+        int size = getSize();
+        int[] counts = new int[size];
+        for (int i = 0; i < resources.length; i++) {
+            counts[resources[i]]++;
+        }
+        String[][] groupedKeys = new String[size][];
+        int[][] groupedHashes = new int[size][];
+        int[][] groupedIndexes = new int[size][];
+        for (int r = 0; r < size; r++) {
+            groupedKeys[r] = new String[counts[r]];
+            groupedHashes[r] = new int[counts[r]];
+            groupedIndexes[r] = new int[counts[r]];
+        }
+        int[] filled = new int[size];
+        for (int i = 0; i < resources.length; i++) {
+            int r = resources[i];
+            int n = filled[r]++;
+            groupedKeys[r][n] = keys[i];
+            groupedHashes[r][n] = keyHashes[i];
+            groupedIndexes[r][n] = i;
+        }
+        return new KeyPartition(groupedKeys, groupedHashes, groupedIndexes);
+    }
+
     public int computeKeyHash(String key) {
-        return NumberUtils.stringToUnsignedIntegerCode(key);
+        return keyHasher.hash(key);
+    }
+
+    public KeyHasher getKeyHasher() {
+        return keyHasher;
+    }
+
+    /**
+     * Changes how keys are hashed. Note that this moves nearly every key to a
+     * different resource, so only do it before any keys have been placed.
+     */
+    public void setKeyHasher(KeyHasher keyHasher) {
+        this.keyHasher = keyHasher;
     }
 
+    /**
+     * Only available for bucket based pools
+     */
     public HashCodeBucket getBucketByIndex(int bucketIndex) {
-        return buckets.get(bucketIndex);
+        if (!(placement instanceof RangePlacementStrategy)) {
+            throw new UnsupportedOperationException("Only bucket based pools have contiguous buckets");
+        }
+        return ((RangePlacementStrategy) placement).getBucket(bucketIndex);
     }
 
     public HashCodeBucket getBucketForKey(String key) {
@@ -0,0 +1,217 @@
+package com.scandilabs.framework.pool;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.scandilabs.framework.util.NumberUtils;
+
+/**
+ * A consistent hashing 'ring' where each resource owns many virtual nodes
+ * spread across the hash space. Virtual node positions are kept in a sorted
+ * int[] with a parallel short[] of owning resource indexes, so a lookup is a
+ * single binary search and does not allocate.
+ *
+ * A virtual node's position only depends on the name of its resource and its
+ * replica number, so adding or removing one resource only moves the keys that
+ * land on that resource's virtual nodes (about 1/n of all keys).
+ *
+ * @author mkvalsvik
+ *
+ */
+public class HashRing implements PlacementStrategy {
+
+    public static final int DEFAULT_VIRTUAL_NODES_PER_RESOURCE = 160;
+
+    private static Logger logger = LoggerFactory.getLogger(HashRing.class);
+
+    private final int[] positions;
+
+    private final short[] resources;
+
+    private final int numberOfResources;
+
+    public HashRing(List<String> resourceNames, int virtualNodesPerResource) {
+        this(resourceNames, uniformCounts(resourceNames.size(), virtualNodesPerResource));
+    }
+
+    /**
+     * Creates a ring where each resource gets its own number of virtual nodes,
+     * and so a share of the hash space proportional to that number.
+     */
+    public HashRing(List<String> resourceNames, int[] virtualNodeCounts) {
+        if (resourceNames.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one resource");
+        }
+        if (resourceNames.size() > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many resources for a hash ring: " + resourceNames.size());
+        }
+        if (virtualNodeCounts.length != resourceNames.size()) {
+            throw new IllegalArgumentException("Need one virtual node count per resource");
+        }
+        this.numberOfResources = resourceNames.size();
+
+        int total = 0;
+        for (int i = 0; i < numberOfResources; i++) {
+            if (virtualNodeCounts[i] < 1) {
+                throw new IllegalArgumentException("Need at least one virtual node for resource " + i);
+            }
+            total += virtualNodeCounts[i];
+        }
+
+        // Pack (position, resource) pairs into longs so one primitive sort
+        // orders them by position, with ties broken by resource index
+        long[] packed = new long[total];
+        int n = 0;
+        for (int i = 0; i < numberOfResources; i++) {
+            String name = resourceNames.get(i);
+            for (int j = 0; j < virtualNodeCounts[i]; j++) {
+                int position = NumberUtils.stringToUnsignedIntegerCode(name + "#" + j);
+                packed[n++] = ((long) position << 16) | i;
+            }
+        }
+        Arrays.sort(packed);
+
+        // Two virtual nodes on the same position would make lookups ambiguous,
+        // the one from the lowest resource index wins
+        int[] p = new int[total];
+        short[] r = new short[total];
+        int[] kept = new int[numberOfResources];
+        int size = 0;
+        for (int k = 0; k < total; k++) {
+            int position = (int) (packed[k] >>> 16);
+            if (size > 0 && p[size - 1] == position) {
+                continue;
+            }
+            p[size] = position;
+            r[size] = (short) (packed[k] & 0xFFFF);
+            kept[r[size]]++;
+            size++;
+        }
+        if (size < total) {
+            logger.warn(String.format("Dropped %d of %d virtual nodes on positions taken by another resource",
+                    total - size, total));
+            for (int i = 0; i < numberOfResources; i++) {
+                if (kept[i] == 0) {
+                    logger.warn(String.format("Resource %d (%s) has no virtual nodes left and gets no keys", i,
+                            resourceNames.get(i)));
+                }
+            }
+        }
+        this.positions = size == total ? p : Arrays.copyOf(p, size);
+        this.resources = size == total ? r : Arrays.copyOf(r, size);
+    }
+
+    private static int[] uniformCounts(int numberOfResources, int virtualNodesPerResource) {
+        int[] counts = new int[numberOfResources];
+        Arrays.fill(counts, virtualNodesPerResource);
+        return counts;
+    }
+
+    /**
+     * @return the index into the ring of the first virtual node at or after the
+     *         given hash code, wrapping around to the start of the ring
+     */
+    public int locateNode(int keyHashCode) {
+        int i = Arrays.binarySearch(positions, keyHashCode);
+        if (i < 0) {
+            i = -i - 1;
+            if (i == positions.length) {
+                i = 0;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @return the resource index owning the given hash code
+     */
+    public int locateResource(int keyHashCode) {
+        return resources[locateNode(keyHashCode)];
+    }
+
+    /**
+     * Fills the given array with distinct resources, walking the ring from the
+     * given hash code and skipping virtual nodes of resources already picked.
+     * The first entry is always the owning resource. Resources that lost all
+     * their virtual nodes to others are not on the ring, after one lap they
+     * fill the rest in index order.
+     */
+    public void locateResources(int keyHashCode, int[] result) {
+        if (result.length > numberOfResources) {
+            throw new IllegalArgumentException(String.format("Asked for %d resources from a ring of %d",
+                    result.length, numberOfResources));
+        }
+        int node = locateNode(keyHashCode);
+        int found = 0;
+        for (int step = 0; step < positions.length && found < result.length; step++) {
+            if (!contains(result, found, resources[node])) {
+                result[found++] = resources[node];
+            }
+            node++;
+            if (node == positions.length) {
+                node = 0;
+            }
+        }
+        for (int resource = 0; found < result.length; resource++) {
+            if (!contains(result, found, resource)) {
+                result[found++] = resource;
+            }
+        }
+    }
+
+    private static boolean contains(int[] result, int found, int resource) {
+        for (int i = 0; i < found; i++) {
+            if (result[i] == resource) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getNumberOfResources() {
+        return numberOfResources;
+    }
+
+    /**
+     * @return total number of virtual nodes on the ring
+     */
+    public int getSize() {
+        return positions.length;
+    }
+
+    public int getPosition(int node) {
+        return positions[node];
+    }
+
+    public int getResource(int node) {
+        return resources[node];
+    }
+
+    public double[] getLoadShares() {
+        return computeOwnership();
+    }
+
+    public int[] getRangeUpperLimits() {
+        int[] limits = new int[positions.length + 1];
+        System.arraycopy(positions, 0, limits, 0, positions.length);
+        limits[positions.length] = ConsistentHashingResourcePool.MAX_HASH_VALUE;
+        return limits;
+    }
+
+    /**
+     * @return the fraction of the hash space owned by each resource
+     */
+    public double[] computeOwnership() {
+        double[] ownership = new double[numberOfResources];
+        int space = ConsistentHashingResourcePool.MAX_HASH_VALUE;
+        for (int k = 0; k < positions.length; k++) {
+            int previous = k == 0 ? positions[positions.length - 1] - space : positions[k - 1];
+            ownership[resources[k]] += (double) (positions[k] - previous) / space;
+        }
+        return ownership;
+    }
+
+}
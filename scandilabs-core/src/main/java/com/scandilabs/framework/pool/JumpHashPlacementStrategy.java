@@ -0,0 +1,102 @@
+package com.scandilabs.framework.pool;
+
+import com.scandilabs.framework.util.NumberUtils;
+
+/**
+ * Jump consistent hashing (Lamping and Veach). Needs no lookup table, so
+ * memory use is the same for 4 or 10,000 resources, and spreads keys evenly.
+ * Growing from n to n+1 resources moves 1/(n+1) of the keys, all onto the new
+ * resource. Resources are numbered, so only the last one can be removed
+ * without moving other keys.
+ * 
+ * @see http://arxiv.org/abs/1406.2294
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class JumpHashPlacementStrategy implements PlacementStrategy {
+
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private final int numberOfResources;
+
+    public JumpHashPlacementStrategy(int numberOfResources) {
+        if (numberOfResources < 1) {
+            throw new IllegalArgumentException("Need at least one resource");
+        }
+        this.numberOfResources = numberOfResources;
+    }
+
+    /**
+     * @return the bucket in the range 0 to (buckets-1) for the given key
+     */
+    public static int jumpConsistentHash(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    public int getNumberOfResources() {
+        return numberOfResources;
+    }
+
+    public int locateResource(int keyHashCode) {
+
+        // Key hash codes only have 24 bits, spread them over 64 first
+        return jumpConsistentHash(NumberUtils.mix64(keyHashCode), numberOfResources);
+    }
+
+    /**
+     * Replicas are found by jumping with the key rehashed with increasing
+     * seeds, skipping resources already picked
+     */
+    public void locateResources(int keyHashCode, int[] result) {
+        if (result.length > numberOfResources) {
+            throw new IllegalArgumentException(String.format("Asked for %d resources from a pool of %d",
+                    result.length, numberOfResources));
+        }
+        int found = 0;
+        for (int attempt = 0; attempt < 4 * numberOfResources && found < result.length; attempt++) {
+            int resource = jumpConsistentHash(NumberUtils.mix64(keyHashCode + attempt * GOLDEN_RATIO),
+                    numberOfResources);
+            if (!contains(result, found, resource)) {
+                result[found++] = resource;
+            }
+        }
+
+        // Hardly ever needed, unless asking for nearly all resources: the
+        // ones not picked yet, in index order
+        for (int resource = 0; found < result.length; resource++) {
+            if (!contains(result, found, resource)) {
+                result[found++] = resource;
+            }
+        }
+    }
+
+    private static boolean contains(int[] result, int found, int resource) {
+        for (int i = 0; i < found; i++) {
+            if (result[i] == resource) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public double[] getLoadShares() {
+        double[] shares = new double[numberOfResources];
+        for (int i = 0; i < numberOfResources; i++) {
+            shares[i] = 1.0 / numberOfResources;
+        }
+        return shares;
+    }
+
+    public int[] getRangeUpperLimits() {
+        return null;
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.scandilabs.framework.pool;
+
+/**
+ * A batch of keys grouped by the resource each key belongs to. For every
+ * resource, the keys, their key hashes and their positions in the original
+ * batch are kept in index-aligned arrays.
+ * 
+ * @see ConsistentHashingResourcePool#partition(java.util.Collection)
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class KeyPartition {
+
+    private final String[][] keys;
+
+    private final int[][] keyHashes;
+
+    private final int[][] indexes;
+
+    KeyPartition(String[][] keys, int[][] keyHashes, int[][] indexes) {
+        this.keys = keys;
+        this.keyHashes = keyHashes;
+        this.indexes = indexes;
+    }
+
+    /**
+     * @return number of resources in the pool
+     */
+    public int getSize() {
+        return keys.length;
+    }
+
+    /**
+     * @return number of keys belonging to the given resource
+     */
+    public int getCount(int resourceIndex) {
+        return keys[resourceIndex].length;
+    }
+
+    public String[] getKeys(int resourceIndex) {
+        return keys[resourceIndex];
+    }
+
+    public int[] getKeyHashes(int resourceIndex) {
+        return keyHashes[resourceIndex];
+    }
+
+    /**
+     * @return position of each key in the batch, in iteration order of the
+     *         collection that was partitioned
+     */
+    public int[] getIndexes(int resourceIndex) {
+        return indexes[resourceIndex];
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.scandilabs.framework.pool;
+
+/**
+ * Decides which resource of a {@link ConsistentHashingResourcePool} a key hash
+ * code belongs to. Implementations must be immutable and thread safe.
+ * 
+ * <ul>
+ * <li>{@link RangePlacementStrategy}: one contiguous bucket per resource, the
+ * original layout. Cheapest to reason about, but adding a resource moves most
+ * keys.</li>
+ * <li>{@link HashRing}: many virtual nodes per resource on a ring. Adding or
+ * removing a resource moves about 1/n of the keys, resources are identified by
+ * name.</li>
+ * <li>{@link JumpHashPlacementStrategy}: no lookup table at all. Only
+ * resources at the end can be added or removed.</li>
+ * <li>{@link RendezvousPlacementStrategy}: highest random weight hashing. Even
+ * spread and clean top-n replica selection, at O(n) per lookup.</li>
+ * </ul>
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public interface PlacementStrategy {
+
+    int getNumberOfResources();
+
+    /**
+     * @return a resource index from zero to (numberOfResources-1)
+     */
+    int locateResource(int keyHashCode);
+
+    /**
+     * Fills the given array with distinct resources for the given hash code,
+     * in order of preference. The first entry is always the resource
+     * {@link #locateResource(int)} returns.
+     */
+    void locateResources(int keyHashCode, int[] result);
+
+    /**
+     * @return the expected fraction of keys each resource gets, adding up to
+     *         1.0
+     */
+    double[] getLoadShares();
+
+    /**
+     * @return sorted upper limits of the hash code ranges assigned as a unit,
+     *         ending with MAX_HASH_VALUE, or null if ownership does not come in
+     *         ranges and every hash code has to be looked up on its own
+     */
+    int[] getRangeUpperLimits();
+
+}
@@ -0,0 +1,58 @@
+package com.scandilabs.framework.pool;
+
+/**
+ * A range of key hash codes (both limits inclusive) that moves from one
+ * resource to another when a pool's layout changes.
+ * 
+ * @see RebalancePlan
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class RangeMove extends HashCodeBucket {
+
+    private int fromResource;
+
+    private int toResource;
+
+    public RangeMove(int lowerLimit, int upperLimit, int fromResource, int toResource) {
+        super(lowerLimit, upperLimit);
+        this.fromResource = fromResource;
+        this.toResource = toResource;
+    }
+
+    /**
+     * @return resource index in the old layout
+     */
+    public int getFromResource() {
+        return fromResource;
+    }
+
+    /**
+     * @return resource index in the new layout
+     */
+    public int getToResource() {
+        return toResource;
+    }
+
+    /**
+     * @return number of hash codes in this range
+     */
+    public int getWidth() {
+        return getUpperLimit() - getLowerLimit() + 1;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("move from ");
+        sb.append(getLowerLimit());
+        sb.append(" to ");
+        sb.append(getUpperLimit());
+        sb.append(", resource ");
+        sb.append(fromResource);
+        sb.append(" -> ");
+        sb.append(toResource);
+        return sb.toString();
+    }
+
+}
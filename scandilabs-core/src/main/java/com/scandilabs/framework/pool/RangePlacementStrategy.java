@@ -0,0 +1,147 @@
+package com.scandilabs.framework.pool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cuts the hash space into one contiguous bucket per resource, sized by
+ * weight. This is the layout {@link ConsistentHashingResourcePool} has always
+ * used.
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class RangePlacementStrategy implements PlacementStrategy {
+
+    private static final int MAX_HASH_VALUE = ConsistentHashingResourcePool.MAX_HASH_VALUE;
+
+    private List<HashCodeBucket> buckets = new ArrayList<HashCodeBucket>();
+
+    // Upper limit of each bucket, in bucket order, for binary search lookups
+    private int[] bucketUpperLimits;
+
+    public RangePlacementStrategy(int numberOfResources) {
+
+        int range = MAX_HASH_VALUE / numberOfResources;
+
+        // Create buckets
+        for (int i = 1; i < (numberOfResources + 1); i++) {
+
+            int lowerLimit = (i - 1) * range;
+            int upperLimit = (i * range) - 1;
+
+            // Last loop?
+            if (i == numberOfResources) {
+
+                // Make up for rounding errors
+                int diff = MAX_HASH_VALUE - upperLimit;
+                upperLimit = upperLimit + diff;
+            }
+
+            HashCodeBucket bucket = new HashCodeBucket(lowerLimit, upperLimit);
+            buckets.add(bucket);
+        }
+
+        initBucketUpperLimits();
+    }
+
+    /**
+     * Sizes each resource's bucket in proportion to its weight. If all weights
+     * are equal the buckets are exactly those of
+     * {@link #RangePlacementStrategy(int)}.
+     */
+    public RangePlacementStrategy(double[] weights) {
+        this(weights.length);
+        if (isUniform(weights)) {
+            return;
+        }
+
+        double totalWeight = 0;
+        for (int i = 0; i < weights.length; i++) {
+            totalWeight += weights[i];
+        }
+
+        buckets.clear();
+        double cumulativeWeight = 0;
+        int lowerLimit = 0;
+        for (int i = 0; i < weights.length; i++) {
+            cumulativeWeight += weights[i];
+            int upperLimit = MAX_HASH_VALUE;
+            if (i < weights.length - 1) {
+                upperLimit = (int) Math.round(MAX_HASH_VALUE * (cumulativeWeight / totalWeight)) - 1;
+            }
+            if (upperLimit < lowerLimit) {
+                throw new IllegalArgumentException("Weight too small to get a bucket for resource " + i);
+            }
+            buckets.add(new HashCodeBucket(lowerLimit, upperLimit));
+            lowerLimit = upperLimit + 1;
+        }
+
+        initBucketUpperLimits();
+    }
+
+    private void initBucketUpperLimits() {
+        bucketUpperLimits = new int[buckets.size()];
+        for (int i = 0; i < buckets.size(); i++) {
+            bucketUpperLimits[i] = buckets.get(i).getUpperLimit();
+        }
+    }
+
+    private static boolean isUniform(double[] weights) {
+        for (int i = 1; i < weights.length; i++) {
+            if (weights[i] != weights[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getNumberOfResources() {
+        return buckets.size();
+    }
+
+    public HashCodeBucket getBucket(int resourceIndex) {
+        return buckets.get(resourceIndex);
+    }
+
+    public int locateResource(int keyHashCode) {
+
+        // Buckets are contiguous and ordered, so the first bucket whose upper
+        // limit is at or above the hash code is the match
+        int i = Arrays.binarySearch(bucketUpperLimits, keyHashCode);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i;
+    }
+
+    /**
+     * Replicas go to the following buckets
+     */
+    public void locateResources(int keyHashCode, int[] result) {
+        int size = buckets.size();
+        if (result.length > size) {
+            throw new IllegalArgumentException(String.format("Asked for %d resources from a pool of %d",
+                    result.length, size));
+        }
+        int first = locateResource(keyHashCode);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (first + i) % size;
+        }
+    }
+
+    public double[] getLoadShares() {
+        double[] shares = new double[buckets.size()];
+        for (int i = 0; i < buckets.size(); i++) {
+            HashCodeBucket bucket = buckets.get(i);
+            shares[i] = (double) (bucket.getUpperLimit() - bucket.getLowerLimit() + 1) / (MAX_HASH_VALUE + 1);
+        }
+        return shares;
+    }
+
+    public int[] getRangeUpperLimits() {
+        return bucketUpperLimits.clone();
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.scandilabs.framework.pool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The key hash code ranges that change owner when going from one pool layout
+ * to another. Adjacent ranges moving between the same two resources are
+ * merged, so the plan is the smallest set of ranges covering exactly the keys
+ * that have to move.
+ * 
+ * Resource indexes in a move refer to the old pool for the source and to the
+ * new pool for the target.
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class RebalancePlan {
+
+    private final List<RangeMove> moves;
+
+    // Lower limits of the moves, for binary search lookups
+    private final int[] lowerLimits;
+
+    public RebalancePlan(ConsistentHashingResourcePool oldPool, ConsistentHashingResourcePool newPool) {
+
+        // Between two consecutive limits of the union, both pools assign every
+        // hash code to one resource. Placements without ranges need every hash
+        // code checked, which takes a few seconds.
+        int[] oldLimits = oldPool.getRangeUpperLimits();
+        int[] newLimits = newPool.getRangeUpperLimits();
+        int[] limits = null;
+        if (oldLimits != null && newLimits != null) {
+            limits = new int[oldLimits.length + newLimits.length];
+            System.arraycopy(oldLimits, 0, limits, 0, oldLimits.length);
+            System.arraycopy(newLimits, 0, limits, oldLimits.length, newLimits.length);
+            Arrays.sort(limits);
+        }
+        int count = limits == null ? ConsistentHashingResourcePool.MAX_HASH_VALUE + 1 : limits.length;
+
+        List<RangeMove> result = new ArrayList<RangeMove>();
+        int lowerLimit = 0;
+        RangeMove current = null;
+        for (int i = 0; i < count; i++) {
+            int upperLimit = limits == null ? i : limits[i];
+            if (upperLimit < lowerLimit) {
+                continue;
+            }
+            int from = oldPool.locateResourceByKeyHash(upperLimit);
+            int to = newPool.locateResourceByKeyHash(upperLimit);
+            if (from != to) {
+                if (current != null && current.getUpperLimit() == lowerLimit - 1
+                        && current.getFromResource() == from && current.getToResource() == to) {
+                    current = new RangeMove(current.getLowerLimit(), upperLimit, from, to);
+                    result.set(result.size() - 1, current);
+                } else {
+                    current = new RangeMove(lowerLimit, upperLimit, from, to);
+                    result.add(current);
+                }
+            }
+            lowerLimit = upperLimit + 1;
+        }
+
+        this.moves = Collections.unmodifiableList(result);
+        this.lowerLimits = new int[result.size()];
+        for (int i = 0; i < result.size(); i++) {
+            lowerLimits[i] = result.get(i).getLowerLimit();
+        }
+    }
+
+    /**
+     * @return all moves, ordered by hash code
+     */
+    public List<RangeMove> getMoves() {
+        return moves;
+    }
+
+    public List<RangeMove> getMovesFrom(int oldResourceIndex) {
+        List<RangeMove> result = new ArrayList<RangeMove>();
+        for (RangeMove move : moves) {
+            if (move.getFromResource() == oldResourceIndex) {
+                result.add(move);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return index into {@link #getMoves()} of the move covering the given
+     *         hash code, or -1 if keys with that hash code stay where they are
+     */
+    public int indexOfMove(int keyHashCode) {
+        int i = Arrays.binarySearch(lowerLimits, keyHashCode);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i >= 0 && moves.get(i).isMatch(keyHashCode)) {
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the move covering the given hash code, or null
+     */
+    public RangeMove locateMove(int keyHashCode) {
+        int i = indexOfMove(keyHashCode);
+        return i < 0 ? null : moves.get(i);
+    }
+
+    /**
+     * @return fraction of the hash space, and so of all keys, that moves
+     */
+    public double getMovedFraction() {
+        long moved = 0;
+        for (RangeMove move : moves) {
+            moved += move.getWidth();
+        }
+        return (double) moved / (ConsistentHashingResourcePool.MAX_HASH_VALUE + 1);
+    }
+
+}
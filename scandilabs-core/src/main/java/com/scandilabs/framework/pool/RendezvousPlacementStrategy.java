@@ -0,0 +1,135 @@
+package com.scandilabs.framework.pool;
+
+import java.util.List;
+
+import com.scandilabs.framework.util.NumberUtils;
+
+/**
+ * Rendezvous, or highest random weight, hashing. Every resource scores every
+ * key and the highest score wins, so the top n scores give a natural replica
+ * set. Removing a resource only moves its own keys, each to its second
+ * choice. Lookups cost O(n) in the number of resources, but need no more
+ * memory than one seed per resource.
+ * 
+ * Weighted resources use logarithmic scoring, so a resource with twice the
+ * weight gets twice the keys.
+ * 
+ * @see http://www.eecs.umich.edu/techreports/cse/96/CSE-TR-316-96.pdf
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class RendezvousPlacementStrategy implements PlacementStrategy {
+
+    private static final double TWO_TO_53 = (double) (1L << 53);
+
+    private final long[] seeds;
+
+    // Null when all resources weigh the same
+    private final double[] weights;
+
+    public RendezvousPlacementStrategy(List<String> resourceNames) {
+        this(resourceNames, null);
+    }
+
+    public RendezvousPlacementStrategy(List<String> resourceNames, double[] weights) {
+        if (resourceNames.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one resource");
+        }
+        if (weights != null && weights.length != resourceNames.size()) {
+            throw new IllegalArgumentException("Need one weight per resource");
+        }
+        this.seeds = new long[resourceNames.size()];
+        for (int i = 0; i < seeds.length; i++) {
+            String name = resourceNames.get(i);
+            seeds[i] = ((long) NumberUtils.murmurHash3(name, 0) << 32) | (NumberUtils.murmurHash3(name, 1) & 0xFFFFFFFFL);
+        }
+        boolean uniform = true;
+        if (weights != null) {
+            for (int i = 1; i < weights.length; i++) {
+                if (weights[i] != weights[0]) {
+                    uniform = false;
+                }
+            }
+        }
+        this.weights = uniform ? null : weights.clone();
+    }
+
+    public int getNumberOfResources() {
+        return seeds.length;
+    }
+
+    private double score(int resource, int keyHashCode) {
+        long h = NumberUtils.mix64(seeds[resource] ^ keyHashCode);
+        if (weights == null) {
+            return h >>> 11;
+        }
+
+        // Uniform in (0, 1), never exactly 0 so the log stays finite
+        double u = ((h >>> 11) + 0.5) / TWO_TO_53;
+        return -weights[resource] / Math.log(u);
+    }
+
+    public int locateResource(int keyHashCode) {
+        int best = 0;
+        double bestScore = score(0, keyHashCode);
+        for (int i = 1; i < seeds.length; i++) {
+            double s = score(i, keyHashCode);
+            if (s > bestScore) {
+                best = i;
+                bestScore = s;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Replicas are the resources with the next highest scores
+     */
+    public void locateResources(int keyHashCode, int[] result) {
+        int n = result.length;
+        if (n > seeds.length) {
+            throw new IllegalArgumentException(String.format("Asked for %d resources from a pool of %d", n,
+                    seeds.length));
+        }
+        if (n == 0) {
+            return;
+        }
+
+        // Keep the n best scores in descending order
+        double[] best = new double[n];
+        int found = 0;
+        for (int i = 0; i < seeds.length; i++) {
+            double s = score(i, keyHashCode);
+            if (found == n && s <= best[n - 1]) {
+                continue;
+            }
+            int j = found < n ? found++ : n - 1;
+            while (j > 0 && best[j - 1] < s) {
+                best[j] = best[j - 1];
+                result[j] = result[j - 1];
+                j--;
+            }
+            best[j] = s;
+            result[j] = i;
+        }
+    }
+
+    public double[] getLoadShares() {
+        double[] shares = new double[seeds.length];
+        double total = 0;
+        for (int i = 0; i < seeds.length; i++) {
+            shares[i] = weights == null ? 1.0 : weights[i];
+            total += shares[i];
+        }
+        for (int i = 0; i < seeds.length; i++) {
+            shares[i] /= total;
+        }
+        return shares;
+    }
+
+    public int[] getRangeUpperLimits() {
+        return null;
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.scandilabs.framework.pool;
+
+/**
+ * A snapshot of how load is spread over the resources of a pool. Loads are
+ * compared against each resource's fair share (its weight), so a weighted
+ * resource carrying twice the keys of its peers is not considered hot.
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class SkewReport {
+
+    private final long[] loads;
+
+    private final double[] shares;
+
+    private final long totalLoad;
+
+    public SkewReport(long[] loads, double[] shares) {
+        this.loads = loads.clone();
+        this.shares = shares.clone();
+        long total = 0;
+        for (int i = 0; i < loads.length; i++) {
+            total += loads[i];
+        }
+        this.totalLoad = total;
+    }
+
+    public long getLoad(int resourceIndex) {
+        return loads[resourceIndex];
+    }
+
+    public long getTotalLoad() {
+        return totalLoad;
+    }
+
+    public int getSize() {
+        return loads.length;
+    }
+
+    /**
+     * @return load of the given resource divided by its fair share of the
+     *         total load, 1.0 meaning perfectly balanced
+     */
+    public double getRelativeLoad(int resourceIndex) {
+        if (totalLoad == 0) {
+            return 0;
+        }
+        return loads[resourceIndex] / (totalLoad * shares[resourceIndex]);
+    }
+
+    /**
+     * @return index of the resource with the highest relative load
+     */
+    public int getPeakResource() {
+        int peak = 0;
+        for (int i = 1; i < loads.length; i++) {
+            if (getRelativeLoad(i) > getRelativeLoad(peak)) {
+                peak = i;
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @return the highest relative load, i.e. how many times its fair share
+     *         the hottest resource carries
+     */
+    public double getPeakToAverage() {
+        return getRelativeLoad(getPeakResource());
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("total load ");
+        sb.append(totalLoad);
+        sb.append(", peak to average ");
+        sb.append(String.format("%.3f", getPeakToAverage()));
+        sb.append(", loads [");
+        for (int i = 0; i < loads.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(loads[i]);
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+
+}
@@ -3,11 +3,10 @@ package com.scandilabs.framework.util;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Comparator;
 
-import org.apache.commons.beanutils.PropertyUtils;
-
 /**
  * Compares a given property (sortPropertyName, set in constructor) on two beans
- * (which must both have a getter for the sort property)
+ * (which must both have a getter for the sort property). The getter is looked
+ * up once through a {@link PropertyAccessor}, not on every comparison.
  * 
  * @author mkvalsvik
  * 
@@ -17,16 +16,19 @@ public class BeanPropertyComparator implements Comparator {
 
 	public BeanPropertyComparator(String sortPropertyName) {
 		this.sortPropertyName = sortPropertyName;
+		this.accessor = PropertyAccessor.forPath(sortPropertyName);
 	}
 
 	private String sortPropertyName;
 
+	private PropertyAccessor accessor;
+
 	public int compare(Object o1, Object o2) {
 		Object property1 = null;
 		Object property2 = null;
 		try {
-			property1 = PropertyUtils.getProperty(o1, this.sortPropertyName);
-			property2 = PropertyUtils.getProperty(o2, this.sortPropertyName);
+			property1 = this.accessor.get(o1);
+			property2 = this.accessor.get(o2);
 		} catch (IllegalAccessException e) {
 			throw new RuntimeException("Exception invoking getter " + sortPropertyName + ": " + e.toString());
 		} catch (InvocationTargetException e) {
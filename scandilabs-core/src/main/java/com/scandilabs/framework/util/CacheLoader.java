@@ -0,0 +1,17 @@
+package com.scandilabs.framework.util;
+
+/**
+ * Computes the value of a cache entry, see {@link LoadingCache}
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public interface CacheLoader<K, V> {
+
+    /**
+     * @return the value for the key, null is a valid value and is cached like
+     *         any other
+     */
+    V load(K key) throws Exception;
+
+}
@@ -0,0 +1,17 @@
+package com.scandilabs.framework.util;
+
+/**
+ * Thrown by {@link LoadingCache} when a value could not be loaded and there is
+ * no earlier value to fall back on. The cause is what the loader threw.
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class CacheLoadingException extends RuntimeException {
+
+    private static final long serialVersionUID = 201528013L;
+
+    public CacheLoadingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
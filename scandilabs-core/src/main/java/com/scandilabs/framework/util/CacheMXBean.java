@@ -0,0 +1,29 @@
+package com.scandilabs.framework.util;
+
+/**
+ * What JMX clients see of a cache, see {@link CacheMonitor}
+ *
+ * @author mkvalsvik
+ *
+ */
+public interface CacheMXBean {
+
+    int getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    double getHitRate();
+
+    long getLoadSuccessCount();
+
+    long getLoadFailureCount();
+
+    double getAverageLoadPenaltyMillis();
+
+    long getEvictionCount();
+
+    long getExpirationCount();
+
+}
@@ -0,0 +1,123 @@
+package com.scandilabs.framework.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the statistics of a cache as an MBean, so they can be watched with
+ * jconsole or any other JMX client. Register each cache once under a name of
+ * its own, for example:
+ *
+ * <pre>
+ * CacheMonitor.register(&quot;users&quot;, userCache);
+ * </pre>
+ *
+ * which shows up as com.scandilabs.framework:type=Cache,name=&quot;users&quot;.
+ * Registering again under the same name replaces the earlier cache, so a
+ * redeployed web application does not fail on the MBean its previous instance
+ * left behind.
+ *
+ * @author mkvalsvik
+ *
+ */
+public class CacheMonitor implements CacheMXBean {
+
+    public static final String DOMAIN = "com.scandilabs.framework";
+
+    private static Logger logger = LoggerFactory.getLogger(CacheMonitor.class);
+
+    private final CacheStatsProvider cache;
+
+    public CacheMonitor(CacheStatsProvider cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the object name the cache is registered under
+     */
+    public static ObjectName register(String name, CacheStatsProvider cache) {
+        ObjectName objectName = objectName(name);
+        register(objectName, cache);
+        return objectName;
+    }
+
+    public static void register(ObjectName objectName, CacheStatsProvider cache) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                logger.debug(String.format("Replacing MBean %s", objectName));
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new CacheMonitor(cache), objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException(String.format("Could not register %s", objectName), e);
+        }
+    }
+
+    public static void unregister(String name) {
+        unregister(objectName(name));
+    }
+
+    public static void unregister(ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (InstanceNotFoundException e) {
+            logger.debug(String.format("MBean %s was not registered", objectName));
+        } catch (JMException e) {
+            throw new IllegalStateException(String.format("Could not unregister %s", objectName), e);
+        }
+    }
+
+    public static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(DOMAIN + ":type=Cache,name=" + ObjectName.quote(name));
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("Not a valid cache name: " + name, e);
+        }
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.getStats().getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getStats().getMissCount();
+    }
+
+    public double getHitRate() {
+        return cache.getStats().getHitRate();
+    }
+
+    public long getLoadSuccessCount() {
+        return cache.getStats().getLoadSuccessCount();
+    }
+
+    public long getLoadFailureCount() {
+        return cache.getStats().getLoadFailureCount();
+    }
+
+    public double getAverageLoadPenaltyMillis() {
+        return cache.getStats().getAverageLoadPenalty() / 1000000.0;
+    }
+
+    public long getEvictionCount() {
+        return cache.getStats().getEvictionCount();
+    }
+
+    public long getExpirationCount() {
+        return cache.getStats().getExpirationCount();
+    }
+
+}
@@ -0,0 +1,392 @@
+package com.scandilabs.framework.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the hottest entries of an {@link LRUCache} to a file, and warms up the
+ * cache from that file after a restart, so a redeployed application does not
+ * send its database or Solr a burst of misses. Typical use, for instance from
+ * Spring's init and destroy methods:
+ *
+ * <pre>
+ * snapshot = new CacheSnapshot&lt;String, User&gt;(cache, file, 10000, new StringSerializer(), null);
+ * snapshot.startWarming(userLoader, 50);
+ * snapshot.start(TimeUnit.MINUTES.toMillis(5));
+ * ...
+ * snapshot.stop();
+ * </pre>
+ *
+ * Without a value serializer only keys are saved, and warming up loads their
+ * values through a {@link CacheLoader} at a limited rate. With one, values are
+ * saved too, along with the time each was put into the cache, and put back as
+ * they are for the rest of their time to live. Values that have expired since
+ * are loaded through the loader like key-only ones.
+ *
+ * The file holds a header (magic number, version, whether values are
+ * included, time saved and number of entries) followed by the entries,
+ * hottest first: the time put, a length-prefixed key and, if included, a
+ * length-prefixed value. Snapshots of version 1, which had no times, are
+ * warmed up by key only. It is written to a temporary file which
+ * then replaces the old one, so a crash while saving leaves the previous
+ * snapshot intact.
+ *
+ * @author mkvalsvik
+ *
+ */
+public class CacheSnapshot<K, V> {
+
+    private static final int MAGIC = 0x53434853;
+
+    private static final int VERSION = 2;
+
+    /**
+     * Had no insert times, so values can not be trusted to be fresh
+     */
+    private static final int VERSION_WITHOUT_TIMES = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 8 + 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Warming up stops after this many loads in a row failed, the backend is
+     * probably down
+     */
+    static final int MAX_CONSECUTIVE_FAILURES = 10;
+
+    private static Logger logger = LoggerFactory.getLogger(CacheSnapshot.class);
+
+    private final LRUCache<K, V> cache;
+
+    private final File file;
+
+    private final int maxEntries;
+
+    private final Serializer<K> keySerializer;
+
+    private final Serializer<V> valueSerializer;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param maxEntries
+     *            the most entries to save
+     * @param valueSerializer
+     *            null to save keys only
+     */
+    public CacheSnapshot(LRUCache<K, V> cache, File file, int maxEntries, Serializer<K> keySerializer,
+            Serializer<V> valueSerializer) {
+        this.cache = cache;
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+    }
+
+    /**
+     * Writes the hottest entries of the cache to the file
+     *
+     * @return the number of entries saved
+     */
+    public synchronized int save() throws IOException {
+        List<LRUCache.TimedEntry<K, V>> hottest = cache.getHottestEntries(maxEntries);
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.put((byte) (valueSerializer == null ? 0 : 1));
+            buffer.putLong(System.currentTimeMillis());
+            buffer.putInt(hottest.size());
+            for (LRUCache.TimedEntry<K, V> entry : hottest) {
+                writeLong(channel, buffer, entry.insertTime);
+                write(channel, buffer, keySerializer.serialize(entry.getKey()));
+                if (valueSerializer != null) {
+                    write(channel, buffer, valueSerializer.serialize(entry.getValue()));
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+            channel.force(false);
+        } finally {
+            out.close();
+        }
+
+        // No atomic replace before Java 7, but renaming over the old file is
+        // atomic where the platform allows it
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                throw new IOException(String.format("Could not rename %s to %s", temporary, file));
+            }
+        }
+        logger.debug(String.format("Saved %d entries to %s", hottest.size(), file));
+        return hottest.size();
+    }
+
+    /**
+     * Adds the bytes to the buffer, first writing out what the buffer holds if
+     * they do not fit
+     */
+    private static void write(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+        if (buffer.remaining() < 4 + bytes.length) {
+            buffer.flip();
+            writeFully(channel, buffer);
+            buffer.clear();
+        }
+        if (buffer.remaining() < 4 + bytes.length) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            length.putInt(bytes.length).flip();
+            writeFully(channel, length);
+            writeFully(channel, ByteBuffer.wrap(bytes));
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static void writeLong(FileChannel channel, ByteBuffer buffer, long value) throws IOException {
+        if (buffer.remaining() < 8) {
+            buffer.flip();
+            writeFully(channel, buffer);
+            buffer.clear();
+        }
+        buffer.putLong(value);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return the saved entries hottest first, with null values if values
+     *         were not saved or have expired since. Empty if there is no
+     *         snapshot.
+     */
+    public Map<K, V> read() throws IOException {
+        Map<K, V> entries = new LinkedHashMap<K, V>();
+        for (LRUCache.TimedEntry<K, V> entry : readEntries()) {
+            entries.put(entry.getKey(), entry.getValue());
+        }
+        return entries;
+    }
+
+    /**
+     * Like {@link #read()}, with the time each value was put into the cache
+     */
+    List<LRUCache.TimedEntry<K, V>> readEntries() throws IOException {
+        List<LRUCache.TimedEntry<K, V>> entries = new ArrayList<LRUCache.TimedEntry<K, V>>();
+        if (!file.exists()) {
+            return entries;
+        }
+        ByteBuffer buffer;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too big: " + file);
+            }
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+        } finally {
+            in.close();
+        }
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a cache snapshot: " + file);
+        }
+        int version = buffer.getInt();
+        if (version != VERSION && version != VERSION_WITHOUT_TIMES) {
+            throw new IOException(String.format("Unknown snapshot version %d in %s", version, file));
+        }
+        boolean hasTimes = version != VERSION_WITHOUT_TIMES;
+        boolean hasValues = buffer.get() != 0;
+        buffer.getLong();
+        int count = buffer.getInt();
+        boolean useValues = hasValues && hasTimes && valueSerializer != null;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            long insertTime = 0;
+            if (hasTimes) {
+                if (buffer.remaining() < 8) {
+                    throw new IOException("Snapshot cut short: " + file);
+                }
+                insertTime = buffer.getLong();
+            }
+            K key = keySerializer.deserialize(readBytes(buffer));
+            V value = null;
+            if (hasValues) {
+                byte[] bytes = readBytes(buffer);
+                if (useValues && (insertTime + cache.timeToLiveMillis) >= now) {
+                    value = valueSerializer.deserialize(bytes);
+                }
+            }
+            entries.add(new LRUCache.TimedEntry<K, V>(key, value, insertTime));
+        }
+        return entries;
+    }
+
+    private byte[] readBytes(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            throw new IOException("Snapshot cut short: " + file);
+        }
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Snapshot cut short: " + file);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Puts the saved entries back into the cache, on the calling thread.
+     * Entries already in the cache are left alone, saved values are put as
+     * they are and the others are loaded, at most loadsPerSecond at a time.
+     *
+     * @param loader
+     *            may be null to only put back saved values
+     * @return the number of entries put into the cache
+     */
+    public int warm(CacheLoader<K, V> loader, double loadsPerSecond) throws IOException, InterruptedException {
+        List<LRUCache.TimedEntry<K, V>> entries = readEntries();
+        RateLimiter rateLimiter = new RateLimiter(loadsPerSecond);
+        int warmed = 0;
+        int failures = 0;
+        for (LRUCache.TimedEntry<K, V> entry : entries) {
+            K key = entry.getKey();
+            V value = entry.getValue();
+
+            // A get would count a miss, and with TinyLFU a use, for every
+            // entry warmed up
+            if (cache.containsKey(key)) {
+                continue;
+            }
+            if (value != null) {
+
+                // Expires when it would have in the old cache
+                cache.put(key, value, entry.insertTime);
+                warmed++;
+                continue;
+            }
+            if (loader == null) {
+                continue;
+            }
+            rateLimiter.acquire();
+            try {
+                value = loader.load(key);
+                failures = 0;
+            } catch (Exception e) {
+                logger.warn(String.format("Could not load %s to warm up the cache", key), e);
+                if (++failures == MAX_CONSECUTIVE_FAILURES) {
+                    logger.warn(String.format("Stopped warming up the cache after %d failures in a row",
+                            failures));
+                    break;
+                }
+                continue;
+            }
+            if (value == null) {
+                continue;
+            }
+            cache.put(key, value);
+            warmed++;
+        }
+        logger.info(String.format("Warmed up the cache with %d of %d entries from %s", warmed, entries.size(),
+                file));
+        return warmed;
+    }
+
+    /**
+     * Warms up the cache on a daemon thread of its own, interrupt it to stop
+     */
+    public Thread startWarming(final CacheLoader<K, V> loader, final double loadsPerSecond) {
+        Thread thread = new Thread("CacheSnapshot warm-up " + file.getName()) {
+            public void run() {
+                try {
+                    warm(loader, loadsPerSecond);
+                } catch (IOException e) {
+                    logger.warn(String.format("Could not warm up the cache from %s", file), e);
+                } catch (InterruptedException e) {
+                    logger.info("Warming up the cache was interrupted");
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Saves a snapshot every periodMillis, on a daemon thread of its own
+     */
+    public synchronized void start(long periodMillis) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Already saving snapshots to " + file);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CacheSnapshot " + file.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                saveQuietly();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops saving periodically, and saves one last snapshot
+     */
+    public void stop() {
+        ScheduledExecutorService stopped;
+        synchronized (this) {
+            stopped = scheduler;
+            scheduler = null;
+        }
+        if (stopped == null) {
+            return;
+        }
+        stopped.shutdown();
+        try {
+            stopped.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        saveQuietly();
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            logger.warn(String.format("Could not save a cache snapshot to %s", file), e);
+        } catch (RuntimeException e) {
+            logger.warn(String.format("Could not save a cache snapshot to %s", file), e);
+        }
+    }
+
+}
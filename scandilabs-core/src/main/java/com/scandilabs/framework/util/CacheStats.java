@@ -0,0 +1,124 @@
+package com.scandilabs.framework.util;
+
+/**
+ * A snapshot of the counts of a cache since it was created. Take two and
+ * subtract them with {@link #minus(CacheStats)} for the counts of an interval.
+ *
+ * @author mkvalsvik
+ *
+ */
+public class CacheStats {
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long loadSuccessCount;
+
+    private final long loadFailureCount;
+
+    private final long totalLoadTime;
+
+    private final long evictionCount;
+
+    private final long expirationCount;
+
+    /**
+     * @param totalLoadTime
+     *            in nanoseconds
+     */
+    public CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount,
+            long totalLoadTime, long evictionCount, long expirationCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return hits per request, 1 when there were no requests
+     */
+    public double getHitRate() {
+        long requests = getRequestCount();
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    public double getMissRate() {
+        long requests = getRequestCount();
+        return requests == 0 ? 0.0 : (double) missCount / requests;
+    }
+
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    public long getLoadCount() {
+        return loadSuccessCount + loadFailureCount;
+    }
+
+    /**
+     * @return nanoseconds spent loading, failed loads included
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * @return average nanoseconds per load
+     */
+    public double getAverageLoadPenalty() {
+        long loads = getLoadCount();
+        return loads == 0 ? 0.0 : (double) totalLoadTime / loads;
+    }
+
+    /**
+     * @return entries removed to make room for others
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return entries removed because they were too old
+     */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * @return the counts between an earlier snapshot and this one
+     */
+    public CacheStats minus(CacheStats earlier) {
+        return new CacheStats(hitCount - earlier.hitCount, missCount - earlier.missCount, loadSuccessCount
+                - earlier.loadSuccessCount, loadFailureCount - earlier.loadFailureCount, totalLoadTime
+                - earlier.totalLoadTime, evictionCount - earlier.evictionCount, expirationCount
+                - earlier.expirationCount);
+    }
+
+    public String toString() {
+        return String.format(
+                "hits=%d, misses=%d, hitRate=%.3f, loads=%d, loadFailures=%d, averageLoadPenalty=%.0fns, "
+                        + "evictions=%d, expirations=%d", hitCount, missCount, getHitRate(), getLoadCount(),
+                loadFailureCount, getAverageLoadPenalty(), evictionCount, expirationCount);
+    }
+
+}
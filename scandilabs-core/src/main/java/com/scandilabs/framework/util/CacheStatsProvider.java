@@ -0,0 +1,16 @@
+package com.scandilabs.framework.util;
+
+/**
+ * A cache that counts what happens to it, see {@link CacheMonitor} for
+ * publishing the counts over JMX
+ *
+ * @author mkvalsvik
+ *
+ */
+public interface CacheStatsProvider {
+
+    CacheStats getStats();
+
+    int size();
+
+}
@@ -1,10 +1,16 @@
 package com.scandilabs.framework.util;
 
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +26,30 @@ public class ClassUtils {
 
     private static Logger log = LoggerFactory.getLogger(ClassUtils.class);
 
+    /**
+     * The most class names remembered per context class loader
+     */
+    static final int MAX_NAMES_PER_LOADER = 10000;
+
+    /**
+     * Remembered in place of a class that was not found
+     */
+    private static final Object NOT_FOUND = new Object();
+
+    /**
+     * The names of each class's superclasses and interfaces, itself included.
+     * Names do not refer to the class, so classes of a redeployed application
+     * still leave the map.
+     */
+    private static final Map<Class<?>, Set<String>> supertypeNames = new WeakHashMap<Class<?>, Set<String>>();
+
+    /**
+     * Classes by name for each context class loader, as weak references or
+     * NOT_FOUND. Classes are only referred to weakly so they do not keep their
+     * class loader in the map.
+     */
+    private static final Map<ClassLoader, Map<String, Object>> classesByLoader = new WeakHashMap<ClassLoader, Map<String, Object>>();
+
     /**
      * Helper method for running a junit test class outside a Junit test runner
      * (typically from a main() method)
@@ -137,43 +167,45 @@ public class ClassUtils {
             return false;
         }
 
-        String interfaceClassName = interfaceClass.getName();
-        String implementingClassName = implementingClass.getName();
-
-        // Same class?
-        if (interfaceClassName.equals(implementingClassName)) {
+        // Classes are compared by name, so the same class loaded by two
+        // class loaders still matches
+        if (implementingClass == interfaceClass) {
             return true;
         }
+        return getSupertypeNames(implementingClass).contains(
+                interfaceClass.getName());
+    }
 
-        // Recursively check all implemented interfaces
-        for (int i = 0; i < implementingClass.getInterfaces().length; i++) {
-            implementingClassName = implementingClass.getInterfaces()[i]
-                    .getName();
-            if (interfaceClassName.equals(implementingClassName)) {
-                return true;
-            }
-            if (isInstanceOf(implementingClass.getInterfaces()[i],
-                    interfaceClass)) {
-                return true;
+    /**
+     * @return the names of the class, its superclasses and all interfaces
+     *         they implement, worked out once per class
+     */
+    private static Set<String> getSupertypeNames(Class<?> clazz) {
+        synchronized (supertypeNames) {
+            Set<String> names = supertypeNames.get(clazz);
+            if (names != null) {
+                return names;
             }
         }
-
-        // Recursively check the superclass
-        Class<?> superClass = implementingClass.getSuperclass();
-        if (superClass != null) {
-
-            // we have a superclass which is not Object
-            if (interfaceClassName.equals(superClass.getName())) {
-                return true;
-            }
-            if (isInstanceOf(superClass, interfaceClass)) {
-                return true;
-            }
+        Set<String> names = new HashSet<String>();
+        addSupertypeNames(clazz, names);
+        synchronized (supertypeNames) {
+            supertypeNames.put(clazz, names);
         }
+        return names;
+    }
 
-        // By now we haven't found any superclasses or implemented interfaces.
-        // Return false.
-        return false;
+    private static void addSupertypeNames(Class<?> clazz, Set<String> names) {
+        if (!names.add(clazz.getName())) {
+            return;
+        }
+        Class<?>[] interfaces = clazz.getInterfaces();
+        for (int i = 0; i < interfaces.length; i++) {
+            addSupertypeNames(interfaces[i], names);
+        }
+        if (clazz.getSuperclass() != null) {
+            addSupertypeNames(clazz.getSuperclass(), names);
+        }
     }
 
     /**
@@ -349,13 +381,65 @@ public class ClassUtils {
     }
 
     /**
-     * Convert a class name to a loaded <code>Class</code> object
+     * Convert a class name to a loaded <code>Class</code> object. Classes,
+     * and names that were not found, are remembered for each context class
+     * loader, so only the first call for a name loads it.
      * 
      * @param className
      * @return the loaded <code>Class</code>
      */
     public static Class<?> toClass(String className) {
         String trimmedClassName = className.trim();
+        ClassLoader contextLoader = Thread.currentThread()
+                .getContextClassLoader();
+        Map<String, Object> classes;
+        Object known;
+        synchronized (classesByLoader) {
+            classes = classesByLoader.get(contextLoader);
+            if (classes == null) {
+                classes = new LinkedHashMap<String, Object>() {
+                    private static final long serialVersionUID = 1L;
+
+                    protected boolean removeEldestEntry(
+                            Map.Entry<String, Object> eldest) {
+                        return size() > MAX_NAMES_PER_LOADER;
+                    }
+                };
+                classesByLoader.put(contextLoader, classes);
+            }
+            known = classes.get(trimmedClassName);
+        }
+        if (known instanceof WeakReference) {
+            Class<?> clazz = (Class<?>) ((WeakReference<?>) known).get();
+            if (clazz != null) {
+                return clazz;
+            }
+        } else if (known == NOT_FOUND) {
+            throw classNotFound(trimmedClassName, contextLoader, null);
+        }
+        Class<?> clazz;
+        try {
+            clazz = loadClass(trimmedClassName);
+        } catch (IllegalArgumentException e) {
+            synchronized (classesByLoader) {
+                classes.put(trimmedClassName, NOT_FOUND);
+            }
+            throw e;
+        }
+        if (clazz != null) {
+            synchronized (classesByLoader) {
+                classes.put(trimmedClassName, new WeakReference<Class<?>>(
+                        clazz));
+            }
+        }
+        return clazz;
+    }
+
+    /**
+     * Loads the class through the current class loader, or the context class
+     * loader if that fails
+     */
+    private static Class<?> loadClass(String trimmedClassName) {
         ClassLoader currentLoader = ClassUtils.class.getClassLoader();
         Class<?> clazz = null;
         try {
@@ -368,18 +452,23 @@ public class ClassUtils {
                     clazz = Class
                             .forName(trimmedClassName, true, contextLoader);
                 } catch (ClassNotFoundException e2) {
-                    throw new IllegalArgumentException(
-                            "Class not found using contextClassLoader "
-                                    + contextLoader
-                                    + " or current classLoader "
-                                    + currentLoader + ": " + trimmedClassName,
-                            e2);
+                    throw classNotFound(trimmedClassName, contextLoader, e2);
                 }
             }
         }
         return clazz;
     }
 
+    private static IllegalArgumentException classNotFound(
+            String trimmedClassName, ClassLoader contextLoader,
+            ClassNotFoundException cause) {
+        return new IllegalArgumentException(
+                "Class not found using contextClassLoader " + contextLoader
+                        + " or current classLoader "
+                        + ClassUtils.class.getClassLoader() + ": "
+                        + trimmedClassName, cause);
+    }
+
     /**
      * Converts a collection of class names (Strings) to an array of Class
      * objects
@@ -0,0 +1,859 @@
+package com.scandilabs.framework.util;
+
+import java.text.DateFormatSymbols;
+import java.text.ParsePosition;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * A date format that compiles its SimpleDateFormat pattern once into a list
+ * of fields, and is immutable and safe to share between threads after that.
+ * It works out year, month, day and time with integer arithmetic instead of a
+ * Calendar, writes straight into a caller's char[], and parses into a long,
+ * so neither formatting into an array nor parsing allocates anything but the
+ * result. It keeps no per thread state, which would outlive a web
+ * application's class loader in a pooled thread.
+ *
+ * Supports the pattern letters y, M, d, E, a, H, k, K, h, m, s, S, Z and X and
+ * quoted text, with the same output as SimpleDateFormat, and throws an
+ * IllegalArgumentException for any other letter. Dates are Gregorian all the
+ * way back, so dates before 1583 come out differently from SimpleDateFormat,
+ * which switches to the Julian calendar (ThreadSafeSimpleDateFormat leaves
+ * those to SimpleDateFormat).
+ *
+ * Patterns without milliseconds, such as {@link #ZULU}, remember the text of
+ * the latest second formatted, which timestamps of log lines and Solr
+ * documents tend to repeat. Dates earlier than that second are formatted but
+ * not remembered, so a mix of old and new dates keeps the latest.
+ *
+ * @author mkvalsvik
+ *
+ */
+public final class CompiledDateFormat {
+
+    /**
+     * When the Gregorian calendar took over from the Julian one
+     */
+    static final long GREGORIAN_CUTOVER = -12219292800000L;
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private static final int LITERAL = 0;
+
+    private static final int YEAR = 1;
+
+    private static final int MONTH = 2;
+
+    private static final int MONTH_NAME = 3;
+
+    private static final int DAY = 4;
+
+    private static final int DAY_NAME = 5;
+
+    private static final int AM_PM = 6;
+
+    private static final int HOUR_OF_DAY = 7;
+
+    private static final int HOUR_1_24 = 8;
+
+    private static final int HOUR_0_11 = 9;
+
+    private static final int HOUR_1_12 = 10;
+
+    private static final int MINUTE = 11;
+
+    private static final int SECOND = 12;
+
+    private static final int MILLISECOND = 13;
+
+    private static final int ZONE_RFC822 = 14;
+
+    private static final int ZONE_ISO = 15;
+
+    private static final String LETTERS = "yMdEaHkKhmsSZX";
+
+    private static final int[] LETTER_KINDS = { YEAR, MONTH, DAY, DAY_NAME, AM_PM, HOUR_OF_DAY, HOUR_1_24,
+            HOUR_0_11, HOUR_1_12, MINUTE, SECOND, MILLISECOND, ZONE_RFC822, ZONE_ISO };
+
+    /**
+     * The text of the last second formatted
+     */
+    private static class Cached {
+
+        final long second;
+
+        final char[] text;
+
+        final int length;
+
+        Cached(long second, char[] text, int length) {
+            this.second = second;
+            this.text = text;
+            this.length = length;
+        }
+    }
+
+    /**
+     * ThreadSafeSimpleDateFormat.ZULU_FORMAT, compiled. Declared after the
+     * tables the constructor uses.
+     */
+    public static final CompiledDateFormat ZULU = new CompiledDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", TimeZone
+            .getTimeZone("GMT"));
+
+    private final String pattern;
+
+    private final TimeZone timeZone;
+
+    /**
+     * The fields of the pattern, with their letter counts or, for literals,
+     * their text
+     */
+    private final int[] kinds;
+
+    private final int[] counts;
+
+    private final String[] literals;
+
+    private final String[] months;
+
+    private final String[] shortMonths;
+
+    private final String[] weekdays;
+
+    private final String[] shortWeekdays;
+
+    private final String[] amPm;
+
+    private final int maxLength;
+
+    private final boolean cacheSeconds;
+
+    private final boolean twoDigitYear;
+
+    private volatile Cached cached;
+
+    public CompiledDateFormat(String pattern) {
+        this(pattern, TimeZone.getDefault(), Locale.getDefault());
+    }
+
+    public CompiledDateFormat(String pattern, TimeZone timeZone) {
+        this(pattern, timeZone, Locale.getDefault());
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the pattern is not valid or uses letters this class does
+     *             not support
+     */
+    public CompiledDateFormat(String pattern, TimeZone timeZone, Locale locale) {
+        this.pattern = pattern;
+        this.timeZone = (TimeZone) timeZone.clone();
+        DateFormatSymbols symbols = new DateFormatSymbols(locale);
+        this.months = symbols.getMonths();
+        this.shortMonths = symbols.getShortMonths();
+        this.weekdays = symbols.getWeekdays();
+        this.shortWeekdays = symbols.getShortWeekdays();
+        this.amPm = symbols.getAmPmStrings();
+
+        List<int[]> fields = new ArrayList<int[]>();
+        List<String> texts = new ArrayList<String>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                int end = i + 1;
+                if (end < pattern.length() && pattern.charAt(end) == '\'') {
+                    literal.append('\'');
+                    i += 2;
+                    continue;
+                }
+                while (true) {
+                    if (end == pattern.length()) {
+                        throw new IllegalArgumentException("Unterminated quote in " + pattern);
+                    }
+                    if (pattern.charAt(end) == '\'') {
+                        if (end + 1 < pattern.length() && pattern.charAt(end + 1) == '\'') {
+                            literal.append('\'');
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    literal.append(pattern.charAt(end++));
+                }
+                i = end + 1;
+            } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                int letter = LETTERS.indexOf(c);
+                if (letter < 0) {
+                    throw new IllegalArgumentException(String.format("Unsupported pattern letter '%c' in %s", c,
+                            pattern));
+                }
+                int count = 1;
+                while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+                    count++;
+                }
+                if (literal.length() > 0) {
+                    fields.add(new int[] { LITERAL, 0 });
+                    texts.add(literal.toString());
+                    literal.setLength(0);
+                }
+                int kind = LETTER_KINDS[letter];
+                if (kind == MONTH && count >= 3) {
+                    kind = MONTH_NAME;
+                }
+                if (kind == ZONE_ISO && count > 3) {
+                    throw new IllegalArgumentException("Too many X in " + pattern);
+                }
+                fields.add(new int[] { kind, count });
+                texts.add(null);
+                i += count;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        if (literal.length() > 0) {
+            fields.add(new int[] { LITERAL, 0 });
+            texts.add(literal.toString());
+        }
+
+        this.kinds = new int[fields.size()];
+        this.counts = new int[fields.size()];
+        this.literals = texts.toArray(new String[texts.size()]);
+        int length = 0;
+        boolean hasMillis = false;
+        boolean hasTwoDigitYear = false;
+        for (int f = 0; f < kinds.length; f++) {
+            kinds[f] = fields.get(f)[0];
+            counts[f] = fields.get(f)[1];
+            length += maxLength(kinds[f], counts[f], literals[f]);
+            hasMillis |= kinds[f] == MILLISECOND;
+            hasTwoDigitYear |= kinds[f] == YEAR && counts[f] == 2;
+        }
+        this.maxLength = length;
+        this.cacheSeconds = !hasMillis;
+        this.twoDigitYear = hasTwoDigitYear;
+    }
+
+    private int maxLength(int kind, int count, String literal) {
+        switch (kind) {
+        case LITERAL:
+            return literal.length();
+        case MONTH_NAME:
+            return longest(count >= 4 ? months : shortMonths);
+        case DAY_NAME:
+            return longest(count >= 4 ? weekdays : shortWeekdays);
+        case AM_PM:
+            return longest(amPm);
+        case ZONE_RFC822:
+        case ZONE_ISO:
+            return 6;
+        default:
+
+            // Years go up to 9 digits and a sign
+            return Math.max(count, 10);
+        }
+    }
+
+    private static int longest(String[] names) {
+        int longest = 0;
+        for (String name : names) {
+            longest = Math.max(longest, name.length());
+        }
+        return longest;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return a copy of the time zone dates are formatted in
+     */
+    public TimeZone getTimeZone() {
+        return (TimeZone) timeZone.clone();
+    }
+
+    /**
+     * @return the most characters a date can take, the room format(long,
+     *         char[], int) needs
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public String format(Date date) {
+        return format(date.getTime());
+    }
+
+    public String format(long millis) {
+        char[] text = new char[maxLength];
+        return new String(text, 0, format(millis, text, 0));
+    }
+
+    public void format(long millis, StringBuilder toAppendTo) {
+        Cached last = cached;
+        if (last != null && last.second == floorDiv(millis, 1000)) {
+            toAppendTo.append(last.text, 0, last.length);
+            return;
+        }
+        char[] text = new char[maxLength];
+        toAppendTo.append(text, 0, format(millis, text, 0));
+    }
+
+    /**
+     * Writes the date into the array, which must have room for
+     * {@link #getMaxLength()} characters from offset on
+     *
+     * @return the index after the last character written
+     */
+    public int format(long millis, char[] out, int offset) {
+        long second = floorDiv(millis, 1000);
+        Cached last = cached;
+        if (last != null && last.second == second) {
+            System.arraycopy(last.text, 0, out, offset, last.length);
+            return offset + last.length;
+        }
+
+        long local = millis + timeZone.getOffset(millis);
+        int zoneOffset = (int) (local - millis);
+        long epochDay = floorDiv(local, MILLIS_PER_DAY);
+        int millisOfDay = (int) (local - epochDay * MILLIS_PER_DAY);
+        int date = civilFromDays(epochDay);
+        int year = date >> 9;
+        int month = (date >> 5) & 0xF;
+        int day = date & 0x1F;
+        int hour = millisOfDay / 3600000;
+        int p = offset;
+        for (int f = 0; f < kinds.length; f++) {
+            int count = counts[f];
+            switch (kinds[f]) {
+            case LITERAL:
+                String literal = literals[f];
+                literal.getChars(0, literal.length(), out, p);
+                p += literal.length();
+                break;
+            case YEAR:
+                if (count == 2) {
+                    p = appendNumber(out, p, floorMod(year, 100), 2);
+                } else {
+                    p = appendNumber(out, p, year, count);
+                }
+                break;
+            case MONTH:
+                p = appendNumber(out, p, month, count);
+                break;
+            case MONTH_NAME:
+                p = appendName(out, p, (count >= 4 ? months : shortMonths)[month - 1]);
+                break;
+            case DAY:
+                p = appendNumber(out, p, day, count);
+                break;
+            case DAY_NAME:
+
+                // 1970-01-01 was a Thursday, names are indexed from Sunday = 1
+                int dayOfWeek = (int) floorMod(epochDay + 4, 7) + 1;
+                p = appendName(out, p, (count >= 4 ? weekdays : shortWeekdays)[dayOfWeek]);
+                break;
+            case AM_PM:
+                p = appendName(out, p, amPm[hour < 12 ? 0 : 1]);
+                break;
+            case HOUR_OF_DAY:
+                p = appendNumber(out, p, hour, count);
+                break;
+            case HOUR_1_24:
+                p = appendNumber(out, p, hour == 0 ? 24 : hour, count);
+                break;
+            case HOUR_0_11:
+                p = appendNumber(out, p, hour % 12, count);
+                break;
+            case HOUR_1_12:
+                p = appendNumber(out, p, hour % 12 == 0 ? 12 : hour % 12, count);
+                break;
+            case MINUTE:
+                p = appendNumber(out, p, millisOfDay / 60000 % 60, count);
+                break;
+            case SECOND:
+                p = appendNumber(out, p, millisOfDay / 1000 % 60, count);
+                break;
+            case MILLISECOND:
+                p = appendNumber(out, p, millisOfDay % 1000, count);
+                break;
+            case ZONE_RFC822:
+                p = appendOffset(out, p, zoneOffset, 2, false);
+                break;
+            case ZONE_ISO:
+                if (zoneOffset == 0) {
+                    out[p++] = 'Z';
+                } else {
+                    p = appendOffset(out, p, zoneOffset, count, count == 3);
+                }
+                break;
+            }
+        }
+        if (cacheSeconds && (last == null || second > last.second)) {
+            int length = p - offset;
+            char[] text = new char[length];
+            System.arraycopy(out, offset, text, 0, length);
+            cached = new Cached(second, text, length);
+        }
+        return p;
+    }
+
+    private static int appendNumber(char[] out, int p, int value, int minDigits) {
+        if (value < 0) {
+            out[p++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        for (int i = digits; i < minDigits; i++) {
+            out[p++] = '0';
+        }
+        int end = p + digits;
+        for (int i = end - 1; i >= p; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    private static int appendName(char[] out, int p, String name) {
+        name.getChars(0, name.length(), out, p);
+        return p + name.length();
+    }
+
+    /**
+     * @param parts
+     *            1 for hours only, 2 for hours and minutes
+     */
+    private static int appendOffset(char[] out, int p, int offsetMillis, int parts, boolean colon) {
+        int minutes = offsetMillis / 60000;
+        out[p++] = minutes < 0 ? '-' : '+';
+        minutes = Math.abs(minutes);
+        p = appendNumber(out, p, minutes / 60, 2);
+        if (parts > 1) {
+            if (colon) {
+                out[p++] = ':';
+            }
+            p = appendNumber(out, p, minutes % 60, 2);
+        }
+        return p;
+    }
+
+    /**
+     * Parses the whole text
+     *
+     * @throws IllegalArgumentException
+     *             if the text does not match the pattern, or has more after it
+     */
+    public long parse(CharSequence text) {
+        ParsePosition position = new ParsePosition(0);
+        long millis = parse(text, position);
+        if (position.getErrorIndex() >= 0 || position.getIndex() != text.length()) {
+            throw new IllegalArgumentException(String.format("Unparseable date \"%s\" at %d, expected %s", text,
+                    Math.max(position.getErrorIndex(), position.getIndex()), pattern));
+        }
+        return millis;
+    }
+
+    /**
+     * Parses from the position on, strictly: numbers must be within their
+     * field's range. Two digit years and dates before 1583 are not parsed,
+     * use SimpleDateFormat for those.
+     *
+     * @return the date, or Long.MIN_VALUE with the position's error index set
+     *         if the text does not match
+     */
+    public long parse(CharSequence text, ParsePosition position) {
+        int p = position.getIndex();
+        if (twoDigitYear) {
+            position.setErrorIndex(p);
+            return Long.MIN_VALUE;
+        }
+        int year = 1970;
+        int month = 1;
+        int day = 1;
+        int hour = 0;
+        int hour12 = -1;
+        int pm = 0;
+        int minute = 0;
+        int second = 0;
+        int millis = 0;
+        boolean hasOffset = false;
+        int offset = 0;
+        for (int f = 0; f < kinds.length; f++) {
+            int kind = kinds[f];
+            if (kind == LITERAL) {
+                String literal = literals[f];
+                if (!regionMatches(text, p, literal, false)) {
+                    return fail(position, p);
+                }
+                p += literal.length();
+                continue;
+            }
+            if (kind == MONTH_NAME || kind == DAY_NAME || kind == AM_PM) {
+                String[] names = kind == AM_PM ? amPm : kind == MONTH_NAME ? (counts[f] >= 4 ? months
+                        : shortMonths) : (counts[f] >= 4 ? weekdays : shortWeekdays);
+                int found = -1;
+                for (int n = 0; n < names.length; n++) {
+                    if (names[n].length() > 0 && regionMatches(text, p, names[n], true)
+                            && (found < 0 || names[n].length() > names[found].length())) {
+                        found = n;
+                    }
+                }
+                if (found < 0) {
+                    return fail(position, p);
+                }
+                p += names[found].length();
+                if (kind == MONTH_NAME) {
+                    month = found + 1;
+                } else if (kind == AM_PM) {
+                    pm = found;
+                }
+                continue;
+            }
+            if (kind == ZONE_RFC822 || kind == ZONE_ISO) {
+                if (kind == ZONE_ISO && p < text.length() && text.charAt(p) == 'Z') {
+                    p++;
+                    hasOffset = true;
+                    offset = 0;
+                    continue;
+                }
+                long parsed = parseOffset(text, p);
+                if (parsed < 0) {
+                    return fail(position, p);
+                }
+                hasOffset = true;
+                offset = (int) parsed;
+                p = (int) (parsed >>> 32);
+                continue;
+            }
+
+            // Numbers take as many digits as there are, unless the next field
+            // is a number as well, then they take as many as the pattern has
+            // letters
+            boolean abutting = f + 1 < kinds.length && isNumeric(kinds[f + 1]);
+            int maxDigits = abutting ? counts[f] : 9;
+            int start = p;
+            int value = 0;
+            while (p < text.length() && p - start < maxDigits) {
+                char c = text.charAt(p);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                p++;
+            }
+            if (p == start || (abutting && p - start < counts[f])) {
+                return fail(position, start);
+            }
+            boolean valid;
+            switch (kind) {
+            case YEAR:
+                year = value;
+                valid = year >= 1583;
+                break;
+            case MONTH:
+                month = value;
+                valid = month >= 1 && month <= 12;
+                break;
+            case DAY:
+                day = value;
+                valid = day >= 1 && day <= 31;
+                break;
+            case HOUR_OF_DAY:
+                hour = value;
+                valid = hour <= 23;
+                break;
+            case HOUR_1_24:
+                hour = value == 24 ? 0 : value;
+                valid = value >= 1 && value <= 24;
+                break;
+            case HOUR_0_11:
+                hour12 = value;
+                valid = value <= 11;
+                break;
+            case HOUR_1_12:
+                hour12 = value == 12 ? 0 : value;
+                valid = value >= 1 && value <= 12;
+                break;
+            case MINUTE:
+                minute = value;
+                valid = minute <= 59;
+                break;
+            case SECOND:
+                second = value;
+                valid = second <= 59;
+                break;
+            default:
+                millis = value;
+                valid = millis <= 999;
+                break;
+            }
+            if (!valid) {
+                return fail(position, start);
+            }
+        }
+        if (day > daysInMonth(year, month)) {
+            return fail(position, position.getIndex());
+        }
+        if (hour12 >= 0) {
+            hour = hour12 + 12 * pm;
+        }
+        long local = daysFromCivil(year, month, day) * MILLIS_PER_DAY + hour * 3600000L + minute * 60000L
+                + second * 1000L + millis;
+        position.setIndex(p);
+        if (hasOffset) {
+            return local - offset;
+        }
+        return toUtc(local, timeZone);
+    }
+
+    private static boolean isNumeric(int kind) {
+        return kind != LITERAL && kind != MONTH_NAME && kind != DAY_NAME && kind != AM_PM && kind != ZONE_RFC822
+                && kind != ZONE_ISO;
+    }
+
+    private static long fail(ParsePosition position, int errorIndex) {
+        position.setErrorIndex(errorIndex);
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Parses +HH, +HHmm or +HH:mm
+     *
+     * @return the index after the offset in the high 32 bits and the offset
+     *         in millis in the low ones, or -1
+     */
+    private static long parseOffset(CharSequence text, int p) {
+        if (p >= text.length() || (text.charAt(p) != '+' && text.charAt(p) != '-')) {
+            return -1;
+        }
+        int sign = text.charAt(p) == '-' ? -1 : 1;
+        int hours = twoDigits(text, p + 1);
+        if (hours < 0 || hours > 23) {
+            return -1;
+        }
+        p += 3;
+        int minutes = 0;
+        if (p < text.length() && text.charAt(p) == ':') {
+            minutes = twoDigits(text, p + 1);
+            if (minutes < 0) {
+                return -1;
+            }
+            p += 3;
+        } else if (twoDigits(text, p) >= 0) {
+            minutes = twoDigits(text, p);
+            p += 2;
+        }
+        if (minutes > 59) {
+            return -1;
+        }
+        int offset = sign * (hours * 3600000 + minutes * 60000);
+        return ((long) p << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the number in the two characters at p, or -1
+     */
+    private static int twoDigits(CharSequence text, int p) {
+        if (p + 1 >= text.length()) {
+            return -1;
+        }
+        char c1 = text.charAt(p);
+        char c2 = text.charAt(p + 1);
+        if (c1 < '0' || c1 > '9' || c2 < '0' || c2 > '9') {
+            return -1;
+        }
+        return (c1 - '0') * 10 + (c2 - '0');
+    }
+
+    private static boolean regionMatches(CharSequence text, int p, String s, boolean ignoreCase) {
+        if (p + s.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char a = text.charAt(p + i);
+            char b = s.charAt(i);
+            if (a != b && (!ignoreCase || Character.toLowerCase(a) != Character.toLowerCase(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses an ISO 8601 timestamp as Solr and most JSON APIs write them:
+     * yyyy-MM-dd, optionally followed by 'T' (or a space) and HH:mm, :ss and a
+     * fraction of a second of up to 9 digits, and a Z or an offset such as
+     * +01:00. Without Z or an offset the time is taken to be UTC.
+     *
+     * @return milliseconds since the epoch
+     * @throws IllegalArgumentException
+     *             if the text is not such a timestamp
+     */
+    public static long parseIsoTimestamp(CharSequence text) {
+        int length = text.length();
+        int year = digits(text, 0, 4);
+        if (year < 0 || length < 10 || text.charAt(4) != '-' || text.charAt(7) != '-') {
+            throw notIso(text);
+        }
+        int month = twoDigits(text, 5);
+        int day = twoDigits(text, 8);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            throw notIso(text);
+        }
+        long millis = daysFromCivil(year, month, day) * MILLIS_PER_DAY;
+        int p = 10;
+        if (p == length) {
+            return millis;
+        }
+        if (text.charAt(p) != 'T' && text.charAt(p) != 't' && text.charAt(p) != ' ') {
+            throw notIso(text);
+        }
+        int hour = twoDigits(text, p + 1);
+        int minute = twoDigits(text, p + 4);
+        if (hour < 0 || hour > 23 || p + 3 >= length || text.charAt(p + 3) != ':' || minute < 0 || minute > 59) {
+            throw notIso(text);
+        }
+        millis += hour * 3600000L + minute * 60000L;
+        p += 6;
+        if (p < length && text.charAt(p) == ':') {
+            int second = twoDigits(text, p + 1);
+            if (second < 0 || second > 59) {
+                throw notIso(text);
+            }
+            millis += second * 1000L;
+            p += 3;
+            if (p < length && (text.charAt(p) == '.' || text.charAt(p) == ',')) {
+                int start = ++p;
+                int fraction = 0;
+                while (p < length && p - start < 9 && text.charAt(p) >= '0' && text.charAt(p) <= '9') {
+                    if (p - start < 3) {
+                        fraction = fraction * 10 + (text.charAt(p) - '0');
+                    }
+                    p++;
+                }
+                if (p == start) {
+                    throw notIso(text);
+                }
+                for (int digits = p - start; digits < 3; digits++) {
+                    fraction *= 10;
+                }
+                millis += fraction;
+            }
+        }
+        if (p == length) {
+            return millis;
+        }
+        if (text.charAt(p) == 'Z' || text.charAt(p) == 'z') {
+            if (p + 1 != length) {
+                throw notIso(text);
+            }
+            return millis;
+        }
+        long offset = parseOffset(text, p);
+        if (offset < 0 || (int) (offset >>> 32) != length) {
+            throw notIso(text);
+        }
+        return millis - (int) offset;
+    }
+
+    private static int digits(CharSequence text, int p, int count) {
+        if (p + count > text.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = p; i < p + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException notIso(CharSequence text) {
+        return new IllegalArgumentException(String.format("Not an ISO 8601 timestamp: \"%s\"", text));
+    }
+
+    /**
+     * Converts local time in the zone to UTC. Local times that fall in the
+     * hour skipped when daylight saving time starts come out an hour later,
+     * those of the hour repeated when it ends come out as the first of the
+     * two.
+     */
+    private static long toUtc(long local, TimeZone timeZone) {
+        long guess = local - timeZone.getOffset(local - timeZone.getRawOffset());
+        int offset = timeZone.getOffset(guess);
+        long millis = local - offset;
+        if (timeZone.getOffset(millis) != offset) {
+            millis = local - timeZone.getOffset(millis);
+        }
+        return millis;
+    }
+
+    static int daysInMonth(int year, int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar,
+     * after Howard Hinnant's chrono algorithms
+     */
+    static long daysFromCivil(long year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * The reverse of daysFromCivil
+     *
+     * @return year << 9 | month << 5 | day
+     */
+    static int civilFromDays(long epochDay) {
+        long z = epochDay + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+        return (year << 9) | (month << 5) | day;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? q - 1 : q;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+
+    private static int floorMod(int x, int y) {
+        return (int) floorMod((long) x, (long) y);
+    }
+
+    public String toString() {
+        return pattern;
+    }
+
+}
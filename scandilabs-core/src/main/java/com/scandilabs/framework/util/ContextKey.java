@@ -0,0 +1,38 @@
+package com.scandilabs.framework.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A typed key for a value in a {@link RequestContext}. Each key gets a slot
+ * of its own in the context's array of values, so keys should be constants,
+ * e.g.:
+ *
+ * <pre>
+ * public static final ContextKey&lt;User&gt; USER = new ContextKey&lt;User&gt;(&quot;user&quot;);
+ * </pre>
+ *
+ * @author mkvalsvik
+ *
+ */
+public final class ContextKey<T> {
+
+    private static final AtomicInteger slots = new AtomicInteger();
+
+    final int slot;
+
+    private final String name;
+
+    public ContextKey(String name) {
+        this.name = name;
+        this.slot = slots.getAndIncrement();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String toString() {
+        return name;
+    }
+
+}
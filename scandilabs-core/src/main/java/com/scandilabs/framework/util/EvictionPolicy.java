@@ -0,0 +1,28 @@
+package com.scandilabs.framework.util;
+
+/**
+ * Decides which entry an {@link LRUCache} gives up when it is full
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public enum EvictionPolicy {
+
+    /**
+     * Evicts the least recently used entry. Cheapest, but a burst of keys
+     * that are used once (a crawler paging through search results) pushes
+     * out everything else.
+     */
+    LRU,
+
+    /**
+     * Window TinyLFU: new entries go through a small LRU window (1% of the
+     * size) and are only admitted into the main part of the cache if a
+     * {@link FrequencySketch} says they are used more often than the entry
+     * they would replace. The main part is a segmented LRU, where entries used
+     * again while on probation move to a protected area (80% of the main
+     * part).
+     */
+    TINY_LFU
+
+}
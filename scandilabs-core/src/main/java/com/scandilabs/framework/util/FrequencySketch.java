@@ -0,0 +1,114 @@
+package com.scandilabs.framework.util;
+
+/**
+ * A count-min sketch that estimates how often a hash code has been seen
+ * lately, in 4 bits per counter and about 8 bytes per entry of the cache it
+ * serves. Counts stop at 15, and all of them are halved after a sample of 10
+ * times the capacity, so the sketch follows changes in what is popular.
+ * Not thread-safe, the caller locks.
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L };
+
+    private static final long HALF_MASK = 0x7777777777777777L;
+
+    private static final int MAX_COUNT = 15;
+
+    /**
+     * 16 counters of 4 bits per long
+     */
+    private long[] table;
+
+    private int tableMask;
+
+    private int capacity;
+
+    private int sampleSize;
+
+    private int additions;
+
+    public FrequencySketch(int capacity) {
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        int length = 16;
+        while (length < capacity && length < (1 << 30)) {
+            length <<= 1;
+        }
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.capacity = capacity;
+        this.sampleSize = Math.max(10 * capacity, 10);
+        this.additions = 0;
+    }
+
+    /**
+     * Grows the sketch for a cache that holds more entries than it was sized
+     * for, which starts counting from scratch
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.capacity) {
+            allocate(capacity);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the estimated number of times the hash code has been seen,
+     *         between 0 and 15
+     */
+    public int frequency(int hashCode) {
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = spread(hashCode, i);
+            int index = (int) h & tableMask;
+            int shift = ((int) (h >>> 40) & 15) << 2;
+            frequency = Math.min(frequency, (int) ((table[index] >>> shift) & 15));
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts one more occurrence of the hash code
+     */
+    public void increment(int hashCode) {
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long h = spread(hashCode, i);
+            int index = (int) h & tableMask;
+            int shift = ((int) (h >>> 40) & 15) << 2;
+            if (((table[index] >>> shift) & 15) < MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            age();
+        }
+    }
+
+    /**
+     * Halves every counter
+     */
+    private void age() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & HALF_MASK;
+        }
+        additions /= 2;
+    }
+
+    private static long spread(int hashCode, int depth) {
+        long h = (hashCode + SEEDS[depth]) * SEEDS[depth];
+        return h ^ (h >>> 29);
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.scandilabs.framework.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Serializes with plain Java serialization, works for anything Serializable
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class JavaSerializer<T> implements Serializer<T> {
+
+    public byte[] serialize(T object) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(object);
+            out.close();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not serialize " + object, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    public T deserialize(byte[] bytes) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            try {
+                return (T) in.readObject();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not deserialize " + bytes.length + " bytes", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Could not deserialize " + bytes.length + " bytes", e);
+        }
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.scandilabs.framework.util;
+
+/**
+ * Computes a pseudo hashcode for a string key, as used to place keys in a
+ * {@link com.scandilabs.framework.pool.ConsistentHashingResourcePool}.
+ * Implementations must be thread safe and return values in the range 0 to
+ * 2^24 - 1.
+ * 
+ * @see Md5KeyHasher
+ * @see MurmurKeyHasher
+ */
+public interface KeyHasher {
+
+    int hash(String key);
+
+}
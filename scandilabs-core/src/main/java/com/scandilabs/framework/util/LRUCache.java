@@ -1,108 +1,984 @@
 package com.scandilabs.framework.util;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * An LRU(ish) cache (Least Recently Used) that also expires entries that are
- * too old
+ * An LRU (Least Recently Used) cache that also expires entries that are too
+ * old. Safe to share between threads. Can also be told to evict with Window
+ * TinyLFU instead, which keeps frequently used entries through bursts of keys
+ * that are only used once (see {@link EvictionPolicy}).
+ *
+ * Keys are spread over a number of segments, each guarded by its own lock and
+ * each holding an equal part of the total size, so threads working on
+ * different keys rarely wait for each other. With a weigher a segment may go
+ * over its part while the cache as a whole is not full, and gives the room
+ * back once it is. Within a segment entries are kept on two linked lists: one
+ * in access order, whose head is evicted when the segment is full (TinyLFU
+ * uses three, see Segment), and one in insert order, whose head is the next
+ * entry to expire. Expiring is therefore a matter of
+ * popping heads until the first one that is still young enough, and get/put
+ * stay O(1) no matter how big the cache is. Each segment also keeps one
+ * timeout on the shared {@link TimingWheel} for its oldest entry, so entries
+ * of a cache nobody reads from anymore still go away.
+ *
+ * Given an {@link OffHeapStore} the cache has a second tier outside the heap:
+ * evicted entries are serialized into the store instead of dropped, and a get
+ * that misses takes the entry back out of the store. Entries keep their time
+ * to live in both tiers.
  */
-public class LRUCache<T, E> {
+public class LRUCache<T, E> implements CacheStatsProvider {
+
+    static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /**
+     * Segments smaller than this would make the cache noticeably less LRU than
+     * one big list, small caches get fewer segments instead
+     */
+    static final int MIN_SEGMENT_SIZE = 32;
+
+    static final byte WINDOW = 0;
+
+    static final byte PROBATION = 1;
+
+    static final byte PROTECTED = 2;
+
+    private static Logger logger = LoggerFactory.getLogger(LRUCache.class);
+
+    /**
+     * An entry along with the time it was put, see
+     * {@link LRUCache#getHottestEntries(int)}
+     */
+    static class TimedEntry<K, V> extends AbstractMap.SimpleImmutableEntry<K, V> {
+
+        private static final long serialVersionUID = 201528011L;
+
+        final long insertTime;
+
+        TimedEntry(K key, V value, long insertTime) {
+            super(key, value);
+            this.insertTime = insertTime;
+        }
+    }
+
+    static class Node<K, V> {
+
+        final K key;
+
+        V value;
+
+        long insertTime;
+
+        int weight;
+
+        /**
+         * The access order list the node is on, one of WINDOW, PROBATION or
+         * PROTECTED
+         */
+        byte queue;
+
+        Node<K, V> accessPrevious;
+
+        Node<K, V> accessNext;
+
+        Node<K, V> insertPrevious;
+
+        Node<K, V> insertNext;
+
+        Node(K key) {
+            this.key = key;
+        }
+    }
+
+    static class Segment<T, E> extends ReentrantLock {
+
+        private static final long serialVersionUID = 201528010L;
+
+        class Expiry extends TimingWheel.Timeout {
+
+            @Override
+            protected void expire() {
+                lock();
+                try {
+                    expiryScheduled = false;
+
+                    // The wheel only calls once the deadline has passed
+                    removeAllExpired(Math.max(System.currentTimeMillis(), getDeadline()));
+                } finally {
+                    unlock();
+                }
+            }
+        }
+
+        private final long maxWeight;
+
+        /**
+         * The weight of all segments together, only kept with a weigher and
+         * only changed when an entry is added, removed or replaced
+         */
+        private final AtomicLong cacheWeight;
+
+        private final long cacheMaxWeight;
+
+        private final Weigher<? super T, ? super E> weigher;
+
+        private final long timeToLiveMillis;
+
+        private final TimingWheel timingWheel;
+
+        private final Expiry expiry = new Expiry();
+
+        private boolean expiryScheduled;
+
+        private final Map<T, Node<T, E>> nodes = new HashMap<T, Node<T, E>>();
+
+        // Sentinels of the circular lists, the node after the sentinel is the
+        // least recently used / oldest one. With plain LRU only the window is
+        // used, and it takes up the whole segment.
+        private final Node<T, E>[] accessOrders;
+
+        private final long[] queueWeights = new long[3];
+
+        private final long[] queueMaxWeights = new long[3];
+
+        private long totalWeight;
+
+        private final Node<T, E> insertOrder = new Node<T, E>(null);
+
+        /**
+         * Null with plain LRU
+         */
+        private final FrequencySketch sketch;
+
+        /**
+         * Null without a second tier
+         */
+        private final OffHeapStore<T, E> offHeapStore;
+
+        /**
+         * Entries evicted while the lock is held, to be moved to the second
+         * tier once it is released
+         */
+        private List<Node<T, E>> evicted;
+
+        /**
+         * The last evicted node of each key on its way to the second tier. A
+         * put or clear of the key removes it, and a node that is no longer
+         * here is not stored.
+         */
+        private final Map<T, Node<T, E>> demoting;
+
+        // Statistics, plain fields as they are only changed under the lock.
+        // Every segment counting for itself keeps threads on different
+        // segments from writing to the same cache line.
+
+        private long hitCount;
+
+        private long missCount;
+
+        private long evictionCount;
+
+        private long expirationCount;
+
+        private long tooHeavyCount;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Segment(long maxWeight, AtomicLong cacheWeight, long cacheMaxWeight, Weigher<? super T, ? super E> weigher,
+                long timeToLiveMillis, TimingWheel timingWheel, EvictionPolicy policy, OffHeapStore<T, E> offHeapStore) {
+            this.maxWeight = maxWeight;
+            this.cacheWeight = cacheWeight;
+            this.cacheMaxWeight = cacheMaxWeight;
+            this.offHeapStore = offHeapStore;
+            this.demoting = offHeapStore == null ? null : new HashMap<T, Node<T, E>>();
+            this.weigher = weigher;
+            this.timeToLiveMillis = timeToLiveMillis;
+            this.timingWheel = timingWheel;
+            this.accessOrders = new Node[3];
+            for (int i = 0; i < accessOrders.length; i++) {
+                Node<T, E> sentinel = new Node<T, E>(null);
+                sentinel.accessPrevious = sentinel;
+                sentinel.accessNext = sentinel;
+                accessOrders[i] = sentinel;
+            }
+            insertOrder.insertPrevious = insertOrder;
+            insertOrder.insertNext = insertOrder;
+            if (policy == EvictionPolicy.TINY_LFU) {
+                long window = Math.max(1, maxWeight / 100);
+                queueMaxWeights[WINDOW] = window;
+                queueMaxWeights[PROTECTED] = (long) ((maxWeight - window) * 0.8);
+                queueMaxWeights[PROBATION] = maxWeight - window - queueMaxWeights[PROTECTED];
+
+                // With a weigher the number of entries is not known up front,
+                // the sketch grows along with the segment instead
+                this.sketch = new FrequencySketch((int) Math.min(weigher == null ? maxWeight : 16, 1 << 24));
+            } else {
+                queueMaxWeights[WINDOW] = maxWeight;
+                this.sketch = null;
+            }
+        }
+
+        E get(T key, long now) {
+            E value;
+            List<Node<T, E>> demote = null;
+            lock();
+            try {
+                removeAllExpired(now);
+                if (sketch != null) {
+                    sketch.increment(sketchHash(key));
+                }
+                Node<T, E> node = nodes.get(key);
+                if (node != null) {
+
+                    // Promoted entries keep their insert time and may expire
+                    // before the head of the insert order list
+                    if ((node.insertTime + timeToLiveMillis) < now) {
+                        remove(node);
+                        expirationCount++;
+                        missCount++;
+                        return null;
+                    }
+                    touch(node);
+                    hitCount++;
+                    return node.value;
+                }
+                OffHeapStore.Stored<E> stored = offHeapStore == null ? null : offHeapStore.take(key, now);
+                if (stored == null) {
+                    missCount++;
+                    return null;
+                }
+                hitCount++;
+                value = stored.value;
+                promote(key, value, stored.expireTime - timeToLiveMillis);
+                demote = takeEvicted();
+            } finally {
+                unlock();
+            }
+            demote(demote);
+            return value;
+        }
+
+        /**
+         * Takes an entry back from the second tier. It goes to the end of the
+         * insert order list although it is older than the entries there, get
+         * checks its age itself.
+         */
+        private void promote(T key, E value, long insertTime) {
+            Node<T, E> node = newNode(key, weigh(key, value));
+            node.value = value;
+            node.insertTime = insertTime;
+            linkInsert(node);
+            evict();
+            scheduleExpiry();
+        }
+
+        private Node<T, E> newNode(T key, int weight) {
+            Node<T, E> node = new Node<T, E>(key);
+            node.weight = weight;
+            nodes.put(key, node);
+            addCacheWeight(weight);
+            if (demoting != null) {
+                demoting.remove(key);
+            }
+            linkAccess(node, WINDOW);
+            if (sketch != null && nodes.size() > sketch.getCapacity()) {
+                sketch.ensureCapacity(nodes.size() * 2);
+            }
+            return node;
+        }
+
+        /**
+         * @param insertTime
+         *            the time the entry expires from, now unless it was put
+         *            earlier into another cache
+         */
+        void put(T key, E value, long now, long insertTime) {
+            List<Node<T, E>> demote;
+            lock();
+            try {
+                removeAllExpired(now);
+                if ((insertTime + timeToLiveMillis) < now) {
+                    return;
+                }
+                if (sketch != null) {
+                    sketch.increment(sketchHash(key));
+                }
+                int weight = weigh(key, value);
+                Node<T, E> node = nodes.get(key);
+                if (weight > cacheMaxWeight) {
+
+                    // Would push out every other entry and then itself, the
+                    // old value is dropped as it is no longer current
+                    tooHeavyCount++;
+                    logger.warn(String.format("Not caching %s, its weight %d is more than the cache's maximum of %d",
+                            key, weight, cacheMaxWeight));
+                    if (node != null) {
+                        remove(node);
+                    }
+                    if (offHeapStore != null) {
+                        demoting.remove(key);
+                        offHeapStore.remove(key);
+                    }
+                    return;
+                }
+                if (node == null) {
+                    node = newNode(key, weight);
+
+                    // The second tier's copy would come back after this one
+                    // is evicted or cleared
+                    if (offHeapStore != null) {
+                        offHeapStore.remove(key);
+                    }
+                } else {
+                    unlinkInsert(node);
+                    unlinkAccess(node);
+                    addCacheWeight(weight - node.weight);
+                    node.weight = weight;
+                    linkAccess(node, node.queue);
+                    touch(node);
+                }
+                node.value = value;
+                node.insertTime = insertTime;
+                linkInsert(node);
+                evict();
+                scheduleExpiry();
+                demote = takeEvicted();
+            } finally {
+                unlock();
+            }
+            demote(demote);
+        }
+
+        /**
+         * Moves a node that was used to the most recently used end of its
+         * list, or from probation to protected
+         */
+        private void touch(Node<T, E> node) {
+            byte queue = node.queue;
+            unlinkAccess(node);
+            if (queue != PROBATION) {
+                linkAccess(node, queue);
+                return;
+            }
+            linkAccess(node, PROTECTED);
+            while (queueWeights[PROTECTED] > queueMaxWeights[PROTECTED]) {
+                Node<T, E> demoted = accessOrders[PROTECTED].accessNext;
+                unlinkAccess(demoted);
+                linkAccess(demoted, PROBATION);
+            }
+        }
+
+        private int weigh(T key, E value) {
+            if (weigher == null) {
+                return 1;
+            }
+            int weight = weigher.weigh(key, value);
+            if (weight < 0) {
+                throw new IllegalArgumentException(String.format("Negative weight %d for %s", weight, key));
+            }
+            return weight;
+        }
+
+        /**
+         * Evicts until the segment is back within its maximum weight or the
+         * cache as a whole is, which can take more than one entry when a heavy
+         * one was put
+         */
+        private void evict() {
+            if (sketch != null) {
+
+                // The window's least recently used entry moves on to
+                // probation, and if the main part is now too heavy it either
+                // takes the place of the main part's eviction candidates or is
+                // dropped itself, whichever is used less often
+                while (queueWeights[WINDOW] > queueMaxWeights[WINDOW]) {
+                    Node<T, E> candidate = accessOrders[WINDOW].accessNext;
+                    unlinkAccess(candidate);
+                    linkAccess(candidate, PROBATION);
+                    int candidateFrequency = sketch.frequency(sketchHash(candidate.key));
+                    while (isOverWeight()) {
+                        Node<T, E> victim = accessOrders[PROBATION].accessNext;
+                        if (victim == candidate) {
+                            victim = queueWeights[PROTECTED] > 0 ? accessOrders[PROTECTED].accessNext : null;
+                        }
+                        if (victim != null && candidateFrequency > sketch.frequency(sketchHash(victim.key))) {
+                            evictNode(victim);
+                        } else {
+                            evictNode(candidate);
+                            break;
+                        }
+                    }
+                }
+            }
+
+            // The last entry stays even if it is heavier than the segment's
+            // part, the other segments make room for it instead
+            while (isOverWeight() && nodes.size() > 1) {
+                evictNode(nextVictim());
+            }
+        }
+
+        /**
+         * Least recently used first, and with TinyLFU the main part's
+         * probation before its protected entries and the window
+         */
+        private Node<T, E> nextVictim() {
+            Node<T, E> victim = accessOrders[PROBATION].accessNext;
+            if (victim == accessOrders[PROBATION]) {
+                victim = accessOrders[PROTECTED].accessNext;
+            }
+            if (victim == accessOrders[PROTECTED]) {
+                victim = accessOrders[WINDOW].accessNext;
+            }
+            return victim;
+        }
+
+        private boolean isOverWeight() {
+            return totalWeight > maxWeight && (weigher == null || cacheWeight.get() > cacheMaxWeight);
+        }
+
+        private void addCacheWeight(long weight) {
+            if (weigher != null) {
+                cacheWeight.addAndGet(weight);
+            }
+        }
+
+        /**
+         * Gives back what the segment took beyond its part of the weight, for
+         * as far as the cache as a whole is too heavy
+         */
+        void trim() {
+            List<Node<T, E>> demote;
+            lock();
+            try {
+                evict();
+                demote = takeEvicted();
+            } finally {
+                unlock();
+            }
+            demote(demote);
+        }
+
+        /**
+         * Evicts the next entry even if the segment is within its part of the
+         * weight, to make room for a heavy entry in another segment
+         *
+         * @return false if the segment was empty
+         */
+        boolean evictOne() {
+            List<Node<T, E>> demote;
+            lock();
+            try {
+                if (nodes.isEmpty()) {
+                    return false;
+                }
+                evictNode(nextVictim());
+                demote = takeEvicted();
+            } finally {
+                unlock();
+            }
+            demote(demote);
+            return true;
+        }
+
+        private void evictNode(Node<T, E> node) {
+            remove(node);
+            evictionCount++;
+            if (offHeapStore != null) {
+                if (evicted == null) {
+                    evicted = new ArrayList<Node<T, E>>();
+                }
+                evicted.add(node);
+                demoting.put(node.key, node);
+            }
+        }
+
+        private List<Node<T, E>> takeEvicted() {
+            List<Node<T, E>> taken = evicted;
+            evicted = null;
+            return taken;
+        }
+
+        /**
+         * Moves evicted entries to the second tier. They are serialized
+         * without holding the lock, and only stored if the key was not put,
+         * cleared or evicted again in the meantime, so the second tier never
+         * has an older entry than the segment or one that was cleared.
+         */
+        private void demote(List<Node<T, E>> demote) {
+            if (demote == null) {
+                return;
+            }
+            for (Node<T, E> node : demote) {
+                byte[] key;
+                byte[] value;
+                try {
+                    key = offHeapStore.getKeySerializer().serialize(node.key);
+                    value = offHeapStore.getValueSerializer().serialize(node.value);
+                } catch (RuntimeException e) {
+                    logger.warn("Could not move " + node.key + " off the heap, dropping it", e);
+                    key = null;
+                    value = null;
+                }
+                lock();
+                try {
+                    if (demoting.get(node.key) == node) {
+                        demoting.remove(node.key);
+                        if (key != null) {
+                            offHeapStore.putBytes(node.key, key, value, node.insertTime + timeToLiveMillis);
+                        }
+                    }
+                } finally {
+                    unlock();
+                }
+            }
+        }
+
+        /**
+         * Looks for the key without counting a hit or miss, or a use of the
+         * entry
+         */
+        boolean containsKey(T key, long now) {
+            lock();
+            try {
+                Node<T, E> node = nodes.get(key);
+                if (node != null) {
+                    return (node.insertTime + timeToLiveMillis) >= now;
+                }
+                return offHeapStore != null && offHeapStore.contains(key, now);
+            } finally {
+                unlock();
+            }
+        }
+
+        void clear(T key) {
+            lock();
+            try {
+                Node<T, E> node = nodes.get(key);
+                if (node != null) {
+                    remove(node);
+                }
+                if (offHeapStore != null) {
+                    demoting.remove(key);
+                    offHeapStore.remove(key);
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        int size(long now) {
+            lock();
+            try {
+                removeAllExpired(now);
+                return nodes.size();
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * @return up to limit entries, most recently used first, and with
+         *         TinyLFU the protected ones before the window and probation
+         */
+        List<TimedEntry<T, E>> getHottest(int limit, long now) {
+            List<TimedEntry<T, E>> hottest = new ArrayList<TimedEntry<T, E>>();
+            lock();
+            try {
+                for (byte queue : new byte[] { PROTECTED, WINDOW, PROBATION }) {
+                    Node<T, E> accessOrder = accessOrders[queue];
+                    Node<T, E> node = accessOrder.accessPrevious;
+                    while (node != accessOrder && hottest.size() < limit) {
+                        if ((node.insertTime + timeToLiveMillis) >= now) {
+                            hottest.add(new TimedEntry<T, E>(node.key, node.value, node.insertTime));
+                        }
+                        node = node.accessPrevious;
+                    }
+                }
+            } finally {
+                unlock();
+            }
+            return hottest;
+        }
+
+        /**
+         * Adds the segment's counts to the given hits, misses, evictions,
+         * expirations and entries too heavy to cache
+         */
+        void addStats(long[] counts) {
+            lock();
+            try {
+                counts[0] += hitCount;
+                counts[1] += missCount;
+                counts[2] += evictionCount;
+                counts[3] += expirationCount;
+                counts[4] += tooHeavyCount;
+            } finally {
+                unlock();
+            }
+        }
+
+        long getWeight(long now) {
+            lock();
+            try {
+                removeAllExpired(now);
+                return totalWeight;
+            } finally {
+                unlock();
+            }
+        }
 
-    class LRUMap<K, V> extends LinkedHashMap<K, V> {
+        /**
+         * Removes expired entries, which all sit at the head of the insert
+         * order list
+         */
+        private void removeAllExpired(long now) {
+            Node<T, E> oldest = insertOrder.insertNext;
+            while (oldest != insertOrder && (oldest.insertTime + timeToLiveMillis) < now) {
+                remove(oldest);
+                expirationCount++;
+                oldest = insertOrder.insertNext;
+            }
+            scheduleExpiry();
+        }
 
-        private static final long serialVersionUID = 201528009L;
-        
-        private int maxSize;
+        /**
+         * Makes sure the timing wheel comes back for the oldest entry. When
+         * that entry is evicted or replaced before it expires the timeout
+         * finds nothing to remove and is scheduled again for the next one.
+         */
+        private void scheduleExpiry() {
+            if (!expiryScheduled && insertOrder.insertNext != insertOrder) {
+                expiryScheduled = true;
+                timingWheel.schedule(expiry, insertOrder.insertNext.insertTime + timeToLiveMillis + 1);
+            }
+        }
+
+        private void remove(Node<T, E> node) {
+            nodes.remove(node.key);
+            addCacheWeight(-node.weight);
+            unlinkAccess(node);
+            unlinkInsert(node);
+        }
+
+        private void linkAccess(Node<T, E> node, byte queue) {
+            Node<T, E> accessOrder = accessOrders[queue];
+            node.queue = queue;
+            node.accessPrevious = accessOrder.accessPrevious;
+            node.accessNext = accessOrder;
+            accessOrder.accessPrevious.accessNext = node;
+            accessOrder.accessPrevious = node;
+            queueWeights[queue] += node.weight;
+            totalWeight += node.weight;
+        }
+
+        private void unlinkAccess(Node<T, E> node) {
+            node.accessPrevious.accessNext = node.accessNext;
+            node.accessNext.accessPrevious = node.accessPrevious;
+            queueWeights[node.queue] -= node.weight;
+            totalWeight -= node.weight;
+        }
 
-        LRUMap(int maxSize) {
-            super.size();
-            this.maxSize = maxSize;
+        private void linkInsert(Node<T, E> node) {
+            node.insertPrevious = insertOrder.insertPrevious;
+            node.insertNext = insertOrder;
+            insertOrder.insertPrevious.insertNext = node;
+            insertOrder.insertPrevious = node;
         }
 
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-            boolean remove = size() > maxSize;
-            if (remove) {
-                // Also remove the time flag
-                insertTimes.remove(eldest.getKey());    
-            }            
-            return remove;
+        private void unlinkInsert(Node<T, E> node) {
+            node.insertPrevious.insertNext = node.insertNext;
+            node.insertNext.insertPrevious = node.insertPrevious;
         }
     }
 
-    private LRUMap<T, E> lruMap;
+    /**
+     * A hash for the frequency sketch that differs from the one picking the
+     * segment, so keys of one segment still spread over the whole sketch
+     */
+    static int sketchHash(Object key) {
+        int h = key == null ? 0 : key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private final Segment<T, E>[] segments;
 
-    private Map<T, Date> insertTimes = new HashMap<T, Date>();
+    private final int segmentMask;
+
+    private final long maxWeight;
+
+    private final AtomicLong weight = new AtomicLong();
+
+    private final OffHeapStore<T, E> offHeapStore;
 
     long timeToLiveMillis;
 
     public LRUCache(int size, long timeToLiveMillis) {
-        lruMap = new LRUMap<T, E>(size);
+        this(size, timeToLiveMillis, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param concurrencyLevel
+     *            the number of threads expected to use the cache at the same
+     *            time, rounded down to a power of two
+     */
+    public LRUCache(int size, long timeToLiveMillis, int concurrencyLevel) {
+        this(size, timeToLiveMillis, concurrencyLevel, EvictionPolicy.LRU);
+    }
+
+    /**
+     * @param policy
+     *            what to evict when the cache is full, see
+     *            {@link EvictionPolicy}
+     */
+    public LRUCache(int size, long timeToLiveMillis, int concurrencyLevel, EvictionPolicy policy) {
+        this(size, null, timeToLiveMillis, concurrencyLevel, policy, null, TimingWheel.getShared());
+    }
+
+    /**
+     * Creates a cache bounded by the total weight of its entries instead of
+     * their number, for instance by estimated bytes. Each segment gets an equal
+     * part of the budget, but may take more while the cache as a whole is
+     * under it, and the others make room for an entry heavier than that part.
+     * An entry can therefore weigh up to maxWeight, heavier ones are not kept
+     * at all but logged and counted by {@link #getTooHeavyCount()}.
+     */
+    public LRUCache(long maxWeight, Weigher<? super T, ? super E> weigher, long timeToLiveMillis,
+            int concurrencyLevel, EvictionPolicy policy) {
+        this(maxWeight, weigher, timeToLiveMillis, concurrencyLevel, policy, null, TimingWheel.getShared());
+    }
+
+    /**
+     * Creates a cache with a second tier outside the heap, which takes the
+     * entries evicted from this one. Closing the store is up to the caller,
+     * the cache goes on without a second tier once it is closed.
+     *
+     * @param weigher
+     *            may be null to count entries instead of weighing them
+     */
+    public LRUCache(long maxWeight, Weigher<? super T, ? super E> weigher, long timeToLiveMillis,
+            int concurrencyLevel, EvictionPolicy policy, OffHeapStore<T, E> offHeapStore) {
+        this(maxWeight, weigher, timeToLiveMillis, concurrencyLevel, policy, offHeapStore, TimingWheel.getShared());
+    }
+
+    LRUCache(int size, long timeToLiveMillis, int concurrencyLevel, EvictionPolicy policy, TimingWheel timingWheel) {
+        this(size, null, timeToLiveMillis, concurrencyLevel, policy, null, timingWheel);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    LRUCache(long maxWeight, Weigher<? super T, ? super E> weigher, long timeToLiveMillis, int concurrencyLevel,
+            EvictionPolicy policy, OffHeapStore<T, E> offHeapStore, TimingWheel timingWheel) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxWeight);
+        }
+        int count = 1;
+        while (count * 2 <= concurrencyLevel && count * 2 * MIN_SEGMENT_SIZE <= maxWeight) {
+            count *= 2;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment<T, E>(maxWeight / count + (i < maxWeight % count ? 1 : 0), weight, maxWeight,
+                    weigher, timeToLiveMillis, timingWheel, policy, offHeapStore);
+        }
+        this.segmentMask = count - 1;
+        this.maxWeight = maxWeight;
+        this.offHeapStore = offHeapStore;
         this.timeToLiveMillis = timeToLiveMillis;
     }
 
+    private Segment<T, E> segmentFor(Object key) {
+        if (key == null) {
+            return segments[0];
+        }
+
+        // Spread the bits so keys whose hash codes differ only in the upper
+        // bits still end up in different segments
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & segmentMask];
+    }
+
     public void clear(T key) {
-        lruMap.remove(key);
-        insertTimes.remove(key);
+        segmentFor(key).clear(key);
     }
 
     /**
      * Returns matching object unless it has expired
-     * 
+     *
      * @param key
      * @return
      */
     public E get(T key) {
-        this.removeAllExpired();
-        return lruMap.get(key);
+        Segment<T, E> segment = segmentFor(key);
+        E value = segment.get(key, System.currentTimeMillis());
+        trimIfOverWeight(segment);
+        return value;
+    }
+
+    /**
+     * Add item to cache, after expiring old entries first
+     */
+    public void put(T key, E value) {
+        long now = System.currentTimeMillis();
+        Segment<T, E> segment = segmentFor(key);
+        segment.put(key, value, now, now);
+        trimIfOverWeight(segment);
+    }
+
+    /**
+     * Puts an entry that was first put at the given time, into this or
+     * another cache, so it expires when it would have there. Does nothing if
+     * it has expired already.
+     */
+    void put(T key, E value, long insertTime) {
+        Segment<T, E> segment = segmentFor(key);
+        segment.put(key, value, System.currentTimeMillis(), insertTime);
+        trimIfOverWeight(segment);
     }
-    
-    private boolean isExpired(T key) {
-        Date insertTime = insertTimes.get(key);
-        if (insertTime == null) {
-            return false;
+
+    /**
+     * A segment only evicts for itself, so once the cache is too heavy the
+     * segments that took more than their part are asked to give it back. If
+     * that is not enough the used segment holds a single heavy entry, and the
+     * others evict by turns to make room for it. A get can add weight too,
+     * when it takes an entry from the second tier.
+     */
+    private void trimIfOverWeight(Segment<T, E> used) {
+        if (weight.get() <= maxWeight) {
+            return;
         }
-        if ((insertTime.getTime() + timeToLiveMillis) < System
-                .currentTimeMillis()) {
-            return true;
+        for (Segment<T, E> segment : segments) {
+            segment.trim();
+            if (weight.get() <= maxWeight) {
+                return;
+            }
+        }
+        boolean evicted = true;
+        while (evicted && weight.get() > maxWeight) {
+            evicted = false;
+            for (Segment<T, E> segment : segments) {
+                if (segment != used && weight.get() > maxWeight && segment.evictOne()) {
+                    evicted = true;
+                }
+            }
         }
-        return false;
     }
-    
+
     /**
-     * Removes all expired entries
+     * @return true if the key is in the cache or its second tier and has not
+     *         expired. Unlike get, counts neither a hit nor a miss and does
+     *         not make the entry any less likely to be evicted.
      */
-    private void removeAllExpired() {
-        List<T> keyList = new ArrayList<T>();
-        keyList.addAll(insertTimes.keySet());
-        for (T key : keyList) {
-            if (isExpired(key)) {
-                clear(key);
+    public boolean containsKey(T key) {
+        return segmentFor(key).containsKey(key, System.currentTimeMillis());
+    }
+
+    public int size() {
+        long now = System.currentTimeMillis();
+        int size = 0;
+        for (Segment<T, E> segment : segments) {
+            size += segment.size(now);
+        }
+        return size;
+    }
+
+    /**
+     * @return the total weight of the entries, the same as size() unless the
+     *         cache was created with a weigher
+     */
+    public long getWeight() {
+        long now = System.currentTimeMillis();
+        long weight = 0;
+        for (Segment<T, E> segment : segments) {
+            weight += segment.getWeight(now);
+        }
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Picks the entries most likely to be used again, for instance to save
+     * them and warm up a new cache with (see {@link CacheSnapshot}). Each
+     * segment gives its most recently used entries, and with TinyLFU its
+     * protected ones first. The segments take turns in the result, so
+     * entries come roughly hottest first.
+     *
+     * @return up to limit entries, in an ordered map
+     */
+    public Map<T, E> getHottest(int limit) {
+        Map<T, E> hottest = new LinkedHashMap<T, E>();
+        for (TimedEntry<T, E> entry : getHottestEntries(limit)) {
+            hottest.put(entry.getKey(), entry.getValue());
+        }
+        return hottest;
+    }
+
+    /**
+     * Like {@link #getHottest(int)}, with the time each entry was put
+     */
+    List<TimedEntry<T, E>> getHottestEntries(int limit) {
+        long now = System.currentTimeMillis();
+        int share = (limit + segments.length - 1) / segments.length;
+        List<List<TimedEntry<T, E>>> perSegment = new ArrayList<List<TimedEntry<T, E>>>();
+        for (Segment<T, E> segment : segments) {
+            perSegment.add(segment.getHottest(share, now));
+        }
+        List<TimedEntry<T, E>> hottest = new ArrayList<TimedEntry<T, E>>();
+        for (int rank = 0; rank < share && hottest.size() < limit; rank++) {
+            for (List<TimedEntry<T, E>> entries : perSegment) {
+                if (rank < entries.size() && hottest.size() < limit) {
+                    hottest.add(entries.get(rank));
+                }
             }
         }
-        keyList.clear();
+        return hottest;
     }
-    
+
     /**
-     * Add item to cache, after expiring old entries first
+     * Counts hits and misses of get, entries taken back from the second tier
+     * count as hits. Nothing is loaded, the load counts are always 0.
      */
-    public void put(T key, E value) {
-        removeAllExpired();
-        insertTimes.put(key, new Date());
-        lruMap.put(key, value);        
+    public CacheStats getStats() {
+        long[] counts = new long[5];
+        for (Segment<T, E> segment : segments) {
+            segment.addStats(counts);
+        }
+        return new CacheStats(counts[0], counts[1], 0, 0, 0, counts[2], counts[3]);
     }
-    
-    public int size() {
-        if (lruMap.size() != insertTimes.size()) {
-            throw new RuntimeException("Map size differs, something is wrong!");
+
+    /**
+     * @return the number of puts that were not cached because the entry alone
+     *         weighs more than the maximum weight
+     */
+    public long getTooHeavyCount() {
+        long[] counts = new long[5];
+        for (Segment<T, E> segment : segments) {
+            segment.addStats(counts);
         }
-        return lruMap.size();
+        return counts[4];
     }
 
-}
+    /**
+     * @return the second tier, or null
+     */
+    public OffHeapStore<T, E> getOffHeapStore() {
+        return offHeapStore;
+    }
 
+    int getNumberOfSegments() {
+        return segments.length;
+    }
+
+}
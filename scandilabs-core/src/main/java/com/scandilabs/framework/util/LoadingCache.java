@@ -0,0 +1,255 @@
+package com.scandilabs.framework.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache that computes missing values itself, through a {@link CacheLoader},
+ * on top of {@link LRUCache}. Meant for values that are expensive to compute
+ * and read by many threads at once, such as database or Solr lookups.
+ * 
+ * <ul>
+ * <li>Concurrent loads of the same key are coalesced: the first thread to miss
+ * runs the loader, the others wait for its result instead of hitting the
+ * backend as well.</li>
+ * <li>Once a value is older than refreshAfterMillis, the next read still gets
+ * it right away but also starts a reload on the refresh executor, so hot
+ * entries are replaced before they expire and nobody waits for them.</li>
+ * <li>A value older than expireAfterMillis is reloaded by the reading thread.
+ * If that reload fails, the old value is served for up to maxStaleMillis more
+ * and the failure is logged. Without an old value the failure is thrown as a
+ * {@link CacheLoadingException}.</li>
+ * </ul>
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class LoadingCache<K, V> implements CacheStatsProvider {
+
+    /**
+     * A loaded value and when it was loaded
+     */
+    static class Loaded<V> {
+
+        final V value;
+
+        final long loadTime;
+
+        Loaded(V value, long loadTime) {
+            this.value = value;
+            this.loadTime = loadTime;
+        }
+    }
+
+    private static Logger logger = LoggerFactory.getLogger(LoadingCache.class);
+
+    private final CacheLoader<K, V> loader;
+
+    private final LRUCache<K, Loaded<V>> cache;
+
+    private final ConcurrentMap<K, FutureTask<V>> loads = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    private final long refreshAfterMillis;
+
+    private final long expireAfterMillis;
+
+    private final Executor refreshExecutor;
+
+    private final StripedCounter hitCount = new StripedCounter();
+
+    private final StripedCounter missCount = new StripedCounter();
+
+    private final StripedCounter loadSuccessCount = new StripedCounter();
+
+    private final StripedCounter loadFailureCount = new StripedCounter();
+
+    private final StripedCounter totalLoadTime = new StripedCounter();
+
+    /**
+     * Creates a cache without refresh-ahead or stale values, values are loaded
+     * again by the first reader after they expire
+     */
+    public LoadingCache(CacheLoader<K, V> loader, int size, long expireAfterMillis) {
+        this(loader, size, expireAfterMillis, expireAfterMillis, 0, null);
+    }
+
+    /**
+     * @param refreshAfterMillis
+     *            age after which a read starts a reload in the background,
+     *            must not be above expireAfterMillis (equal turns
+     *            refresh-ahead off)
+     * @param maxStaleMillis
+     *            how long past expireAfterMillis a value is still served when
+     *            reloading it fails
+     * @param refreshExecutor
+     *            runs the background reloads, may be null when refresh-ahead
+     *            is off
+     */
+    public LoadingCache(CacheLoader<K, V> loader, int size, long expireAfterMillis, long refreshAfterMillis,
+            long maxStaleMillis, Executor refreshExecutor) {
+        if (refreshAfterMillis > expireAfterMillis) {
+            throw new IllegalArgumentException(String.format("Refresh after %d ms comes after expiry at %d ms",
+                    refreshAfterMillis, expireAfterMillis));
+        }
+        if (refreshAfterMillis < expireAfterMillis && refreshExecutor == null) {
+            throw new IllegalArgumentException("Refresh-ahead needs an executor to run on");
+        }
+        this.loader = loader;
+        this.cache = new LRUCache<K, Loaded<V>>(size, expireAfterMillis + maxStaleMillis);
+        this.expireAfterMillis = expireAfterMillis;
+        this.refreshAfterMillis = refreshAfterMillis;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Returns the cached value, loading it first when it is missing or has
+     * expired
+     * 
+     * @throws CacheLoadingException
+     *             if the value had to be loaded and the loader failed
+     */
+    public V get(K key) {
+        Loaded<V> loaded = cache.get(key);
+        long now = System.currentTimeMillis();
+        if (loaded != null) {
+            long age = now - loaded.loadTime;
+            if (age < refreshAfterMillis) {
+                hitCount.increment();
+                return loaded.value;
+            }
+            if (age < expireAfterMillis) {
+                hitCount.increment();
+                refresh(key);
+                return loaded.value;
+            }
+        }
+        missCount.increment();
+        try {
+            return load(key);
+        } catch (CacheLoadingException e) {
+            if (loaded != null) {
+                logger.warn(String.format("Reloading %s failed, serving the value loaded %d ms ago", key, now
+                        - loaded.loadTime), e.getCause());
+                return loaded.value;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the cached value, even if it has expired, or null without
+     *         loading anything
+     */
+    public V getIfPresent(K key) {
+        Loaded<V> loaded = cache.get(key);
+        if (loaded == null) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        return loaded.value;
+    }
+
+    public void put(K key, V value) {
+        cache.put(key, new Loaded<V>(value, System.currentTimeMillis()));
+    }
+
+    /**
+     * Drops the cached value, the next get loads it again. A load already in
+     * progress still stores its result.
+     */
+    public void invalidate(K key) {
+        cache.clear(key);
+    }
+
+    /**
+     * Starts a reload in the background unless one is already running for the
+     * key
+     */
+    public void refresh(K key) {
+        if (loads.containsKey(key)) {
+            return;
+        }
+        FutureTask<V> task = newLoad(key, true);
+        if (loads.putIfAbsent(key, task) == null) {
+            try {
+                refreshExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                loads.remove(key, task);
+                logger.warn(String.format("Could not start refreshing %s", key), e);
+            }
+        }
+    }
+
+    /**
+     * Loads the value on the calling thread, or waits for the load already in
+     * progress for the same key
+     */
+    private V load(K key) {
+        FutureTask<V> task = newLoad(key, false);
+        FutureTask<V> running = loads.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            task.run();
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            throw new CacheLoadingException(String.format("Could not load %s", key), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheLoadingException(String.format("Interrupted while waiting for %s to load", key), e);
+        }
+    }
+
+    private FutureTask<V> newLoad(final K key, final boolean background) {
+        return new FutureTask<V>(new Callable<V>() {
+            public V call() throws Exception {
+                long start = System.nanoTime();
+                try {
+                    V value = loader.load(key);
+                    totalLoadTime.add(System.nanoTime() - start);
+                    loadSuccessCount.increment();
+                    cache.put(key, new Loaded<V>(value, System.currentTimeMillis()));
+                    return value;
+                } catch (Exception e) {
+                    totalLoadTime.add(System.nanoTime() - start);
+                    loadFailureCount.increment();
+                    if (background) {
+                        logger.warn(String.format("Refreshing %s failed, keeping the current value", key), e);
+                    }
+                    throw e;
+                }
+            }
+        }) {
+            @Override
+            protected void done() {
+                loads.remove(key, this);
+            }
+        };
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Counts get and getIfPresent calls as hits and misses, a stale value
+     * served after a failed reload is a miss. Background refreshes count as
+     * loads. Evictions and expirations are those of the underlying LRUCache.
+     */
+    public CacheStats getStats() {
+        CacheStats entries = cache.getStats();
+        return new CacheStats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(), loadFailureCount.sum(),
+                totalLoadTime.sum(), entries.getEvictionCount(), entries.getExpirationCount());
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.scandilabs.framework.util;
+
+/**
+ * The original key hashing: 24 least significant bits of a MD5 hash. Must be
+ * kept for pools whose keys have already been placed (for instance solr
+ * documents carrying a keyHashCode field), since any other hasher would send
+ * those keys to different resources.
+ * 
+ * @see NumberUtils#stringToUnsignedIntegerCode(String)
+ */
+public class Md5KeyHasher implements KeyHasher {
+
+    public int hash(String key) {
+        return NumberUtils.stringToUnsignedIntegerCode(key);
+    }
+
+}
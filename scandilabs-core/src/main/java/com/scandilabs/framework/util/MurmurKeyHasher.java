@@ -0,0 +1,28 @@
+package com.scandilabs.framework.util;
+
+/**
+ * Fast, allocation-free key hashing using 24 bits of a 32-bit MurmurHash3.
+ * Places keys differently from {@link Md5KeyHasher}, so only use it for pools
+ * that start out empty.
+ * 
+ * @see NumberUtils#murmurHash3(String, int)
+ */
+public class MurmurKeyHasher implements KeyHasher {
+
+    private static final int MASK_24_BITS = 0xFFFFFF;
+
+    private int seed;
+
+    public MurmurKeyHasher() {
+        this(0);
+    }
+
+    public MurmurKeyHasher(int seed) {
+        this.seed = seed;
+    }
+
+    public int hash(String key) {
+        return NumberUtils.murmurHash3(key, seed) & MASK_24_BITS;
+    }
+
+}
@@ -1,7 +1,9 @@
 package com.scandilabs.framework.util;
 
-import org.apache.commons.codec.DecoderException;
-import org.apache.commons.codec.binary.Hex;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import org.apache.commons.codec.digest.DigestUtils;
 
 public class NumberUtils {
@@ -9,6 +11,41 @@ public class NumberUtils {
     private NumberUtils() {
     }
 
+    private static final int MD5_LENGTH = 16;
+
+    // One MD5 digest and one buffer per thread, so hashing ascii keys does not
+    // allocate. Plain ThreadLocals holding JDK classes only, as anything from
+    // this jar left on a pooled container thread would keep the web
+    // application's class loader from being collected after a redeploy.
+
+    private static final ThreadLocal<MessageDigest> md5Digest = new ThreadLocal<MessageDigest>();
+
+    // The digest in the first 16 bytes, the ascii input after that
+    private static final ThreadLocal<byte[]> md5Buffer = new ThreadLocal<byte[]>();
+
+    /**
+     * True if the platform charset (which DigestUtils.md5Hex(String) uses)
+     * encodes ascii characters as themselves, one byte each
+     */
+    private static final boolean ASCII_COMPATIBLE_DEFAULT_CHARSET = isAsciiCompatibleDefaultCharset();
+
+    private static boolean isAsciiCompatibleDefaultCharset() {
+        char[] ascii = new char[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (char) i;
+        }
+        byte[] encoded = new String(ascii).getBytes();
+        if (encoded.length != ascii.length) {
+            return false;
+        }
+        for (int i = 0; i < encoded.length; i++) {
+            if (encoded[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static long toUnsignedInt(int n) {
         String s = Integer.toHexString(n);
         return Long.parseLong(s, 16);
@@ -32,25 +69,119 @@ public class NumberUtils {
     }
     
     /**
-     * Converts a string to an evenly distributed unsigned 30-bit integer in the range 0 to 2^30
+     * Converts a string to an evenly distributed unsigned 24-bit integer in
+     * the range 0 to 2^24. The value is the 24 least significant bits of the
+     * MD5 hash of the string (the last 6 characters of its hex form).
+     * 
+     * Ascii strings are digested from a per-thread buffer, so the call does not
+     * allocate. Other strings are encoded with the platform charset first, just
+     * like DigestUtils.md5Hex(String) does.
+     * 
      * @param s
      * @return
-     * @throws DecoderException 
      */
     public static int stringToUnsignedIntegerCode(String s) {
-        String md5 = DigestUtils.md5Hex(s);
-        String md5Truncated = md5.substring(26, md5.length());
+        MessageDigest digest = md5Digest.get();
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            md5Digest.set(digest);
+        }
+        byte[] buffer = md5Buffer.get();
+        int length = s.length();
+        if (buffer == null || buffer.length < MD5_LENGTH + length) {
+            buffer = new byte[MD5_LENGTH + Math.max(length, buffer == null ? 128 : buffer.length * 2)];
+            md5Buffer.set(buffer);
+        }
+        boolean ascii = ASCII_COMPATIBLE_DEFAULT_CHARSET;
+        digest.reset();
+        if (ascii) {
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    ascii = false;
+                    break;
+                }
+                buffer[MD5_LENGTH + i] = (byte) c;
+            }
+        }
+        if (ascii) {
+            digest.update(buffer, MD5_LENGTH, length);
+        } else {
+            digest.update(s.getBytes());
+        }
 
         try {
-            Hex.decodeHex(md5Truncated.toCharArray());
-        } catch (DecoderException e) {
-            throw new RuntimeException("Error decoding string value: " + s, e);
+            digest.digest(buffer, 0, MD5_LENGTH);
+        } catch (DigestException e) {
+            throw new RuntimeException("Error digesting string value: " + s, e);
         }
-        //System.out.println("size: " + b.length);
-        //System.out.println("" + md5 + " " + md5Truncated);
-        int n = Integer.parseInt(md5Truncated, 16);
-        
-        return n;
+        return ((buffer[13] & 0xFF) << 16) | ((buffer[14] & 0xFF) << 8) | (buffer[15] & 0xFF);
+    }
+
+    /**
+     * 32-bit MurmurHash3 (x86_32 variant) of a string's UTF-16 characters. Much
+     * cheaper than a MD5 digest and does not allocate, but produces different
+     * values than {@link #stringToUnsignedIntegerCode(String)}.
+     * 
+     * @param s
+     * @param seed
+     * @return
+     */
+    public static int murmurHash3(String s, int seed) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        int h1 = seed;
+        int length = s.length();
+
+        // Two chars per 32-bit block
+        int i = 1;
+        for (; i < length; i += 2) {
+            int k1 = s.charAt(i - 1) | (s.charAt(i) << 16);
+            k1 *= c1;
+            k1 = Integer.rotateLeft(k1, 15);
+            k1 *= c2;
+            h1 ^= k1;
+            h1 = Integer.rotateLeft(h1, 13);
+            h1 = h1 * 5 + 0xe6546b64;
+        }
+
+        // Odd char left over
+        if ((length & 1) == 1) {
+            int k1 = s.charAt(length - 1);
+            k1 *= c1;
+            k1 = Integer.rotateLeft(k1, 15);
+            k1 *= c2;
+            h1 ^= k1;
+        }
+
+        // Finalization mix, length is in bytes
+        h1 ^= length * 2;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+
+    /**
+     * The 64-bit finalizer of MurmurHash3. Spreads every input bit over the
+     * whole output, e.g. to turn a small hash code into a well mixed long.
+     * 
+     * @param k
+     * @return
+     */
+    public static long mix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
     }
 
     public static long hexToLong(String s) {
@@ -0,0 +1,783 @@
+package com.scandilabs.framework.util;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A cache that keeps serialized keys and values in direct ByteBuffers, outside
+ * the Java heap, so it can hold gigabytes without growing the old generation
+ * or the garbage collector's pauses. Meant as the second tier of an
+ * {@link LRUCache}, which moves the entries it evicts here and takes them back
+ * when they are used again, but it works on its own as well. Safe to share
+ * between threads.
+ *
+ * Memory is allocated in slabs of a fixed size, up to the capacity, and each
+ * slab is cut into chunks of one size class (64 bytes, 128, and so on up to
+ * the slab size). An entry takes one chunk of the smallest class that fits
+ * it, so no entry can be bigger than a slab. When a class runs out of chunks
+ * and no more slabs may be allocated, it reuses the chunk of an entry picked
+ * with the CLOCK algorithm, which passes over entries used since it last came
+ * round. Entries are found through an open addressing index of hash codes and
+ * chunk addresses in two primitive arrays, the key bytes in the chunk decide
+ * between entries with the same hash code.
+ *
+ * Like an LRUCache it is split into partitions with a lock each. Memory
+ * released by {@link #close()} is given back right away where the JVM allows
+ * it, and otherwise when the garbage collector finds the slabs unused. A
+ * closed store is empty and stays empty.
+ *
+ * @author mkvalsvik
+ *
+ */
+public class OffHeapStore<K, V> {
+
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    static final int MIN_CHUNK_SIZE = 64;
+
+    /**
+     * Partitions with fewer slabs than this could not give each size class a
+     * slab of its own, small stores get fewer partitions instead
+     */
+    static final int MIN_PARTITION_SLABS = 16;
+
+    // Chunk layout: flags, key hash code, expire time, key length, value
+    // length, key bytes and value bytes
+    private static final int FLAGS = 0;
+
+    private static final int HASH = 1;
+
+    private static final int EXPIRE_TIME = 5;
+
+    private static final int KEY_LENGTH = 13;
+
+    private static final int VALUE_LENGTH = 17;
+
+    static final int HEADER_SIZE = 21;
+
+    private static final byte USED = 1;
+
+    private static final byte REFERENCED = 2;
+
+    private static final long NEVER = Long.MAX_VALUE;
+
+    private static Logger logger = LoggerFactory.getLogger(OffHeapStore.class);
+
+    /**
+     * A value taken out of the store along with the time it expires
+     */
+    static class Stored<V> {
+
+        final V value;
+
+        final long expireTime;
+
+        Stored(V value, long expireTime) {
+            this.value = value;
+            this.expireTime = expireTime;
+        }
+    }
+
+    /**
+     * The slabs of one chunk size, and the chunks of them that are free
+     */
+    private static class SizeClass {
+
+        final int chunkSize;
+
+        final int chunksPerSlab;
+
+        int[] slabs = new int[4];
+
+        int slabCount;
+
+        long[] free = new long[0];
+
+        int freeCount;
+
+        /**
+         * The chunk the CLOCK looks at next, counting over all slabs of the
+         * class
+         */
+        int hand;
+
+        SizeClass(int chunkSize, int slabSize) {
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = slabSize / chunkSize;
+        }
+
+        void pushFree(long address) {
+            if (freeCount == free.length) {
+                long[] grown = new long[Math.max(16, free.length * 2)];
+                System.arraycopy(free, 0, grown, 0, freeCount);
+                free = grown;
+            }
+            free[freeCount++] = address;
+        }
+    }
+
+    private static class Partition extends ReentrantLock {
+
+        private static final long serialVersionUID = 201528016L;
+
+        private final int slabSize;
+
+        private final int maxSlabs;
+
+        private ByteBuffer[] slabs;
+
+        /**
+         * The size class each slab is cut up for
+         */
+        private final int[] slabClasses;
+
+        private int slabCount;
+
+        private final SizeClass[] classes;
+
+        /**
+         * The index, an address of 0 marks an empty slot
+         */
+        private int[] hashes = new int[64];
+
+        private long[] addresses = new long[64];
+
+        private int indexMask = 63;
+
+        private int size;
+
+        private boolean closed;
+
+        Partition(int slabSize, int maxSlabs) {
+            this.slabSize = slabSize;
+            this.maxSlabs = maxSlabs;
+            this.slabs = new ByteBuffer[maxSlabs];
+            this.slabClasses = new int[maxSlabs];
+            int count = 1;
+            while ((MIN_CHUNK_SIZE << (count - 1)) < slabSize) {
+                count++;
+            }
+            this.classes = new SizeClass[count];
+            for (int i = 0; i < count; i++) {
+                classes[i] = new SizeClass(MIN_CHUNK_SIZE << i, slabSize);
+            }
+        }
+
+        // Addresses are the slab number plus one in the upper half, so none
+        // is 0, and the offset into the slab in the lower half
+
+        private static long address(int slab, int offset) {
+            return ((long) (slab + 1) << 32) | offset;
+        }
+
+        private ByteBuffer slabOf(long address) {
+            return slabs[(int) (address >>> 32) - 1];
+        }
+
+        private static int offsetOf(long address) {
+            return (int) address;
+        }
+
+        private int slotFor(int hash) {
+            int h = hash * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & indexMask;
+        }
+
+        boolean mightContain(int hash) {
+            if (closed) {
+                return false;
+            }
+            for (int slot = slotFor(hash); addresses[slot] != 0; slot = (slot + 1) & indexMask) {
+                if (hashes[slot] == hash) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the index slot of the key, or -1
+         */
+        int find(int hash, byte[] key) {
+            if (closed) {
+                return -1;
+            }
+            for (int slot = slotFor(hash); addresses[slot] != 0; slot = (slot + 1) & indexMask) {
+                if (hashes[slot] == hash && keyEquals(addresses[slot], key)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private boolean keyEquals(long address, byte[] key) {
+            ByteBuffer slab = slabOf(address);
+            int offset = offsetOf(address);
+            if (slab.getInt(offset + KEY_LENGTH) != key.length) {
+                return false;
+            }
+            offset += HEADER_SIZE;
+            for (int i = 0; i < key.length; i++) {
+                if (slab.get(offset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long getExpireTime(int slot) {
+            long address = addresses[slot];
+            return slabOf(address).getLong(offsetOf(address) + EXPIRE_TIME);
+        }
+
+        /**
+         * Marks the entry used for the CLOCK and copies out its value
+         */
+        byte[] read(int slot) {
+            long address = addresses[slot];
+            ByteBuffer slab = slabOf(address);
+            int offset = offsetOf(address);
+            slab.put(offset + FLAGS, (byte) (USED | REFERENCED));
+            byte[] value = new byte[slab.getInt(offset + VALUE_LENGTH)];
+            slab.position(offset + HEADER_SIZE + slab.getInt(offset + KEY_LENGTH));
+            slab.get(value);
+            return value;
+        }
+
+        /**
+         * @return false if the entry is too big for a slab, no chunk of its
+         *         size can be had, or the store is closed. An earlier entry
+         *         for the key is then kept.
+         */
+        boolean write(int hash, byte[] key, byte[] value, long expireTime, long now) {
+            if (closed) {
+                return false;
+            }
+            long length = (long) HEADER_SIZE + key.length + value.length;
+            if (length > slabSize) {
+                return false;
+            }
+            int sizeClass = 0;
+            while (classes[sizeClass].chunkSize < length) {
+                sizeClass++;
+            }
+
+            // An entry of the same size class is overwritten in place,
+            // otherwise only released once the new one has a chunk
+            int existing = find(hash, key);
+            long address;
+            if (existing >= 0 && slabClasses[(int) (addresses[existing] >>> 32) - 1] == sizeClass) {
+                address = addresses[existing];
+            } else {
+                address = allocate(sizeClass, now);
+                if (address == 0) {
+                    return false;
+                }
+
+                // Allocating may have evicted it, or moved its slot
+                existing = find(hash, key);
+                if (existing >= 0) {
+                    remove(existing);
+                }
+                existing = -1;
+            }
+            ByteBuffer slab = slabOf(address);
+            int offset = offsetOf(address);
+            slab.put(offset + FLAGS, USED);
+            slab.putInt(offset + HASH, hash);
+            slab.putLong(offset + EXPIRE_TIME, expireTime);
+            slab.putInt(offset + KEY_LENGTH, key.length);
+            slab.putInt(offset + VALUE_LENGTH, value.length);
+            slab.position(offset + HEADER_SIZE);
+            slab.put(key);
+            slab.put(value);
+            if (existing < 0) {
+                insertSlot(hash, address);
+            }
+            return true;
+        }
+
+        /**
+         * @return the address of a free chunk of the class, or 0 if there is
+         *         none to be had
+         */
+        private long allocate(int classIndex, long now) {
+            SizeClass sizeClass = classes[classIndex];
+            if (sizeClass.freeCount > 0) {
+                return sizeClass.free[--sizeClass.freeCount];
+            }
+            if (slabCount < maxSlabs) {
+                addSlab(classIndex, slabCount++);
+                return sizeClass.free[--sizeClass.freeCount];
+            }
+            if (sizeClass.slabCount == 0) {
+
+                // All memory went to other classes, take a slab from the class
+                // that has the most
+                SizeClass richest = classes[0];
+                for (SizeClass c : classes) {
+                    if (c.slabCount > richest.slabCount) {
+                        richest = c;
+                    }
+                }
+                if (richest.slabCount <= 1) {
+                    return 0;
+                }
+                addSlab(classIndex, takeSlab(richest));
+                return sizeClass.free[--sizeClass.freeCount];
+            }
+
+            // CLOCK: entries used since the hand last passed get another
+            // round, expired ones do not. Every chunk of the class is in use,
+            // so this ends within two rounds.
+            int chunks = sizeClass.slabCount * sizeClass.chunksPerSlab;
+            while (true) {
+                int chunk = sizeClass.hand;
+                sizeClass.hand = (chunk + 1) % chunks;
+                long address = address(sizeClass.slabs[chunk / sizeClass.chunksPerSlab],
+                        (chunk % sizeClass.chunksPerSlab) * sizeClass.chunkSize);
+                ByteBuffer slab = slabOf(address);
+                int offset = offsetOf(address);
+                byte flags = slab.get(offset + FLAGS);
+                if ((flags & REFERENCED) != 0 && slab.getLong(offset + EXPIRE_TIME) >= now) {
+                    slab.put(offset + FLAGS, USED);
+                    continue;
+                }
+                evict(address);
+                return address;
+            }
+        }
+
+        private void addSlab(int classIndex, int slab) {
+            if (slabs[slab] == null) {
+                slabs[slab] = ByteBuffer.allocateDirect(slabSize);
+            }
+            slabClasses[slab] = classIndex;
+            SizeClass sizeClass = classes[classIndex];
+            if (sizeClass.slabCount == sizeClass.slabs.length) {
+                int[] grown = new int[sizeClass.slabs.length * 2];
+                System.arraycopy(sizeClass.slabs, 0, grown, 0, sizeClass.slabCount);
+                sizeClass.slabs = grown;
+            }
+            sizeClass.slabs[sizeClass.slabCount++] = slab;
+
+            // Pushed backwards so chunks are handed out from the start of the
+            // slab
+            for (int chunk = sizeClass.chunksPerSlab - 1; chunk >= 0; chunk--) {
+                sizeClass.pushFree(address(slab, chunk * sizeClass.chunkSize));
+            }
+        }
+
+        /**
+         * Empties the first slab at or after the class's CLOCK hand and takes
+         * it away from the class. The chunks just behind the hand were the
+         * last ones written, those ahead of it have waited longest.
+         *
+         * @return the slab number
+         */
+        private int takeSlab(SizeClass sizeClass) {
+            int position = ((sizeClass.hand + sizeClass.chunksPerSlab - 1) / sizeClass.chunksPerSlab)
+                    % sizeClass.slabCount;
+            int slab = sizeClass.slabs[position];
+            for (int chunk = 0; chunk < sizeClass.chunksPerSlab; chunk++) {
+                long address = address(slab, chunk * sizeClass.chunkSize);
+                if ((slabOf(address).get(offsetOf(address) + FLAGS) & USED) != 0) {
+                    evict(address);
+                }
+            }
+            sizeClass.slabs[position] = sizeClass.slabs[--sizeClass.slabCount];
+            sizeClass.hand = 0;
+            int kept = 0;
+            for (int i = 0; i < sizeClass.freeCount; i++) {
+                if ((int) (sizeClass.free[i] >>> 32) - 1 != slab) {
+                    sizeClass.free[kept++] = sizeClass.free[i];
+                }
+            }
+            sizeClass.freeCount = kept;
+            return slab;
+        }
+
+        /**
+         * Drops the entry in the chunk from the index, and leaves the chunk
+         * marked free but off the free list, for the caller to reuse
+         */
+        private void evict(long address) {
+            ByteBuffer slab = slabOf(address);
+            int offset = offsetOf(address);
+            int hash = slab.getInt(offset + HASH);
+            for (int slot = slotFor(hash); addresses[slot] != 0; slot = (slot + 1) & indexMask) {
+                if (addresses[slot] == address) {
+                    removeSlot(slot);
+                    break;
+                }
+            }
+            slab.put(offset + FLAGS, (byte) 0);
+        }
+
+        void remove(int slot) {
+            release(addresses[slot]);
+            removeSlot(slot);
+        }
+
+        private void release(long address) {
+            ByteBuffer slab = slabOf(address);
+            int offset = offsetOf(address);
+            slab.put(offset + FLAGS, (byte) 0);
+            classes[slabClasses[(int) (address >>> 32) - 1]].pushFree(address);
+        }
+
+        private void insertSlot(int hash, long address) {
+            if ((size + 1) * 4 > addresses.length * 3) {
+                resizeIndex();
+            }
+            int slot = slotFor(hash);
+            while (addresses[slot] != 0) {
+                slot = (slot + 1) & indexMask;
+            }
+            hashes[slot] = hash;
+            addresses[slot] = address;
+            size++;
+        }
+
+        /**
+         * Removes the slot and shifts back the entries after it that would
+         * otherwise no longer be found, linear probing has no tombstones
+         */
+        private void removeSlot(int slot) {
+            int hole = slot;
+            int next = (hole + 1) & indexMask;
+            while (addresses[next] != 0) {
+                int home = slotFor(hashes[next]);
+                if (((next - home) & indexMask) >= ((next - hole) & indexMask)) {
+                    hashes[hole] = hashes[next];
+                    addresses[hole] = addresses[next];
+                    hole = next;
+                }
+                next = (next + 1) & indexMask;
+            }
+            hashes[hole] = 0;
+            addresses[hole] = 0;
+            size--;
+        }
+
+        private void resizeIndex() {
+            int[] oldHashes = hashes;
+            long[] oldAddresses = addresses;
+            hashes = new int[oldHashes.length * 2];
+            addresses = new long[oldAddresses.length * 2];
+            indexMask = addresses.length - 1;
+            for (int i = 0; i < oldAddresses.length; i++) {
+                if (oldAddresses[i] != 0) {
+                    int slot = slotFor(oldHashes[i]);
+                    while (addresses[slot] != 0) {
+                        slot = (slot + 1) & indexMask;
+                    }
+                    hashes[slot] = oldHashes[i];
+                    addresses[slot] = oldAddresses[i];
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        long getAllocatedBytes() {
+            return (long) slabCount * slabSize;
+        }
+
+        void close() {
+            closed = true;
+            for (int i = 0; i < slabCount; i++) {
+                free(slabs[i]);
+                slabs[i] = null;
+            }
+            slabCount = 0;
+            hashes = new int[1];
+            addresses = new long[1];
+            indexMask = 0;
+            size = 0;
+        }
+    }
+
+    private final Serializer<K> keySerializer;
+
+    private final Serializer<V> valueSerializer;
+
+    private final Partition[] partitions;
+
+    private final int partitionMask;
+
+    private final long capacity;
+
+    public OffHeapStore(long capacity, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(capacity, DEFAULT_SLAB_SIZE, LRUCache.DEFAULT_CONCURRENCY_LEVEL, keySerializer, valueSerializer);
+    }
+
+    /**
+     * @param capacity
+     *            the most bytes to allocate, rounded down to whole slabs
+     * @param slabSize
+     *            a power of two, also the biggest entry (key, value and 21
+     *            bytes of header) that can be stored
+     * @param concurrencyLevel
+     *            the number of threads expected to use the store at the same
+     *            time, rounded down to a power of two
+     */
+    public OffHeapStore(long capacity, int slabSize, int concurrencyLevel, Serializer<K> keySerializer,
+            Serializer<V> valueSerializer) {
+        if (slabSize < MIN_CHUNK_SIZE || Integer.bitCount(slabSize) != 1) {
+            throw new IllegalArgumentException("Slab size must be a power of two of at least " + MIN_CHUNK_SIZE
+                    + ": " + slabSize);
+        }
+        long totalSlabs = capacity / slabSize;
+        if (totalSlabs < 1) {
+            throw new IllegalArgumentException(String.format("Capacity %d is less than one slab of %d", capacity,
+                    slabSize));
+        }
+        int count = 1;
+        while (count * 2 <= concurrencyLevel && count * 2 * MIN_PARTITION_SLABS <= totalSlabs) {
+            count *= 2;
+        }
+        this.partitions = new Partition[count];
+        for (int i = 0; i < count; i++) {
+            long slabs = totalSlabs / count + (i < totalSlabs % count ? 1 : 0);
+            partitions[i] = new Partition(slabSize, (int) Math.min(slabs, Integer.MAX_VALUE));
+        }
+        this.partitionMask = count - 1;
+        this.capacity = totalSlabs * slabSize;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+    }
+
+    private static int hash(Object key) {
+        return key == null ? 0 : key.hashCode();
+    }
+
+    private Partition partitionFor(int hash) {
+        int h = hash;
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return partitions[h & partitionMask];
+    }
+
+    public boolean put(K key, V value) {
+        return put(key, value, NEVER);
+    }
+
+    /**
+     * Stores the entry, replacing any earlier one for the key
+     *
+     * @param expireTime
+     *            in millis since the epoch, after which the entry is gone
+     * @return false if the entry was not stored because it is bigger than a
+     *         slab, the store is closed, or no chunk of its size is to be
+     *         had: all slabs are taken and the other size classes have no
+     *         more than one each to give up. Any earlier entry for the key is
+     *         then kept.
+     */
+    public boolean put(K key, V value, long expireTime) {
+        return putBytes(key, keySerializer.serialize(key), valueSerializer.serialize(value), expireTime);
+    }
+
+    /**
+     * Stores an entry serialized in advance, so callers can serialize outside
+     * their own locks
+     */
+    boolean putBytes(K key, byte[] keyBytes, byte[] valueBytes, long expireTime) {
+        int hash = hash(key);
+        Partition partition = partitionFor(hash);
+        partition.lock();
+        try {
+            return partition.write(hash, keyBytes, valueBytes, expireTime, System.currentTimeMillis());
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    /**
+     * @return the value, or null if the key is not in the store or has expired
+     */
+    public V get(K key) {
+        byte[] value = read(key, System.currentTimeMillis(), false, null);
+        return value == null ? null : valueSerializer.deserialize(value);
+    }
+
+    /**
+     * Removes the entry and returns it, for a cache in front of the store that
+     * takes it back
+     */
+    Stored<V> take(K key, long now) {
+        long[] expireTime = new long[1];
+        byte[] value = read(key, now, true, expireTime);
+        return value == null ? null : new Stored<V>(valueSerializer.deserialize(value), expireTime[0]);
+    }
+
+    /**
+     * @return true if the key is in the store and has not expired, without
+     *         marking the entry used
+     */
+    boolean contains(K key, long now) {
+        int hash = hash(key);
+        Partition partition = partitionFor(hash);
+        if (!mightContain(partition, hash)) {
+            return false;
+        }
+        byte[] keyBytes = keySerializer.serialize(key);
+        partition.lock();
+        try {
+            int slot = partition.find(hash, keyBytes);
+            return slot >= 0 && partition.getExpireTime(slot) >= now;
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    private byte[] read(K key, long now, boolean remove, long[] expireTime) {
+        int hash = hash(key);
+        Partition partition = partitionFor(hash);
+        if (!mightContain(partition, hash)) {
+            return null;
+        }
+        byte[] keyBytes = keySerializer.serialize(key);
+        partition.lock();
+        try {
+            int slot = partition.find(hash, keyBytes);
+            if (slot < 0) {
+                return null;
+            }
+            long expires = partition.getExpireTime(slot);
+            if (expires < now) {
+                partition.remove(slot);
+                return null;
+            }
+            byte[] value = partition.read(slot);
+            if (remove) {
+                partition.remove(slot);
+            }
+            if (expireTime != null) {
+                expireTime[0] = expires;
+            }
+            return value;
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    /**
+     * Checks the hash code before serializing the key, the key only needs to
+     * be serialized when some entry has the same hash code
+     */
+    private boolean mightContain(Partition partition, int hash) {
+        partition.lock();
+        try {
+            return partition.mightContain(hash);
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    /**
+     * @return true if the key was in the store
+     */
+    public boolean remove(K key) {
+        int hash = hash(key);
+        Partition partition = partitionFor(hash);
+        if (!mightContain(partition, hash)) {
+            return false;
+        }
+        byte[] keyBytes = keySerializer.serialize(key);
+        partition.lock();
+        try {
+            int slot = partition.find(hash, keyBytes);
+            if (slot < 0) {
+                return false;
+            }
+            partition.remove(slot);
+            return true;
+        } finally {
+            partition.unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries, including expired ones that have not
+     *         been found or evicted yet
+     */
+    public int size() {
+        int size = 0;
+        for (Partition partition : partitions) {
+            partition.lock();
+            try {
+                size += partition.size();
+            } finally {
+                partition.unlock();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the bytes of direct memory held by slabs so far
+     */
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (Partition partition : partitions) {
+            partition.lock();
+            try {
+                bytes += partition.getAllocatedBytes();
+            } finally {
+                partition.unlock();
+            }
+        }
+        return bytes;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    Serializer<K> getKeySerializer() {
+        return keySerializer;
+    }
+
+    Serializer<V> getValueSerializer() {
+        return valueSerializer;
+    }
+
+    /**
+     * Drops all entries and releases the slabs
+     */
+    public void close() {
+        for (Partition partition : partitions) {
+            partition.lock();
+            try {
+                partition.close();
+            } finally {
+                partition.unlock();
+            }
+        }
+    }
+
+    /**
+     * Frees the memory of a direct buffer now instead of whenever the garbage
+     * collector gets to it, through the cleaner that JVMs up to Java 8 expose
+     */
+    private static void free(ByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            logger.debug("Could not free direct buffer, leaving it to the garbage collector: " + e);
+        }
+    }
+
+}
@@ -0,0 +1,297 @@
+package com.scandilabs.framework.util;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Hashes passwords with PBKDF2-HMAC-SHA256 and a random salt per password, at
+ * a configurable number of iterations, and checks them. Hashes are encoded as
+ *
+ * <pre>
+ * $p1$&lt;iterations&gt;$&lt;base64 salt&gt;$&lt;base64 hash&gt;
+ * </pre>
+ *
+ * where p1 is the version of the format. Anything else is taken to be a
+ * legacy SHA-1 hash from {@link PasswordUtils#encode(String, String, String)},
+ * which is still checked, and replaced by a new hash once the password is
+ * known to be right, see {@link Verification#getUpgradedHash()}. So are
+ * hashes with fewer iterations than configured.
+ *
+ * Each check costs as much CPU as the iterations make it, so a burst of logins
+ * could tie up every request thread. {@link #verifyAsync(String, String, String)}
+ * checks on a pool of its own with a bounded queue instead, and turns logins
+ * away with a RejectedExecutionException once the queue is full.
+ *
+ * @author mkvalsvik
+ *
+ */
+public class PasswordHasher {
+
+    public static final int DEFAULT_ITERATIONS = 100000;
+
+    /**
+     * Hashes with more than this many times the configured iterations are
+     * refused, so a tampered hash cannot make one check run for hours
+     */
+    static final int MAX_ITERATIONS_FACTOR = 10;
+
+    static final String VERSION = "p1";
+
+    private static final String PREFIX = "$" + VERSION + "$";
+
+    private static final int SALT_BYTES = 16;
+
+    private static final int HASH_BYTES = 32;
+
+    /**
+     * Macs are created once per thread, they are not thread safe
+     */
+    private static final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance("HmacSHA256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 not found, please check your Java version", e);
+            }
+        }
+    };
+
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * The outcome of checking a password
+     */
+    public static class Verification {
+
+        private final boolean matches;
+
+        private final String upgradedHash;
+
+        Verification(boolean matches, String upgradedHash) {
+            this.matches = matches;
+            this.upgradedHash = upgradedHash;
+        }
+
+        public boolean matches() {
+            return matches;
+        }
+
+        /**
+         * @return a new hash to store in place of the old one, or null if the
+         *         password did not match or the old hash is up to date
+         */
+        public String getUpgradedHash() {
+            return upgradedHash;
+        }
+    }
+
+    private final String applicationSalt;
+
+    private final int iterations;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param applicationSalt
+     *            the salt legacy hashes were made with
+     * @param iterations
+     *            the cost of new hashes
+     * @param threads
+     *            the most passwords checked at once by verifyAsync
+     * @param maxQueued
+     *            the most checks waiting for a thread, more are rejected
+     */
+    public PasswordHasher(String applicationSalt, int iterations, int threads, int maxQueued) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be at least 1: " + iterations);
+        }
+        this.applicationSalt = applicationSalt;
+        this.iterations = iterations;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueued), new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "PasswordHasher-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    public PasswordHasher(String applicationSalt) {
+        this(applicationSalt, DEFAULT_ITERATIONS, Runtime.getRuntime().availableProcessors(), 100);
+    }
+
+    /**
+     * @return the encoded hash of the password, with a new random salt
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        return encode(iterations, salt, pbkdf2(password, salt, iterations));
+    }
+
+    /**
+     * Checks a password against a hash from {@link #hash(String)} or a legacy
+     * one, on the calling thread
+     *
+     * @param userSalt
+     *            the user's salt for legacy hashes, may be null
+     * @throws IllegalArgumentException
+     *             if the hash is not valid, or has fewer than one or more
+     *             than ten times the configured iterations
+     */
+    public Verification verify(String password, String encoded, String userSalt) {
+        if (password == null || encoded == null) {
+            return new Verification(false, null);
+        }
+        if (!encoded.startsWith(PREFIX)) {
+            boolean matches = constantTimeEquals(toBytes(PasswordUtils.encode(password, applicationSalt, userSalt)),
+                    toBytes(encoded));
+            return new Verification(matches, matches ? hash(password) : null);
+        }
+        String[] parts = encoded.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Not a password hash: " + encoded);
+        }
+        int hashIterations;
+        try {
+            hashIterations = Integer.parseInt(parts[0]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a password hash: " + encoded);
+        }
+        if (hashIterations < 1 || hashIterations > (long) iterations * MAX_ITERATIONS_FACTOR) {
+            throw new IllegalArgumentException(String.format("Password hash with %d iterations, expected 1 to %d",
+                    hashIterations, (long) iterations * MAX_ITERATIONS_FACTOR));
+        }
+        byte[] salt = Base64.decodeBase64(toBytes(parts[1]));
+        byte[] expected = Base64.decodeBase64(toBytes(parts[2]));
+        boolean matches = constantTimeEquals(pbkdf2(password, salt, hashIterations), expected);
+        return new Verification(matches, matches && hashIterations < iterations ? hash(password) : null);
+    }
+
+    /**
+     * Checks the password on the hasher's own threads
+     *
+     * @throws RejectedExecutionException
+     *             if as many checks as allowed are waiting already
+     */
+    public Future<Verification> verifyAsync(final String password, final String encoded, final String userSalt) {
+        return executor.submit(new Callable<Verification>() {
+            public Verification call() {
+                return verify(password, encoded, userSalt);
+            }
+        });
+    }
+
+    /**
+     * @return true if the hash is a legacy one or has fewer iterations than
+     *         new hashes get
+     */
+    public boolean needsRehash(String encoded) {
+        if (!encoded.startsWith(PREFIX)) {
+            return true;
+        }
+        int end = encoded.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 || Integer.parseInt(encoded.substring(PREFIX.length(), end)) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return the number of checks waiting for a thread
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static String encode(int iterations, byte[] salt, byte[] hash) {
+        return PREFIX + iterations + "$" + toString(Base64.encodeBase64(salt)) + "$"
+                + toString(Base64.encodeBase64(hash));
+    }
+
+    /**
+     * PBKDF2 (RFC 2898) with HMAC-SHA256, for a single block of output since
+     * that is as long as the hash
+     */
+    static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        Mac mac = macs.get();
+        byte[] key = toBytes(password);
+        try {
+
+            // HMAC pads keys with zeros, so an empty key is the same as a
+            // single zero byte, which SecretKeySpec accepts
+            mac.init(new SecretKeySpec(key.length == 0 ? new byte[1] : key, "HmacSHA256"));
+            mac.update(salt);
+            mac.update(new byte[] { 0, 0, 0, 1 });
+            byte[] u = mac.doFinal();
+            byte[] result = u.clone();
+            for (int i = 1; i < iterations; i++) {
+                mac.update(u);
+                mac.doFinal(u, 0);
+                for (int j = 0; j < HASH_BYTES; j++) {
+                    result[j] ^= u[j];
+                }
+            }
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not hash password", e);
+        }
+    }
+
+    /**
+     * Compares all bytes whatever the first difference, so the time taken
+     * tells nothing about how much of a guess was right
+     */
+    private static boolean constantTimeEquals(byte[] a, byte[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        int difference = 0;
+        for (int i = 0; i < a.length; i++) {
+            difference |= a[i] ^ b[i];
+        }
+        return difference == 0;
+    }
+
+    private static byte[] toBytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 not supported, please check you Java version", e);
+        }
+    }
+
+    private static String toString(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 not supported, please check you Java version", e);
+        }
+    }
+
+}
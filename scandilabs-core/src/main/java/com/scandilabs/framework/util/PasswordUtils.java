@@ -6,8 +6,28 @@ import java.security.NoSuchAlgorithmException;
 
 import org.apache.commons.codec.binary.Base64;
 
+/**
+ * The original password encoding, unsalted SHA-1 apart from the application
+ * and user salts. New passwords should be hashed with {@link PasswordHasher},
+ * which still checks these.
+ */
 public class PasswordUtils {
 
+	/**
+	 * MessageDigests are created once per thread, they are not thread safe
+	 */
+	private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(
+						"Password encoding algorithm SHA-1 not found, please check you Java version",
+						e);
+			}
+		}
+	};
+
 	private PasswordUtils() {}
 
 	public static boolean passwordMatches(String cleartextPassword, String encodedPassword, String applicationSalt) {
@@ -49,19 +69,10 @@ public class PasswordUtils {
 		
 		sb.append(applicationSalt);
 		sb.append(password);
-		MessageDigest md = null;
-		try {
-			md = MessageDigest.getInstance("SHA-1");
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException(
-					"Password encoding algorithm SHA-1 not found, please check you Java version",
-					e);
-		}
+		MessageDigest md = digests.get();
 		try {
-			md.update(sb.toString().getBytes("UTF-8"));
-			byte[] hash = md.digest();
-			Base64 base64Encoder = new Base64();
-			byte[] base64EncodedHash = base64Encoder.encode(hash);
+			byte[] hash = md.digest(sb.toString().getBytes("UTF-8"));
+			byte[] base64EncodedHash = Base64.encodeBase64(hash);
 			return new String(base64EncodedHash, "UTF-8");
 		} catch (UnsupportedEncodingException e) {
 			throw new RuntimeException(
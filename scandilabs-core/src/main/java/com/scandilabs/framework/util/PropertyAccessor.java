@@ -0,0 +1,211 @@
+package com.scandilabs.framework.util;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.commons.beanutils.PropertyUtils;
+
+/**
+ * Reads a bean property the way commons-beanutils' PropertyUtils.getProperty
+ * does, but looks up the getter once per class and property instead of on
+ * every call. Sorting or extracting a property from thousands of beans then
+ * costs one Method.invoke per bean, which the JVM turns into a generated
+ * accessor class after the first few calls.
+ *
+ * Property paths may be nested ("address.city"), and Map beans are read by
+ * key, as with PropertyUtils. Paths with indexed or mapped parts ("items[0]",
+ * "values(key)") are left to PropertyUtils.
+ *
+ * An accessor from {@link #forPath(String)} works for beans of any class,
+ * and remembers the getter of the last class it saw, so a list of beans of
+ * one class only looks the getter up once.
+ *
+ * @author mkvalsvik
+ *
+ */
+public final class PropertyAccessor {
+
+    /**
+     * Accessors by class and path. The maps are held softly because their
+     * getters refer to the class, which would otherwise never leave the
+     * WeakHashMap.
+     */
+    private static final Map<Class<?>, SoftReference<Map<String, PropertyAccessor>>> registry = new WeakHashMap<Class<?>, SoftReference<Map<String, PropertyAccessor>>>();
+
+    private final String path;
+
+    /**
+     * Null for an accessor that is not bound to a class
+     */
+    private final Class<?> beanClass;
+
+    /**
+     * The getter of the first part of the path, null for a Map bean
+     */
+    private final Method getter;
+
+    private final String name;
+
+    /**
+     * The rest of the path after name, null if name is all of it
+     */
+    private final String rest;
+
+    /**
+     * Whether the path is left to PropertyUtils
+     */
+    private final boolean delegate;
+
+    /**
+     * The accessor for the class of the last bean, or for rest on the class
+     * of the last value, seen by get()
+     */
+    private volatile PropertyAccessor last;
+
+    private PropertyAccessor(String path) {
+        this.path = path;
+        this.beanClass = null;
+        this.getter = null;
+        this.name = null;
+        this.rest = null;
+        this.delegate = false;
+    }
+
+    private PropertyAccessor(Class<?> beanClass, String path) throws NoSuchMethodException {
+        this.path = path;
+        this.beanClass = beanClass;
+        this.delegate = path.indexOf('[') >= 0 || path.indexOf('(') >= 0;
+        int dot = path.indexOf('.');
+        this.name = dot < 0 ? path : path.substring(0, dot);
+        this.rest = dot < 0 ? null : path.substring(dot + 1);
+        if (delegate || Map.class.isAssignableFrom(beanClass)) {
+            this.getter = null;
+        } else {
+            this.getter = findGetter(beanClass, name);
+        }
+    }
+
+    private static Method findGetter(Class<?> beanClass, String name) throws NoSuchMethodException {
+        PropertyDescriptor[] descriptors;
+        try {
+            descriptors = Introspector.getBeanInfo(beanClass).getPropertyDescriptors();
+        } catch (IntrospectionException e) {
+            throw new NoSuchMethodException(String.format("Could not introspect %s: %s", beanClass.getName(), e
+                    .toString()));
+        }
+        for (PropertyDescriptor descriptor : descriptors) {
+            if (descriptor.getName().equals(name)) {
+                Method getter = descriptor.getReadMethod();
+                if (getter == null) {
+                    throw new NoSuchMethodException(String.format("Property '%s' has no getter method in %s", name,
+                            beanClass.getName()));
+                }
+
+                // Public getters of non-public classes can only be called
+                // this way, and calls skip the access check
+                try {
+                    getter.setAccessible(true);
+                } catch (SecurityException e) {
+                }
+                return getter;
+            }
+        }
+        throw new NoSuchMethodException(String.format("Unknown property '%s' on %s", name, beanClass.getName()));
+    }
+
+    /**
+     * @return an accessor for the path on beans of any class
+     */
+    public static PropertyAccessor forPath(String path) {
+        return new PropertyAccessor(path);
+    }
+
+    /**
+     * @return the accessor for the path on beans of exactly the given class,
+     *         shared by all callers
+     * @throws NoSuchMethodException
+     *             if the class has no getter for the first part of the path
+     */
+    public static PropertyAccessor forProperty(Class<?> beanClass, String path) throws NoSuchMethodException {
+        synchronized (registry) {
+            SoftReference<Map<String, PropertyAccessor>> reference = registry.get(beanClass);
+            Map<String, PropertyAccessor> accessors = reference == null ? null : reference.get();
+            if (accessors == null) {
+                accessors = new HashMap<String, PropertyAccessor>();
+                registry.put(beanClass, new SoftReference<Map<String, PropertyAccessor>>(accessors));
+            }
+            PropertyAccessor accessor = accessors.get(path);
+            if (accessor == null) {
+                accessor = new PropertyAccessor(beanClass, path);
+                accessors.put(path, accessor);
+            }
+            return accessor;
+        }
+    }
+
+    /**
+     * Reads the property once, for repeated reads hold on to an accessor from
+     * {@link #forPath(String)} instead
+     */
+    public static Object getProperty(Object bean, String path) throws IllegalAccessException,
+            InvocationTargetException, NoSuchMethodException {
+        if (bean == null) {
+            throw new IllegalArgumentException("No bean specified");
+        }
+        return forProperty(bean.getClass(), path).get(bean);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the bean, or a property along a nested path, is null
+     * @throws NoSuchMethodException
+     *             if the bean has no such property
+     */
+    public Object get(Object bean) throws IllegalAccessException, InvocationTargetException,
+            NoSuchMethodException {
+        if (bean == null) {
+            throw new IllegalArgumentException("No bean specified");
+        }
+        if (beanClass != bean.getClass()) {
+            PropertyAccessor accessor = last;
+            if (accessor == null || accessor.beanClass != bean.getClass()) {
+                accessor = forProperty(bean.getClass(), path);
+                last = accessor;
+            }
+            return accessor.get(bean);
+        }
+        if (delegate) {
+            return PropertyUtils.getProperty(bean, path);
+        }
+        Object value = getter == null ? ((Map<?, ?>) bean).get(name) : getter.invoke(bean);
+        if (rest == null) {
+            return value;
+        }
+        if (value == null) {
+            throw new IllegalArgumentException(String.format("Null property value for '%s' on %s", name, beanClass
+                    .getName()));
+        }
+        PropertyAccessor accessor = last;
+        if (accessor == null || accessor.beanClass != value.getClass()) {
+            accessor = forProperty(value.getClass(), rest);
+            last = accessor;
+        }
+        return accessor.get(value);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String toString() {
+        return beanClass == null ? path : beanClass.getName() + "." + path;
+    }
+
+}
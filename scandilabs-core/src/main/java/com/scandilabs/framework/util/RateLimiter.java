@@ -0,0 +1,47 @@
+package com.scandilabs.framework.util;
+
+/**
+ * Spaces out calls to at most a given number per second, for background work
+ * that must not swamp a database or search server. A caller that comes too
+ * early sleeps until its turn, callers are served in the order they came.
+ *
+ * @author mkvalsvik
+ *
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+
+    /**
+     * When the next call may go ahead
+     */
+    private long next = System.nanoTime();
+
+    public RateLimiter(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("Rate must be positive: " + permitsPerSecond);
+        }
+        this.intervalNanos = (long) (1000000000L / permitsPerSecond);
+    }
+
+    /**
+     * Waits until the caller may go ahead
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+
+            // Time spent idle is not saved up for a burst later
+            if (next - now < 0) {
+                next = now;
+            }
+            wait = next - now;
+            next += intervalNanos;
+        }
+        if (wait > 0) {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.scandilabs.framework.util;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Values that belong to the request a thread is working on, such as the
+ * current user, under typed {@link ContextKey}s. Unlike
+ * {@link ThreadLocalUtils}, a context is only attached to the thread between
+ * open() and close(), so pooled threads do not keep values from one request
+ * to the next, and threads outside a request carry nothing. Typical use from
+ * a servlet filter:
+ *
+ * <pre>
+ * RequestContext context = RequestContext.open();
+ * try {
+ *     RequestContext.set(USER, user);
+ *     chain.doFilter(request, response);
+ * } finally {
+ *     context.close();
+ * }
+ * </pre>
+ *
+ * Tasks handed to an executor do not see the context of the thread that
+ * created them unless they are wrapped with {@link #wrap(Runnable)} or
+ * {@link #wrap(Callable)}, which take the values as they are at that moment.
+ *
+ * Values are held in an array with a slot per key, which is copied when a
+ * value is set, so wrapped tasks share it without locking and what they set
+ * stays their own.
+ *
+ * @author mkvalsvik
+ *
+ */
+public final class RequestContext {
+
+    private static final Object[] EMPTY = new Object[0];
+
+    private static final ThreadLocal<RequestContext> current = new ThreadLocal<RequestContext>();
+
+    /**
+     * Never changed once set, set() replaces it with a copy
+     */
+    private Object[] values;
+
+    /**
+     * The context to go back to on close, null for none
+     */
+    private final RequestContext previous;
+
+    private RequestContext(Object[] values, RequestContext previous) {
+        this.values = values;
+        this.previous = previous;
+    }
+
+    /**
+     * Opens a context on the current thread, which starts with the values of
+     * the context open already, if any. Values set in it are gone once it is
+     * closed.
+     *
+     * @return the context, to be closed in a finally block
+     */
+    public static RequestContext open() {
+        RequestContext previous = current.get();
+        return open(previous == null ? EMPTY : previous.values, previous);
+    }
+
+    private static RequestContext open(Object[] values, RequestContext previous) {
+        RequestContext context = new RequestContext(values, previous);
+        current.set(context);
+        return context;
+    }
+
+    /**
+     * Goes back to the context that was open before this one, or to none at
+     * all
+     *
+     * @throws IllegalStateException
+     *             if this is not the context open on the current thread
+     */
+    public void close() {
+        if (current.get() != this) {
+            throw new IllegalStateException("Contexts must be closed on their own thread, latest first");
+        }
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * @return true if a context is open on the current thread
+     */
+    public static boolean isOpen() {
+        return current.get() != null;
+    }
+
+    /**
+     * @return the value in the current context, or null if there is none or
+     *         no context is open
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(ContextKey<T> key) {
+        RequestContext context = current.get();
+        if (context == null || key.slot >= context.values.length) {
+            return null;
+        }
+        return (T) context.values[key.slot];
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if no context is open on the current thread
+     */
+    public static <T> void set(ContextKey<T> key, T value) {
+        RequestContext context = current.get();
+        if (context == null) {
+            throw new IllegalStateException("No RequestContext open to set " + key + " in");
+        }
+        Object[] values = new Object[Math.max(context.values.length, key.slot + 1)];
+        System.arraycopy(context.values, 0, values, 0, context.values.length);
+        values[key.slot] = value;
+        context.values = values;
+    }
+
+    public static void remove(ContextKey<?> key) {
+        if (get(key) != null) {
+            set(key, null);
+        }
+    }
+
+    /**
+     * @return a task that runs with the values of the current context, or the
+     *         task itself if no context is open
+     */
+    public static Runnable wrap(final Runnable task) {
+        RequestContext context = current.get();
+        if (context == null) {
+            return task;
+        }
+        final Object[] values = context.values;
+        return new Runnable() {
+            public void run() {
+                RequestContext opened = open(values, current.get());
+                try {
+                    task.run();
+                } finally {
+                    opened.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a task that runs with the values of the current context, or the
+     *         task itself if no context is open
+     */
+    public static <V> Callable<V> wrap(final Callable<V> task) {
+        RequestContext context = current.get();
+        if (context == null) {
+            return task;
+        }
+        final Object[] values = context.values;
+        return new Callable<V>() {
+            public V call() throws Exception {
+                RequestContext opened = open(values, current.get());
+                try {
+                    return task.call();
+                } finally {
+                    opened.close();
+                }
+            }
+        };
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.scandilabs.framework.util;
+
+/**
+ * Turns keys or values into bytes and back, for storing them outside the Java
+ * heap (see {@link OffHeapStore})
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public interface Serializer<T> {
+
+    byte[] serialize(T object);
+
+    T deserialize(byte[] bytes);
+
+}
@@ -0,0 +1,31 @@
+package com.scandilabs.framework.util;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Serializes strings as UTF-8, much more compact than Java serialization
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class StringSerializer implements Serializer<String> {
+
+    private static final String UTF_8 = "UTF-8";
+
+    public byte[] serialize(String object) {
+        try {
+            return object.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String deserialize(byte[] bytes) {
+        try {
+            return new String(bytes, UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.scandilabs.framework.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to at once without fighting over one
+ * memory location. Each thread adds to one of several cells, picked by its
+ * thread id, and the cells are 64 bytes apart so that threads on different
+ * cores do not share a cache line. Reading the count sums the cells, which
+ * is slower and, while others are adding, only approximately current.
+ *
+ * @author mkvalsvik
+ *
+ */
+public class StripedCounter {
+
+    /**
+     * Longs between two cells, a cache line's worth
+     */
+    private static final int PADDING = 8;
+
+    private static final int MAX_CELLS = 64;
+
+    private static final int CELLS;
+
+    static {
+        int cells = 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        while (cells < processors * 2 && cells < MAX_CELLS) {
+            cells <<= 1;
+        }
+        CELLS = cells;
+    }
+
+    /**
+     * Cell i is at (i + 1) * PADDING, the padding at both ends keeps the
+     * cells off the lines of the array header and of other objects
+     */
+    private final AtomicLongArray cells = new AtomicLongArray((CELLS + 2) * PADDING);
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long x) {
+        cells.getAndAdd(index(), x);
+    }
+
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        int h = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+        return ((h & (CELLS - 1)) + 1) * PADDING;
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 1; i <= CELLS; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+}
@@ -11,7 +11,14 @@ import javax.servlet.http.HttpSession;
  * Every Controllers are responsible to set the {@link HttpSession} on the {@link ThreadLocal} instance
  * 
  * This class may go off if the session object is passed at a 2-3 level depth of method chain invocation
+ * 
+ * The map stays with the thread until {@link #clear()} is called, which pooled threads must do
+ * at the end of each request.
+ * 
+ * @deprecated use {@link RequestContext}, which is only attached to the thread while a request
+ *             is being handled
  */
+@Deprecated
 public class ThreadLocalUtils {
 
 	//private threadLocal 
@@ -55,10 +62,21 @@ public class ThreadLocalUtils {
 	 * @param key
 	 */
 	public static void remove(String key) {
-		if(((Map<String, Object>)threadLocal.get()).containsKey(key)){
-			((Map<String, Object>)threadLocal.get()).remove(key);
+		Map<String, Object> mapOfObjects = threadLocal.get();
+		if(mapOfObjects != null){
+			mapOfObjects.remove(key);
+			if(mapOfObjects.isEmpty()){
+				threadLocal.remove();
+			}
 		}
 	}
 	
+	/**
+	 * Remove all values, and the map holding them, from the current thread
+	 */
+	public static void clear() {
+		threadLocal.remove();
+	}
+	
 
 }
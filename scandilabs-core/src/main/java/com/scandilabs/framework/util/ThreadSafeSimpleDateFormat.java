@@ -7,6 +7,7 @@ import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 import java.util.TimeZone;
 
 /**
@@ -14,6 +15,10 @@ import java.util.TimeZone;
  * variables to ensure there is one instance of DateFormat per thread. To see
  * why this is useful, google 'SimpleDateFormat' and 'threadsafe'.
  * 
+ * Patterns a {@link CompiledDateFormat} understands are formatted and parsed
+ * by one, shared by all threads, unless a calendar or number format of its
+ * own has been set. SimpleDateFormat handles the rest, and lenient parsing.
+ * 
  * @author mkvalsvik
  * 
  */
@@ -26,9 +31,26 @@ public class ThreadSafeSimpleDateFormat extends DateFormat {
     private Calendar calendar;
     private NumberFormat numberFormat;
 
+    /**
+     * One SimpleDateFormat per thread and instance, the setters start over
+     * with new ones
+     */
+    private transient volatile ThreadLocal<SimpleDateFormat> threadLocal;
+
+    private transient volatile CompiledDateFormat compiled;
+
+    /**
+     * Whether compiled has been tried since the last change
+     */
+    private transient volatile boolean compiledTried;
+
     private DateFormat getThreadLocalDateFormat() {
-        String key = String.format("format-hash:%d", formatString.hashCode());
-        SimpleDateFormat df = (SimpleDateFormat) ThreadLocalUtils.get(key);
+        ThreadLocal<SimpleDateFormat> local = threadLocal;
+        if (local == null) {
+            local = new ThreadLocal<SimpleDateFormat>();
+            threadLocal = local;
+        }
+        SimpleDateFormat df = local.get();
         if (df == null) {
             df = new SimpleDateFormat(this.formatString);
             if (this.timeZone != null) {
@@ -41,11 +63,36 @@ public class ThreadSafeSimpleDateFormat extends DateFormat {
             if (this.numberFormat != null) {
                 df.setNumberFormat(this.numberFormat);
             }
-            ThreadLocalUtils.set(key, df);
+            local.set(df);
         }
         return df;
     }
 
+    /**
+     * @return the compiled format, or null if the pattern or settings need
+     *         SimpleDateFormat
+     */
+    private CompiledDateFormat getCompiledDateFormat() {
+        if (compiledTried) {
+            return compiled;
+        }
+        CompiledDateFormat format = null;
+        if (calendar == null && numberFormat == null && Calendar.getInstance() instanceof GregorianCalendar) {
+            try {
+                format = new CompiledDateFormat(formatString, timeZone != null ? timeZone : TimeZone.getDefault());
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        compiled = format;
+        compiledTried = true;
+        return format;
+    }
+
+    private void reset() {
+        threadLocal = null;
+        compiledTried = false;
+    }
+
     public ThreadSafeSimpleDateFormat(String formatString) {
         this.formatString = formatString;
     }
@@ -57,28 +104,67 @@ public class ThreadSafeSimpleDateFormat extends DateFormat {
 
     public StringBuffer format(Date date, StringBuffer toAppendTo,
             FieldPosition fieldPosition) {
+
+        // Compiled patterns have no era, so the era position SimpleDateFormat
+        // would report is 0, 0 as well
+        CompiledDateFormat format = getCompiledDateFormat();
+        if (format != null && fieldPosition.getField() == DateFormat.ERA_FIELD
+                && fieldPosition.getFieldAttribute() == null
+                && date.getTime() >= CompiledDateFormat.GREGORIAN_CUTOVER) {
+            fieldPosition.setBeginIndex(0);
+            fieldPosition.setEndIndex(0);
+            return toAppendTo.append(format.format(date.getTime()));
+        }
         return this.getThreadLocalDateFormat().format(date, toAppendTo,
                 fieldPosition);
     }
 
+    /**
+     * Formats without a Date, StringBuffer or String, straight into the
+     * builder where the pattern compiles
+     */
+    public void format(long millis, StringBuilder toAppendTo) {
+        CompiledDateFormat format = getCompiledDateFormat();
+        if (format != null && millis >= CompiledDateFormat.GREGORIAN_CUTOVER) {
+            format.format(millis, toAppendTo);
+        } else {
+            toAppendTo.append(this.getThreadLocalDateFormat().format(new Date(millis)));
+        }
+    }
+
     public Date parse(String source, ParsePosition pos) {
+        CompiledDateFormat format = getCompiledDateFormat();
+        if (format != null && !lenient) {
+            int errorIndex = pos.getErrorIndex();
+            long millis = format.parse(source, pos);
+            if (millis != Long.MIN_VALUE) {
+                return new Date(millis);
+            }
+
+            // Let SimpleDateFormat have a go, at two digit years for one
+            pos.setErrorIndex(errorIndex);
+        }
         return this.getThreadLocalDateFormat().parse(source, pos);
     }
 
     public void setTimeZone(TimeZone zone) {
         this.timeZone = zone;
+        reset();
     }
 
     public void setCalendar(Calendar newCalendar) {
         this.calendar = newCalendar;
+        reset();
     }
 
     public void setLenient(boolean lenient) {
         this.lenient = lenient;
+        reset();
     }
 
     public void setNumberFormat(NumberFormat newNumberFormat) {
         this.numberFormat = newNumberFormat;
+        reset();
     }
 
     public static ThreadSafeSimpleDateFormat ZULU_FORMAT = new ThreadSafeSimpleDateFormat(
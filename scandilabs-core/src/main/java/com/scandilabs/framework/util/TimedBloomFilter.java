@@ -0,0 +1,260 @@
+package com.scandilabs.framework.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The approximate counterpart of {@link TimedSet}, for suppressing duplicates
+ * among millions of keys per time window. It remembers keys in Bloom filters
+ * instead of a map, so its memory is fixed up front by the number of keys
+ * expected per window and the false positive rate, and does not grow with
+ * the keys actually added. The price is that contains() is sometimes true for
+ * a key that was never added (at about the given rate), and that keys cannot
+ * be listed or removed.
+ *
+ * Time is cut into generations of window / generations millis, and there is
+ * one Bloom filter for each of the last generations + 1 of them. Keys are
+ * added to the filter of the current generation and looked up in all of
+ * them, and the oldest filter is cleared and reused for each new generation.
+ * A key is therefore remembered for at least the window and at most one
+ * generation longer. More generations make that margin smaller, and cost a
+ * little more memory for the same false positive rate. Each filter is sized
+ * for its generation's share of the keys expected per window, so a burst of
+ * many more keys than that within one generation raises the false positive
+ * rate while it is in the window.
+ *
+ * Safe to share between threads without locking, except for the moment a new
+ * generation starts.
+ *
+ * @author mkvalsvik
+ *
+ */
+public class TimedBloomFilter<E> {
+
+    public static final int DEFAULT_GENERATIONS = 4;
+
+    private final long generationMillis;
+
+    /**
+     * One per live generation, each a bit array of bitsPerFilter bits
+     */
+    private final AtomicLongArray[] filters;
+
+    /**
+     * The generation each filter currently holds, -1 for none
+     */
+    private final long[] filterGenerations;
+
+    private final long bitsPerFilter;
+
+    private final int hashes;
+
+    private final double falsePositiveRate;
+
+    private final long windowMillis;
+
+    private volatile long currentGeneration;
+
+    public TimedBloomFilter(long windowMillis, long expectedKeysPerWindow, double falsePositiveRate) {
+        this(windowMillis, expectedKeysPerWindow, falsePositiveRate, DEFAULT_GENERATIONS);
+    }
+
+    /**
+     * @param expectedKeysPerWindow
+     *            the number of distinct keys added per window, more than that
+     *            raises the false positive rate
+     * @param falsePositiveRate
+     *            how often contains() may be true for a key that was not added
+     */
+    public TimedBloomFilter(long windowMillis, long expectedKeysPerWindow, double falsePositiveRate,
+            int generations) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        if (generations < 1 || windowMillis < generations) {
+            throw new IllegalArgumentException(String.format("Can not cut a window of %d ms into %d generations",
+                    windowMillis, generations));
+        }
+        int filterCount = generations + 1;
+
+        // A key not added is a false positive if any of the filters says yes,
+        // so each of them gets a share of the rate. Each filter holds the keys
+        // of one generation.
+        double rate = falsePositiveRate / filterCount;
+        double keys = Math.max(1.0, (double) expectedKeysPerWindow / generations);
+        long bits = (long) Math.ceil(-keys * Math.log(rate) / (Math.log(2) * Math.log(2)));
+        bits = Math.max(64, (bits + 63) / 64 * 64);
+        if (bits / 64 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many keys for a Bloom filter: " + expectedKeysPerWindow);
+        }
+        this.bitsPerFilter = bits;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / keys * Math.log(2)));
+        this.generationMillis = windowMillis / generations;
+        this.windowMillis = windowMillis;
+        this.falsePositiveRate = falsePositiveRate;
+        this.filters = new AtomicLongArray[filterCount];
+        this.filterGenerations = new long[filterCount];
+        for (int i = 0; i < filterCount; i++) {
+            filters[i] = new AtomicLongArray((int) (bits / 64));
+            filterGenerations[i] = -1;
+        }
+        this.currentGeneration = System.currentTimeMillis() / generationMillis;
+        filterGenerations[(int) (currentGeneration % filterCount)] = currentGeneration;
+    }
+
+    /**
+     * Adds the key unless it is there already, in which case it keeps its
+     * original time, like {@link TimedSet#add(Object)}
+     *
+     * @return true if the key was not there, false if it was or this is a
+     *         false positive
+     */
+    public boolean add(E key) {
+        return add(key, System.currentTimeMillis(), false);
+    }
+
+    /**
+     * Adds the key, or restarts its time if it is there already, like
+     * {@link TimedSet#addIfAbsent(Object)}
+     *
+     * @return true if the key was not there before
+     */
+    public boolean addIfAbsent(E key) {
+        return add(key, System.currentTimeMillis(), true);
+    }
+
+    boolean add(E key, long now, boolean refresh) {
+        long generation = advance(now);
+        long hash = hash(key);
+        if (contains(hash, generation)) {
+            if (refresh) {
+                set(hash, generation);
+            }
+            return false;
+        }
+        set(hash, generation);
+        return true;
+    }
+
+    public boolean contains(Object key) {
+        return contains(key, System.currentTimeMillis());
+    }
+
+    boolean contains(Object key, long now) {
+        return contains(hash(key), advance(now));
+    }
+
+    private boolean contains(long hash, long generation) {
+        for (int i = 0; i < filters.length; i++) {
+            if (filterGenerations[i] > generation - filters.length && isSet(filters[i], hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isSet(AtomicLongArray filter, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = index(h1 + i * h2);
+            if ((filter.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void set(long hash, long generation) {
+        AtomicLongArray filter = filters[(int) (generation % filters.length)];
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = index(h1 + i * h2);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            while (true) {
+                long bits = filter.get(word);
+                if ((bits & mask) != 0 || filter.compareAndSet(word, bits, bits | mask)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps a 32 bit hash onto the bits of a filter without a division
+     */
+    private long index(int hash) {
+        return ((hash & 0xFFFFFFFFL) * bitsPerFilter) >>> 32;
+    }
+
+    /**
+     * Two independent 32 bit hashes in one long, the filter's k hashes are
+     * combinations of them. Strings are hashed from their characters, other
+     * keys from their hash code, which may then collide more often.
+     */
+    private static long hash(Object key) {
+        if (key instanceof String) {
+            String s = (String) key;
+            return ((long) NumberUtils.murmurHash3(s, 0x9747B28C) << 32)
+                    | (NumberUtils.murmurHash3(s, 0) & 0xFFFFFFFFL);
+        }
+        long h = NumberUtils.mix64(key == null ? 0 : key.hashCode());
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * Starts the generation of the given time if it has not been started yet,
+     * clearing the filters of generations that have passed out of the window
+     *
+     * @return the current generation
+     */
+    private long advance(long now) {
+        long generation = now / generationMillis;
+        if (generation <= currentGeneration) {
+            return currentGeneration;
+        }
+        synchronized (this) {
+
+            // Another thread may have got here first with the same or a later
+            // time, clearing again would lose keys it has added since
+            if (generation <= currentGeneration) {
+                return currentGeneration;
+            }
+            long from = Math.max(currentGeneration + 1, generation - filters.length + 1);
+            for (long g = from; g <= generation; g++) {
+                int i = (int) (g % filters.length);
+
+                // The generation it held has left the window, threads still
+                // reading it only find keys older than the window in it
+                AtomicLongArray filter = filters[i];
+                for (int word = 0; word < filter.length(); word++) {
+                    filter.set(word, 0);
+                }
+                filterGenerations[i] = g;
+            }
+            currentGeneration = generation;
+        }
+        return generation;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * @return the bytes taken by the filters, which do not grow
+     */
+    public long getMemoryBytes() {
+        return bitsPerFilter / 8 * filters.length;
+    }
+
+    int getHashes() {
+        return hashes;
+    }
+
+}
@@ -2,123 +2,312 @@ package com.scandilabs.framework.util;
 
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A non-ordered cache that expires entries older than X millis. Backed by a
- * HashMap. Uses a timer thread to expire old entries.
+ * A non-ordered cache that expires entries older than X millis. Safe to share
+ * between threads without locking: entries live in a ConcurrentHashMap and
+ * each carries its insert time as an atomically updated long, so contains() is
+ * a map lookup plus a time check, and iterators are weakly consistent (they
+ * never throw ConcurrentModificationException and may or may not see changes
+ * made while iterating).
+ *
+ * Each entry is a timeout on the shared {@link TimingWheel}, which removes it
+ * shortly after it expires, so a TimedSet needs no thread of its own and never
+ * scans its entries.
  */
-public class TimedSet<E> implements Set<E> {
+public class TimedSet<E> implements Set<E>, CacheStatsProvider {
 
-    class ExpiryTask extends TimerTask {
+    /**
+     * Insert time of an entry that has been removed, it can not be refreshed
+     * anymore and has to be replaced by a new entry
+     */
+    private static final long REMOVED = Long.MIN_VALUE;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<Entry> INSERT_TIME = AtomicLongFieldUpdater.newUpdater(
+            Entry.class, "insertTime");
+
+    static class Entry<E> extends TimingWheel.Timeout {
+
+        private final TimedSet<E> set;
+
+        private final E value;
+
+        volatile long insertTime;
+
+        Entry(TimedSet<E> set, E value, long insertTime) {
+            this.set = set;
+            this.value = value;
+            this.insertTime = insertTime;
+        }
 
         @Override
-        public void run() {
-            removeAllExpired();
-        }        
+        protected void expire() {
+            set.removeExpired(this);
+        }
     }
-    
+
     private static Logger logger = LoggerFactory.getLogger(TimedSet.class
             .getName());
-    
-    private Timer timer;
 
-    private Map<E, Date> insertTimes = new HashMap<E, Date>();
-    
+    private final TimingWheel timingWheel;
+
+    private final ConcurrentMap<E, Entry<E>> entries = new ConcurrentHashMap<E, Entry<E>>();
+
+    private final StripedCounter hitCount = new StripedCounter();
+
+    private final StripedCounter missCount = new StripedCounter();
+
+    private final StripedCounter expirationCount = new StripedCounter();
+
     long timeToLiveMillis;
 
     public TimedSet(long timeToLiveMillis) {
+        this(timeToLiveMillis, TimingWheel.getShared());
+    }
+
+    TimedSet(long timeToLiveMillis, TimingWheel timingWheel) {
         this.timeToLiveMillis = timeToLiveMillis;
-        timer = new Timer(true);
-        timer.schedule(new ExpiryTask(), 1000, 1000);
+        this.timingWheel = timingWheel;
     }
 
     /**
-     * Add item to cache, after expiring old entries first
+     * Add item to cache, unless it is already there. An item that is already
+     * there keeps its original insert time.
      */
-    public synchronized boolean add(E entry) {
-        return addInternal(entry);
+    public boolean add(E entry) {
+        return addInternal(entry, System.currentTimeMillis(), false);
     }
 
-    public synchronized boolean addAll(Collection<? extends E> c) {
+    /**
+     * Add item to cache, or restart its time to live if it is already there.
+     * Either way the item is in the set for the next timeToLiveMillis.
+     *
+     * @return true if the item was not in the set before
+     */
+    public boolean addIfAbsent(E entry) {
+        return addInternal(entry, System.currentTimeMillis(), true);
+    }
+
+    public boolean addAll(Collection<? extends E> c) {
+        long now = System.currentTimeMillis();
         boolean changed = false;
         for (E entry : c) {
-            if (addInternal(entry)) {
+            if (addInternal(entry, now, false)) {
                 changed = true;
             }
         }
         return changed;
     }
 
-    private boolean addInternal(E entry) {
-        if (this.contains(entry)) {
-            return false;
+    private boolean addInternal(E value, long now, boolean refresh) {
+        while (true) {
+            Entry<E> existing = entries.get(value);
+            if (existing == null) {
+                Entry<E> entry = new Entry<E>(this, value, now);
+                if (entries.putIfAbsent(value, entry) == null) {
+                    timingWheel.schedule(entry, now + timeToLiveMillis + 1);
+                    return true;
+                }
+                continue;
+            }
+
+            long insertTime = existing.insertTime;
+            if (insertTime != REMOVED && !isExpired(insertTime, now)) {
+                if (!refresh || insertTime >= now) {
+                    return false;
+                }
+
+                // The timeout is left as it is, when it fires it finds the
+                // entry refreshed and schedules itself again
+                if (INSERT_TIME.compareAndSet(existing, insertTime, now)) {
+                    return false;
+                }
+                continue;
+            }
+
+            // Expired or removed but still in the map, replace it
+            if (markRemoved(existing)) {
+                timingWheel.cancel(existing);
+            }
+            Entry<E> entry = new Entry<E>(this, value, now);
+            if (entries.replace(value, existing, entry)) {
+                timingWheel.schedule(entry, now + timeToLiveMillis + 1);
+                return true;
+            }
         }
-        insertTimes.put(entry, new Date());
-        return true;
     }
-    
-    public void clear() {
-        insertTimes.clear();
+
+    /**
+     * @return true if this call marked the entry removed, false if it already
+     *         was
+     */
+    private boolean markRemoved(Entry<E> entry) {
+        while (true) {
+            long insertTime = entry.insertTime;
+            if (insertTime == REMOVED) {
+                return false;
+            }
+            if (INSERT_TIME.compareAndSet(entry, insertTime, REMOVED)) {
+                return true;
+            }
+        }
     }
-    
-    private void clear(E entry) {
-        insertTimes.remove(entry);
+
+    public void clear() {
+        for (E value : entries.keySet()) {
+            remove(value);
+        }
     }
 
-    public boolean contains(Object o) {        
-        boolean found = insertTimes.keySet().contains(o);
-        return found;
+    public boolean contains(Object o) {
+        Entry<E> entry = entries.get(o);
+        if (entry != null && isAlive(entry.insertTime, System.currentTimeMillis())) {
+            hitCount.increment();
+            return true;
+        }
+        missCount.increment();
+        return false;
     }
 
     public boolean containsAll(Collection<?> c) {
-        return insertTimes.keySet().containsAll(c);
+        for (Object o : c) {
+            if (!contains(o)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public boolean isEmpty() {
-        return insertTimes.isEmpty();
+        return entries.isEmpty();
     }
 
-    private boolean isExpired(E entry) {
-        Date insertTime = insertTimes.get(entry);
-        if (insertTime == null) {
-            return false;
-        }
-        if ((insertTime.getTime() + timeToLiveMillis) < System
-                .currentTimeMillis()) {
-            return true;
+    private boolean isExpired(long insertTime, long now) {
+        return (insertTime + timeToLiveMillis) < now;
+    }
+
+    private boolean isAlive(long insertTime, long now) {
+        return insertTime != REMOVED && !isExpired(insertTime, now);
+    }
+
+    /**
+     * Called by the timing wheel. The entry may have been removed, replaced or
+     * refreshed since it was scheduled.
+     */
+    private void removeExpired(Entry<E> entry) {
+        while (true) {
+            long insertTime = entry.insertTime;
+            if (insertTime == REMOVED) {
+                return;
+            }
+
+            // The wheel only calls once the deadline has passed
+            long now = Math.max(System.currentTimeMillis(), entry.getDeadline());
+            if (!isExpired(insertTime, now)) {
+                timingWheel.schedule(entry, insertTime + timeToLiveMillis + 1);
+                return;
+            }
+            if (INSERT_TIME.compareAndSet(entry, insertTime, REMOVED)) {
+                if (entries.remove(entry.value, entry)) {
+                    expirationCount.increment();
+                    logger.debug(String.format("Expired %s", entry.value));
+                }
+                return;
+            }
         }
-        return false;
     }
 
+    /**
+     * Weakly consistent iterator over the entries that have not expired,
+     * removing through the iterator removes from the set
+     */
     public Iterator<E> iterator() {
-        return insertTimes.keySet().iterator();
+        final Iterator<Map.Entry<E, Entry<E>>> iterator = entries.entrySet().iterator();
+        return new Iterator<E>() {
+
+            private E next;
+
+            private E current;
+
+            public boolean hasNext() {
+                long now = System.currentTimeMillis();
+                while (next == null && iterator.hasNext()) {
+                    Map.Entry<E, Entry<E>> candidate = iterator.next();
+                    if (isAlive(candidate.getValue().insertTime, now)) {
+                        next = candidate.getKey();
+                    }
+                }
+                return next != null;
+            }
+
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                next = null;
+                return current;
+            }
+
+            public void remove() {
+                if (current == null) {
+                    throw new IllegalStateException();
+                }
+                TimedSet.this.remove(current);
+                current = null;
+            }
+        };
     }
 
     public Date lastInsertTime(E entry) {
-        Date insertTime = insertTimes.get(entry);
-        return insertTime;
+        Entry<E> found = entries.get(entry);
+        if (found == null) {
+            return null;
+        }
+        long insertTime = found.insertTime;
+        if (insertTime == REMOVED) {
+            return null;
+        }
+        return new Date(insertTime);
     }
 
-    public synchronized boolean remove(Object o) {
+    /**
+     * @return true if the item was in the set and had not expired yet
+     */
+    public boolean remove(Object o) {
+        Entry<E> entry = entries.get(o);
+        if (entry == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
         boolean found = false;
-        if (this.contains(o)) {
-            found = true;
+        while (true) {
+            long insertTime = entry.insertTime;
+            if (insertTime == REMOVED) {
+                break;
+            }
+            if (INSERT_TIME.compareAndSet(entry, insertTime, REMOVED)) {
+                found = !isExpired(insertTime, now);
+                timingWheel.cancel(entry);
+                break;
+            }
         }
-        insertTimes.remove(o);
+        entries.remove(o, entry);
         return found;
     }
 
-    public synchronized boolean removeAll(Collection<?> c) {
+    public boolean removeAll(Collection<?> c) {
         boolean found = false;
         for (Object o : c) {
             if (this.remove(o)) {
@@ -128,36 +317,32 @@ public class TimedSet<E> implements Set<E> {
         return found;
     }
 
-    /**
-     * Removes all expired entries
-     */
-    private synchronized void removeAllExpired() {
-        Set<E> toRemove = new HashSet<E>();
-        for (E entry : insertTimes.keySet()) {
-            if (isExpired(entry)) {
-                toRemove.add(entry);                
-            }
-        }
-        for (E entry : toRemove) {
-            logger.debug(String.format("Expired %s", entry.toString()));
-            this.clear(entry);    
-        }
-    }
-    
     public boolean retainAll(Collection<?> c) {
         throw new UnsupportedOperationException();
-    }    
+    }
 
+    /**
+     * @return the number of entries, which may include some that expired
+     *         within the last tick of the timing wheel
+     */
     public int size() {
-        return insertTimes.size();
+        return entries.size();
+    }
+
+    /**
+     * Counts contains() calls as hits and misses, and entries removed by the
+     * timing wheel as expirations. A TimedSet neither loads nor evicts.
+     */
+    public CacheStats getStats() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), 0, 0, 0, 0, expirationCount.sum());
     }
 
     public Object[] toArray() {
-        return insertTimes.keySet().toArray();
+        return entries.keySet().toArray();
     }
 
     public <T> T[] toArray(T[] a) {
-        return insertTimes.keySet().toArray(a);
+        return entries.keySet().toArray(a);
     }
 
 }
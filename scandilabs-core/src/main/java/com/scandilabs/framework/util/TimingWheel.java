@@ -0,0 +1,487 @@
+package com.scandilabs.framework.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hierarchical timing wheel that runs timeouts on one daemon thread. Meant
+ * to be shared (see {@link #getShared()}) by everything that expires entries,
+ * such as {@link TimedSet} and {@link LRUCache}, instead of each of them
+ * running its own timer thread.
+ *
+ * Time is cut into ticks. The first level has one slot per tick for the next
+ * 256 ticks, each next level has slots 256 times as wide. A timeout goes into
+ * the slot of the lowest level that reaches its deadline, and is moved down a
+ * level whenever the wheel below it has turned all the way round. Scheduling,
+ * cancelling and expiring a timeout are all O(1), and a timeout never expires
+ * before its deadline, nor more than one tick after it (unless the thread
+ * running timeouts falls behind).
+ *
+ * Scheduling and cancelling take no lock, so threads of every cache sharing
+ * the wheel do not wait on each other. They change the state of the timeout
+ * and put it on a queue, and the wheel's thread moves queued timeouts into
+ * their slots before it processes ticks.
+ *
+ * Timeouts run on the wheel's thread, one after the other, so they should do
+ * little more than removing an entry from a map. The thread is started with
+ * the first timeout and sleeps until the next slot that holds timeouts comes
+ * round, without waking up for the empty ones in between.
+ *
+ * @author mkvalsvik
+ *
+ */
+public class TimingWheel {
+
+    /**
+     * Something that can be scheduled on a timing wheel, typically an entry of
+     * a cache which removes itself in {@link #expire()}. A timeout is
+     * scheduled on at most one wheel at a time.
+     */
+    public static abstract class Timeout {
+
+        volatile long deadline;
+
+        // Odd while scheduled, and counting up with every schedule and
+        // cancel so the wheel can tell whether a timeout changed since it
+        // was placed
+        volatile int state;
+
+        // 1 while on the submission queue
+        volatile int queued;
+
+        // The fields below are only used by the wheel's thread
+
+        int placedState;
+
+        long deadlineTick;
+
+        Timeout previous;
+
+        Timeout next;
+
+        /**
+         * Called on the wheel's thread once the deadline has passed, unless
+         * the timeout was cancelled or rescheduled first
+         */
+        protected abstract void expire();
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private static class Slot extends Timeout {
+
+        Slot() {
+            unlinked(this);
+        }
+
+        protected void expire() {
+        }
+    }
+
+    static final long DEFAULT_TICK_MILLIS = 10;
+
+    private static final int SLOT_BITS = 8;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private static final int LEVELS = 4;
+
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(
+            Timeout.class, "state");
+
+    private static final AtomicIntegerFieldUpdater<Timeout> QUEUED = AtomicIntegerFieldUpdater.newUpdater(
+            Timeout.class, "queued");
+
+    private static Logger logger = LoggerFactory.getLogger(TimingWheel.class);
+
+    private static TimingWheel shared;
+
+    private final long tickMillis;
+
+    private final Slot[][] slots = new Slot[LEVELS][SLOTS];
+
+    private final boolean runOwnThread;
+
+    private volatile Thread thread;
+
+    /**
+     * Timeouts scheduled or cancelled since the wheel's thread last looked
+     */
+    private final Queue<Timeout> submissions = new ConcurrentLinkedQueue<Timeout>();
+
+    /**
+     * When the wheel's thread is going to wake up next, Long.MAX_VALUE if
+     * not before a timeout is scheduled
+     */
+    private volatile long wakeUpMillis = Long.MAX_VALUE;
+
+    /**
+     * The next tick to process
+     */
+    private long currentTick;
+
+    /**
+     * Scheduled timeouts, including those still on the submission queue
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Timeouts in the slots of the wheel
+     */
+    private int placed;
+
+    /**
+     * @return the timing wheel shared by all timed collections in this JVM
+     */
+    public static synchronized TimingWheel getShared() {
+        if (shared == null) {
+            shared = new TimingWheel(DEFAULT_TICK_MILLIS);
+        }
+        return shared;
+    }
+
+    public TimingWheel(long tickMillis) {
+        this(tickMillis, true);
+    }
+
+    /**
+     * @param runOwnThread
+     *            false leaves it to the caller to {@link #advance(long)} the
+     *            wheel, which lets tests control time
+     */
+    TimingWheel(long tickMillis, boolean runOwnThread) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Tick must be at least one millisecond: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.runOwnThread = runOwnThread;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i = 0; i < SLOTS; i++) {
+                slots[level][i] = new Slot();
+            }
+        }
+        this.currentTick = tickOf(System.currentTimeMillis());
+    }
+
+    private static void unlinked(Timeout timeout) {
+        timeout.previous = timeout;
+        timeout.next = timeout;
+    }
+
+    /**
+     * @return the first tick at or after the given time
+     */
+    private long tickOf(long millis) {
+        return (millis + tickMillis - 1) / tickMillis;
+    }
+
+    /**
+     * Schedules the timeout to expire at the given time (in millis since the
+     * epoch), replacing any earlier schedule of the same timeout.
+     */
+    public void schedule(Timeout timeout, long deadline) {
+        timeout.deadline = deadline;
+        while (true) {
+            int state = timeout.state;
+            boolean scheduled = (state & 1) == 1;
+            if (STATE.compareAndSet(timeout, state, scheduled ? state + 2 : state + 1)) {
+                if (!scheduled) {
+                    pending.incrementAndGet();
+                }
+                break;
+            }
+        }
+        submit(timeout);
+        if (runOwnThread) {
+            Thread current = thread;
+            if (current == null) {
+                startThread();
+            } else if (deadline < wakeUpMillis) {
+                LockSupport.unpark(current);
+            }
+        }
+    }
+
+    private synchronized void startThread() {
+        if (thread == null) {
+            thread = new Thread("TimingWheel") {
+                public void run() {
+                    runTimeouts();
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * @return true if the timeout was scheduled and now is not
+     */
+    public boolean cancel(Timeout timeout) {
+        while (true) {
+            int state = timeout.state;
+            if ((state & 1) == 0) {
+                return false;
+            }
+            if (STATE.compareAndSet(timeout, state, state + 1)) {
+                pending.decrementAndGet();
+                submit(timeout);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Queues the timeout for the wheel's thread, unless it is queued already.
+     * The thread takes it off the queue before it reads its state, so it
+     * always gets to see the last change.
+     */
+    private void submit(Timeout timeout) {
+        if (QUEUED.compareAndSet(timeout, 0, 1)) {
+            submissions.add(timeout);
+        }
+    }
+
+    public boolean isScheduled(Timeout timeout) {
+        return (timeout.state & 1) == 1;
+    }
+
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private void insert(Timeout timeout) {
+        long delta = timeout.deadlineTick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+
+        // Deadlines beyond the last level wait in its farthest slot and are
+        // placed again when that slot comes round
+        long tick = timeout.deadlineTick;
+        long reach = 1L << (SLOT_BITS * LEVELS);
+        if (delta >= reach) {
+            tick = currentTick + reach - 1;
+        }
+        Slot slot = slots[level][(int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK)];
+        timeout.previous = slot.previous;
+        timeout.next = slot;
+        slot.previous.next = timeout;
+        slot.previous = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        timeout.previous.next = timeout.next;
+        timeout.next.previous = timeout.previous;
+        unlinked(timeout);
+    }
+
+    private static boolean isPlaced(Timeout timeout) {
+        return timeout.next != null && timeout.next != timeout;
+    }
+
+    /**
+     * Moves timeouts scheduled or cancelled since the last call into or out
+     * of their slots
+     */
+    private void takeSubmissions(long lastTick) {
+        if (placed == 0) {
+
+            // Nothing to process in between, skip the ticks the wheel has
+            // been idle for
+            currentTick = Math.max(currentTick, lastTick);
+        }
+        Timeout timeout;
+        while ((timeout = submissions.poll()) != null) {
+            QUEUED.set(timeout, 0);
+            int state = timeout.state;
+            if (isPlaced(timeout)) {
+                unlink(timeout);
+                placed--;
+            }
+            if ((state & 1) == 1) {
+                timeout.placedState = state;
+                timeout.deadlineTick = Math.max(tickOf(timeout.deadline), currentTick);
+                insert(timeout);
+                placed++;
+            }
+        }
+    }
+
+    /**
+     * @return the first tick from the current one on that has timeouts to
+     *         expire or to move down a level, or -1 if the wheel is empty
+     */
+    private long nextTickToProcess() {
+        if (placed == 0) {
+            return -1;
+        }
+        long next = -1;
+        for (int i = 0; i < SLOTS; i++) {
+            long tick = currentTick + i;
+            Slot slot = slots[0][(int) (tick & SLOT_MASK)];
+            if (slot.next != slot) {
+                next = tick;
+                break;
+            }
+        }
+
+        // A higher level slot is only emptied when the level below has
+        // turned round, on a tick that is a multiple of the level's width
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = SLOT_BITS * level;
+            long boundary = ((currentTick + (1L << shift) - 1) >>> shift) << shift;
+            if (next >= 0 && boundary >= next) {
+                break;
+            }
+            for (int i = 0; i < SLOTS; i++) {
+                long tick = boundary + ((long) i << shift);
+                if (next >= 0 && tick >= next) {
+                    break;
+                }
+                Slot slot = slots[level][(int) ((tick >>> shift) & SLOT_MASK)];
+                if (slot.next != slot) {
+                    next = tick;
+                    break;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return when the wheel's thread has to process the next tick with
+     *         timeouts, or Long.MAX_VALUE if there are none
+     */
+    synchronized long getNextTickMillis() {
+        long next = nextTickToProcess();
+        return next < 0 ? Long.MAX_VALUE : next * tickMillis;
+    }
+
+    /**
+     * Processes all ticks up to the given time, running the timeouts whose
+     * deadline has passed
+     *
+     * @return the number of timeouts run
+     */
+    int advance(long now) {
+        List<Timeout> expired = new ArrayList<Timeout>();
+        synchronized (this) {
+            long lastTick = now / tickMillis;
+            takeSubmissions(lastTick);
+
+            // Ticks without timeouts to expire or move are skipped, processing
+            // them would change nothing
+            long next = nextTickToProcess();
+            while (next >= 0 && next <= lastTick) {
+                currentTick = next;
+                processTick(expired);
+                currentTick++;
+                next = nextTickToProcess();
+            }
+            currentTick = Math.max(currentTick, lastTick + 1);
+        }
+        for (Timeout timeout : expired) {
+            try {
+                timeout.expire();
+            } catch (RuntimeException e) {
+                logger.error("Timeout failed to expire", e);
+            }
+        }
+        return expired.size();
+    }
+
+    private void processTick(List<Timeout> expired) {
+
+        // Move timeouts down from the higher levels once the level below has
+        // turned round, highest level first
+        int levels = 1;
+        while (levels < LEVELS && ((currentTick >>> (SLOT_BITS * levels)) << (SLOT_BITS * levels)) == currentTick) {
+            levels++;
+        }
+        for (int level = levels - 1; level >= 1; level--) {
+            Slot slot = slots[level][(int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK)];
+            Timeout timeout = detachAll(slot);
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                insert(timeout);
+                timeout = next;
+            }
+        }
+
+        Slot slot = slots[0][(int) (currentTick & SLOT_MASK)];
+        Timeout timeout = detachAll(slot);
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            unlinked(timeout);
+            placed--;
+
+            // Scheduled again or cancelled meanwhile, it is on the submission
+            // queue and taken from there
+            if (STATE.compareAndSet(timeout, timeout.placedState, timeout.placedState + 1)) {
+                pending.decrementAndGet();
+                expired.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Empties the slot
+     *
+     * @return the first of its timeouts, linked through next and ending with
+     *         null
+     */
+    private Timeout detachAll(Slot slot) {
+        if (slot.next == slot) {
+            return null;
+        }
+        Timeout first = slot.next;
+        slot.previous.next = null;
+        unlinked(slot);
+        return first;
+    }
+
+    private void runTimeouts() {
+        while (true) {
+            advance(System.currentTimeMillis());
+
+            // Published before looking at the queue, so a timeout submitted
+            // after that sees when the thread wakes up and unparks it if that
+            // is too late
+            wakeUpMillis = getNextTickMillis();
+            if (!submissions.isEmpty()) {
+                continue;
+            }
+            long wait = wakeUpMillis - System.currentTimeMillis();
+            if (wakeUpMillis == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else if (wait > 0) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wait));
+            }
+            if (Thread.interrupted()) {
+                logger.warn("Timing wheel thread interrupted, timeouts stop expiring");
+                return;
+            }
+        }
+    }
+
+}
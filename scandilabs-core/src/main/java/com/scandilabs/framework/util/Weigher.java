@@ -0,0 +1,18 @@
+package com.scandilabs.framework.util;
+
+/**
+ * Tells an {@link LRUCache} how much of its budget an entry takes, for
+ * instance the estimated number of bytes of the value
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public interface Weigher<K, V> {
+
+    /**
+     * @return the weight of the entry, 0 or more. Called once when the entry
+     *         is put, so the value should not change weight while cached.
+     */
+    int weigh(K key, V value);
+
+}
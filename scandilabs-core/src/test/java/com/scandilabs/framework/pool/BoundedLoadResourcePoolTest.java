@@ -0,0 +1,68 @@
+package com.scandilabs.framework.pool;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class BoundedLoadResourcePoolTest extends TestCase {
+
+    public void testLoadStaysBounded() {
+        
+        ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(8, 100);
+        BoundedLoadResourcePool bounded = new BoundedLoadResourcePool(pool, 0.25);
+        
+        // Skewed traffic, a few keys show up far more often than the rest
+        long[] unbounded = new long[pool.getSize()];
+        for (int i = 0; i < 20000; i++) {
+            String key = "full-id:" + (i % 7 == 0 ? i % 3 : i);
+            unbounded[pool.locateResource(key)]++;
+            bounded.acquire(key);
+        }
+        
+        SkewReport report = bounded.getSkewReport();
+        SkewReport unboundedReport = new SkewReport(unbounded, pool.getLoadShares());
+        System.out.println("unbounded: " + unboundedReport);
+        System.out.println("bounded:   " + report + ", spills " + bounded.getSpillCount());
+        assertEquals(20000, report.getTotalLoad());
+        assertTrue(report.getPeakToAverage() <= 1.25 + 0.001);
+        assertTrue(report.getPeakToAverage() < unboundedReport.getPeakToAverage());
+    }
+    
+    public void testRelease() {
+        
+        ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(4, 100);
+        BoundedLoadResourcePool bounded = new BoundedLoadResourcePool(pool, 0.5);
+        
+        int resource = bounded.acquire("abc");
+        assertEquals(pool.locateResource("abc"), resource);
+        assertEquals(1, bounded.getLoad(resource));
+        bounded.release(resource);
+        assertEquals(0, bounded.getLoad(resource));
+        assertEquals(0, bounded.getSkewReport().getTotalLoad());
+    }
+    
+    public void testDeterministicPlacement() {
+        
+        ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(8, 100);
+        Map<String, Long> keyLoads = new HashMap<String, Long>();
+        for (int i = 0; i < 1000; i++) {
+            keyLoads.put("full-id:" + i, 10L);
+        }
+        keyLoads.put("full-id:popular", 900L);
+        keyLoads.put("full-id:also-popular", 700L);
+        
+        BoundedLoadPlacement placement = new BoundedLoadPlacement(pool, 0.2, keyLoads);
+        BoundedLoadPlacement again = new BoundedLoadPlacement(pool, 0.2, new HashMap<String, Long>(keyLoads));
+        
+        System.out.println("unbounded: " + placement.getUnboundedSkewReport());
+        System.out.println("bounded:   " + placement.getSkewReport() + ", spilled " + placement.getSpilledKeys().size());
+        assertTrue(placement.getSkewReport().getPeakToAverage() <= 1.2 + 0.001);
+        assertTrue(placement.getSkewReport().getPeakToAverage() < placement.getUnboundedSkewReport().getPeakToAverage());
+        
+        for (String key : keyLoads.keySet()) {
+            assertEquals(placement.locateResource(key), again.locateResource(key));
+        }
+        assertEquals(pool.locateResource("unknown"), placement.locateResource("unknown"));
+    }
+}
@@ -1,6 +1,11 @@
 package com.scandilabs.framework.pool;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.scandilabs.framework.pool.ConsistentHashingResourcePool;
 
@@ -61,4 +66,229 @@ public class ConsistentHashingResourcePoolTest extends TestCase {
             System.out.println(pool.getBucketByIndex(i) + ": " + bucketCounts[i]);    
         }        
     }
+    
+    public void testBucketLookupMatchesBuckets() {
+        
+        ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(7);
+        
+        for (int i = 0; i < 10000; i++) {
+            int keyHashCode = pool.computeKeyHash("abcd:" + i + ":efgh");
+            int bucket = pool.locateResourceByKeyHash(keyHashCode);
+            assertTrue(pool.getBucketByIndex(bucket).isMatch(keyHashCode));
+        }
+        assertEquals(0, pool.locateResourceByKeyHash(0));
+        assertEquals(6, pool.locateResourceByKeyHash(ConsistentHashingResourcePool.MAX_HASH_VALUE));
+    }
+    
+    public void testRingPool() {
+        
+        ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(10, HashRing.DEFAULT_VIRTUAL_NODES_PER_RESOURCE);
+        assertTrue(pool.isRing());
+        assertEquals(10, pool.getSize());
+        
+        long[] bucketCounts = new long[pool.getSize()];
+        for (int i = 0; i < 100000; i++) {
+            String key = "abcd:" + i + ":efgh";
+            bucketCounts[pool.locateResource(key)]++;
+        }
+        
+        double[] ownership = pool.getRing().computeOwnership();
+        for (int i = 0; i < pool.getSize(); i++) {
+            System.out.println("resource " + i + ": " + bucketCounts[i] + " (owns " + ownership[i] + ")");
+            assertTrue(bucketCounts[i] > 7000 && bucketCounts[i] < 13000);
+        }
+    }
+    
+    public void testRingAddingResourceMovesFewKeys() {
+        
+        ConsistentHashingResourcePool before = new ConsistentHashingResourcePool(10, HashRing.DEFAULT_VIRTUAL_NODES_PER_RESOURCE);
+        ConsistentHashingResourcePool after = new ConsistentHashingResourcePool(11, HashRing.DEFAULT_VIRTUAL_NODES_PER_RESOURCE);
+        
+        int keys = 100000;
+        int moved = 0;
+        for (int i = 0; i < keys; i++) {
+            String key = "abcd:" + i + ":efgh";
+            int oldResource = before.locateResource(key);
+            int newResource = after.locateResource(key);
+            if (oldResource != newResource) {
+                
+                // Keys may only move to the new resource
+                assertEquals(10, newResource);
+                moved++;
+            }
+        }
+        System.out.println("moved " + moved + " of " + keys + " keys");
+        assertTrue(moved < keys / 11 * 1.3);
+    }
+    
+    public void testRingRemovingResourceByName() {
+        
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            names.add("solr" + i + ".example.com:8999");
+        }
+        ConsistentHashingResourcePool before = new ConsistentHashingResourcePool(names, 100);
+        names.remove(2);
+        ConsistentHashingResourcePool after = new ConsistentHashingResourcePool(names, 100);
+        
+        for (int i = 0; i < 10000; i++) {
+            String key = "abcd:" + i + ":efgh";
+            int oldResource = before.locateResource(key);
+            
+            // Keys of the surviving resources must stay where they are
+            if (oldResource != 2) {
+                String oldName = oldResource < 2 ? names.get(oldResource) : names.get(oldResource - 1);
+                assertEquals(oldName, names.get(after.locateResource(key)));
+            }
+        }
+    }
+    
+    public void testEqualWeightsKeepBucketLayout() {
+        
+        ConsistentHashingResourcePool plain = new ConsistentHashingResourcePool(3);
+        ConsistentHashingResourcePool weighted = new ConsistentHashingResourcePool(new double[] { 2.0, 2.0, 2.0 });
+        
+        for (int i = 0; i < 3; i++) {
+            assertEquals(plain.getBucketByIndex(i).toString(), weighted.getBucketByIndex(i).toString());
+        }
+    }
+    
+    public void testWeightedBuckets() {
+        
+        ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(new double[] { 1.0, 2.0, 1.0 });
+        
+        double[] shares = pool.getLoadShares();
+        assertEquals(0.25, shares[0], 0.001);
+        assertEquals(0.5, shares[1], 0.001);
+        assertEquals(0.25, shares[2], 0.001);
+        
+        long[] bucketCounts = new long[pool.getSize()];
+        for (int i = 0; i < 100000; i++) {
+            bucketCounts[pool.locateResource("abcd:" + i + ":efgh")]++;
+        }
+        for (int i = 0; i < pool.getSize(); i++) {
+            System.out.println(pool.getBucketByIndex(i) + ": " + bucketCounts[i]);
+            assertEquals(shares[i], bucketCounts[i] / 100000.0, 0.02);
+        }
+    }
+    
+    public void testWeightedRing() {
+        
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) {
+            names.add("solr" + i);
+        }
+        ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(names, new double[] { 1.0, 1.0, 1.0, 3.0 }, 200);
+        
+        double[] shares = pool.getLoadShares();
+        long[] counts = new long[pool.getSize()];
+        for (int i = 0; i < 100000; i++) {
+            counts[pool.locateResource("abcd:" + i + ":efgh")]++;
+        }
+        for (int i = 0; i < pool.getSize(); i++) {
+            System.out.println("resource " + i + " (weight " + pool.getWeight(i) + "): " + counts[i] + ", share " + shares[i]);
+            assertEquals(pool.getWeight(i) / 6.0, shares[i], 0.05);
+            assertEquals(shares[i], counts[i] / 100000.0, 0.02);
+        }
+    }
+    
+    public void testLocateResources() {
+        
+        ConsistentHashingResourcePool ring = new ConsistentHashingResourcePool(6, 100);
+        ConsistentHashingResourcePool buckets = new ConsistentHashingResourcePool(6);
+        int[] result = new int[3];
+        
+        for (int i = 0; i < 10000; i++) {
+            String key = "abcd:" + i + ":efgh";
+            int[] replicas = ring.locateResources(key, 3);
+            assertEquals(ring.locateResource(key), replicas[0]);
+            assertTrue(replicas[0] != replicas[1] && replicas[1] != replicas[2] && replicas[0] != replicas[2]);
+            
+            ring.locateResourcesByKeyHash(ring.computeKeyHash(key), result);
+            assertTrue(Arrays.equals(replicas, result));
+            
+            replicas = buckets.locateResources(key, 3);
+            assertEquals(buckets.locateResource(key), replicas[0]);
+            assertEquals((replicas[0] + 1) % 6, replicas[1]);
+        }
+        
+        // Asking for every resource returns each exactly once
+        int[] all = ring.locateResources("abc", 6);
+        Arrays.sort(all);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i, all[i]);
+        }
+    }
+    
+    public void testLocateResourcesSurvivesRemoval() {
+        
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            names.add("solr" + i);
+        }
+        ConsistentHashingResourcePool before = new ConsistentHashingResourcePool(names, 100);
+        List<String> remaining = new ArrayList<String>(names);
+        remaining.remove(0);
+        ConsistentHashingResourcePool after = new ConsistentHashingResourcePool(remaining, 100);
+        
+        // A key whose primary was removed is now served by its old second replica
+        for (int i = 0; i < 10000; i++) {
+            String key = "abcd:" + i + ":efgh";
+            int[] replicas = before.locateResources(key, 2);
+            if (replicas[0] == 0) {
+                assertEquals(names.get(replicas[1]), remaining.get(after.locateResource(key)));
+            }
+        }
+    }
+    
+    /**
+     * Both resources have their only virtual node on the same position, so
+     * the second one is not on the ring at all
+     */
+    public void testLocateResourcesWithResourceOffTheRing() {
+        HashRing ring = new HashRing(Arrays.asList("solr5775", "solr6302"), new int[] { 1, 1 });
+        assertEquals(1, ring.getSize());
+        int[] result = new int[2];
+        ring.locateResources(0, result);
+        assertEquals(0, result[0]);
+        assertEquals(1, result[1]);
+    }
+
+    public void testPartition() {
+        
+        ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(5, 100);
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 25000; i++) {
+            keys.add("abcd:" + i + ":efgh");
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            KeyPartition serial = pool.partition(keys);
+            KeyPartition parallel = pool.partition(keys, executor, 1000);
+            
+            int total = 0;
+            for (int r = 0; r < serial.getSize(); r++) {
+                total += serial.getCount(r);
+                assertTrue(Arrays.equals(serial.getKeys(r), parallel.getKeys(r)));
+                assertTrue(Arrays.equals(serial.getKeyHashes(r), parallel.getKeyHashes(r)));
+                for (int i = 0; i < serial.getCount(r); i++) {
+                    String key = serial.getKeys(r)[i];
+                    assertEquals(key, keys.get(serial.getIndexes(r)[i]));
+                    assertEquals(pool.computeKeyHash(key), serial.getKeyHashes(r)[i]);
+                    assertEquals(r, pool.locateResource(key));
+                }
+            }
+            assertEquals(keys.size(), total);
+
+            try {
+                pool.partition(keys, executor, 0);
+                fail("Partitioned in chunks of 0");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,155 @@
+package com.scandilabs.framework.pool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class PlacementStrategyTest extends TestCase {
+
+    private static final int KEYS = 100000;
+    
+    private static List<String> names(int n) {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            names.add("solr" + i);
+        }
+        return names;
+    }
+    
+    private static PlacementStrategy create(String type, int n) {
+        if (type.equals("range")) {
+            return new RangePlacementStrategy(n);
+        }
+        if (type.equals("ring")) {
+            return new HashRing(names(n), HashRing.DEFAULT_VIRTUAL_NODES_PER_RESOURCE);
+        }
+        if (type.equals("jump")) {
+            return new JumpHashPlacementStrategy(n);
+        }
+        return new RendezvousPlacementStrategy(names(n));
+    }
+    
+    /**
+     * Prints spread and remap ratio when growing from n to n+1 resources
+     */
+    public void testCompareStrategies() {
+        
+        String[] types = { "range", "ring", "jump", "rendezvous" };
+        int[] sizes = { 4, 16, 64 };
+        for (String type : types) {
+            for (int n : sizes) {
+                ConsistentHashingResourcePool before = new ConsistentHashingResourcePool(create(type, n));
+                ConsistentHashingResourcePool after = new ConsistentHashingResourcePool(create(type, n + 1));
+                
+                long[] counts = new long[n];
+                int moved = 0;
+                for (int i = 0; i < KEYS; i++) {
+                    int keyHashCode = before.computeKeyHash("abcd:" + i + ":efgh");
+                    int resource = before.locateResourceByKeyHash(keyHashCode);
+                    counts[resource]++;
+                    if (resource != after.locateResourceByKeyHash(keyHashCode)) {
+                        moved++;
+                    }
+                }
+                long max = 0;
+                for (int i = 0; i < n; i++) {
+                    max = Math.max(max, counts[i]);
+                }
+                double peakToAverage = max / ((double) KEYS / n);
+                double remapRatio = (double) moved / KEYS;
+                System.out.println(String.format("%-10s n=%-3d peak/avg %.3f, remapped %.3f (ideal %.3f)", type, n,
+                        peakToAverage, remapRatio, 1.0 / (n + 1)));
+                
+                if (!type.equals("range")) {
+                    assertTrue(remapRatio < 1.5 / (n + 1));
+                }
+            }
+        }
+    }
+    
+    public void testJumpHashGrowsOntoNewResource() {
+        
+        JumpHashPlacementStrategy before = new JumpHashPlacementStrategy(10);
+        JumpHashPlacementStrategy after = new JumpHashPlacementStrategy(11);
+        for (int h = 0; h < 100000; h++) {
+            int from = before.locateResource(h);
+            int to = after.locateResource(h);
+            assertTrue(from == to || to == 10);
+        }
+    }
+    
+    public void testReplicas() {
+        
+        PlacementStrategy[] strategies = { create("jump", 8), create("rendezvous", 8) };
+        int[] result = new int[3];
+        for (PlacementStrategy strategy : strategies) {
+            for (int h = 0; h < 10000; h++) {
+                strategy.locateResources(h, result);
+                assertEquals(strategy.locateResource(h), result[0]);
+                assertTrue(result[0] != result[1] && result[1] != result[2] && result[0] != result[2]);
+            }
+            int[] all = new int[8];
+            strategy.locateResources(12345, all);
+            boolean[] seen = new boolean[8];
+            for (int i = 0; i < all.length; i++) {
+                assertFalse(seen[all[i]]);
+                seen[all[i]] = true;
+            }
+        }
+    }
+    
+    public void testJumpHashAllReplicas() {
+        for (int n : new int[] { 1, 3, 8, 64, 1024 }) {
+            PlacementStrategy strategy = create("jump", n);
+            int[] all = new int[n];
+            for (int h = 0; h < 20; h++) {
+                strategy.locateResources(h, all);
+                assertEquals(strategy.locateResource(h), all[0]);
+                boolean[] seen = new boolean[n];
+                for (int i = 0; i < n; i++) {
+                    assertFalse(seen[all[i]]);
+                    seen[all[i]] = true;
+                }
+            }
+        }
+    }
+    
+    public void testRendezvousRemovalMovesToSecondChoice() {
+        
+        List<String> names = names(6);
+        RendezvousPlacementStrategy before = new RendezvousPlacementStrategy(names);
+        List<String> remaining = new ArrayList<String>(names);
+        remaining.remove(3);
+        RendezvousPlacementStrategy after = new RendezvousPlacementStrategy(remaining);
+        
+        int[] top2 = new int[2];
+        for (int h = 0; h < 10000; h++) {
+            before.locateResources(h, top2);
+            String expected = names.get(top2[0] == 3 ? top2[1] : top2[0]);
+            assertEquals(expected, remaining.get(after.locateResource(h)));
+        }
+    }
+    
+    public void testWeightedRendezvous() {
+        
+        RendezvousPlacementStrategy strategy = new RendezvousPlacementStrategy(names(3), new double[] { 1.0, 1.0, 2.0 });
+        long[] counts = new long[3];
+        for (int h = 0; h < 100000; h++) {
+            counts[strategy.locateResource(h)]++;
+        }
+        assertEquals(0.25, counts[0] / 100000.0, 0.02);
+        assertEquals(0.5, counts[2] / 100000.0, 0.02);
+    }
+    
+    public void testRebalancePlanWithoutRanges() {
+        
+        ConsistentHashingResourcePool before = new ConsistentHashingResourcePool(new JumpHashPlacementStrategy(4));
+        ConsistentHashingResourcePool after = new ConsistentHashingResourcePool(new JumpHashPlacementStrategy(5));
+        RebalancePlan plan = new RebalancePlan(before, after);
+        assertEquals(0.2, plan.getMovedFraction(), 0.01);
+        for (int h = 0; h < 100000; h += 7) {
+            assertEquals(before.locateResourceByKeyHash(h) != after.locateResourceByKeyHash(h), plan.locateMove(h) != null);
+        }
+    }
+}
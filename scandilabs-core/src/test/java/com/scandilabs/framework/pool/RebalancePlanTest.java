@@ -0,0 +1,66 @@
+package com.scandilabs.framework.pool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class RebalancePlanTest extends TestCase {
+
+    public void testRingPlanMatchesLookups() {
+        
+        ConsistentHashingResourcePool oldPool = new ConsistentHashingResourcePool(4, 100);
+        ConsistentHashingResourcePool newPool = new ConsistentHashingResourcePool(5, 100);
+        RebalancePlan plan = new RebalancePlan(oldPool, newPool);
+        
+        System.out.println(plan.getMoves().size() + " ranges, moving " + plan.getMovedFraction());
+        assertEquals(0.2, plan.getMovedFraction(), 0.05);
+        for (RangeMove move : plan.getMoves()) {
+            
+            // Adding a resource only moves keys onto it
+            assertEquals(4, move.getToResource());
+        }
+        
+        for (int i = 0; i < 50000; i++) {
+            int keyHashCode = oldPool.computeKeyHash("abcd:" + i + ":efgh");
+            int from = oldPool.locateResourceByKeyHash(keyHashCode);
+            int to = newPool.locateResourceByKeyHash(keyHashCode);
+            RangeMove move = plan.locateMove(keyHashCode);
+            if (from == to) {
+                assertNull(move);
+            } else {
+                assertNotNull(move);
+                assertEquals(from, move.getFromResource());
+                assertEquals(to, move.getToResource());
+            }
+        }
+    }
+    
+    public void testBucketPlan() {
+        
+        ConsistentHashingResourcePool oldPool = new ConsistentHashingResourcePool(2);
+        ConsistentHashingResourcePool newPool = new ConsistentHashingResourcePool(new double[] { 1.0, 1.0, 2.0 });
+        RebalancePlan plan = new RebalancePlan(oldPool, newPool);
+        
+        List<String> moves = new ArrayList<String>();
+        for (RangeMove move : plan.getMoves()) {
+            moves.add(move.toString());
+        }
+        System.out.println(moves);
+        
+        // Old buckets split at 2^23, new ones at 2^22 and 2^23
+        assertEquals(2, plan.getMoves().size());
+        assertEquals(1 << 22, plan.getMoves().get(0).getLowerLimit());
+        assertEquals(0, plan.getMoves().get(0).getFromResource());
+        assertEquals(1, plan.getMoves().get(0).getToResource());
+        assertEquals(1, plan.getMovesFrom(1).size());
+        assertEquals(0.75, plan.getMovedFraction(), 0.001);
+    }
+    
+    public void testSameLayoutMovesNothing() {
+        
+        RebalancePlan plan = new RebalancePlan(new ConsistentHashingResourcePool(3, 50), new ConsistentHashingResourcePool(3, 50));
+        assertTrue(plan.getMoves().isEmpty());
+        assertEquals(-1, plan.indexOfMove(12345));
+    }
+}
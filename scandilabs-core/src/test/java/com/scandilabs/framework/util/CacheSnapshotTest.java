@@ -0,0 +1,180 @@
+package com.scandilabs.framework.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class CacheSnapshotTest extends TestCase {
+
+    private File file;
+
+    protected void setUp() throws IOException {
+        file = File.createTempFile("cache", ".snapshot");
+        file.delete();
+    }
+
+    protected void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Returns the key in upper case and counts its calls
+     */
+    private static class UpperCaseLoader implements CacheLoader<String, String> {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        public String load(String key) {
+            calls.incrementAndGet();
+            return key.toUpperCase();
+        }
+    }
+
+    public void testHottestFirst() {
+        LRUCache<String, String> cache = new LRUCache<String, String>(100, 60000, 1);
+        for (int i = 0; i < 10; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        cache.get("key3");
+        Iterator<String> hottest = cache.getHottest(3).keySet().iterator();
+        assertEquals("key3", hottest.next());
+        assertEquals("key9", hottest.next());
+        assertEquals("key8", hottest.next());
+        assertFalse(hottest.hasNext());
+        assertEquals(10, cache.getHottest(100).size());
+    }
+
+    public void testKeysOnly() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<String, String>(1000, 60000);
+        for (int i = 0; i < 500; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        CacheSnapshot<String, String> snapshot = new CacheSnapshot<String, String>(cache, file, 100,
+                new StringSerializer(), null);
+        assertEquals(0, snapshot.read().size());
+        assertEquals(100, snapshot.save());
+
+        Map<String, String> saved = snapshot.read();
+        assertEquals(100, saved.size());
+        assertTrue(saved.containsKey("key499"));
+        assertNull(saved.get("key499"));
+
+        // Warming up a new cache loads each key, no faster than asked
+        LRUCache<String, String> restarted = new LRUCache<String, String>(1000, 60000);
+        UpperCaseLoader loader = new UpperCaseLoader();
+        long start = System.currentTimeMillis();
+        assertEquals(100, new CacheSnapshot<String, String>(restarted, file, 100, new StringSerializer(), null)
+                .warm(loader, 500));
+        long millis = System.currentTimeMillis() - start;
+        System.out.println(String.format("Warmed up 100 entries at 500/s in %d ms", millis));
+        assertTrue(millis >= 180);
+        assertEquals(100, loader.calls.get());
+        assertEquals("KEY499", restarted.get("key499"));
+    }
+
+    public void testValues() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<String, String>(1000, 60000);
+        for (int i = 0; i < 500; i++) {
+            cache.put("key" + i, i % 2 == 0 ? "value" + i : new String(new char[100000]));
+        }
+        new CacheSnapshot<String, String>(cache, file, 1000, new StringSerializer(), new StringSerializer()).save();
+
+        // Saved values go back in without the loader
+        LRUCache<String, String> restarted = new LRUCache<String, String>(1000, 60000);
+        restarted.put("key0", "newer");
+        UpperCaseLoader loader = new UpperCaseLoader();
+        CacheSnapshot<String, String> snapshot = new CacheSnapshot<String, String>(restarted, file, 1000,
+                new StringSerializer(), new StringSerializer());
+        assertEquals(499, snapshot.warm(loader, 10));
+        assertEquals(0, loader.calls.get());
+        assertEquals("newer", restarted.get("key0"));
+        assertEquals("value2", restarted.get("key2"));
+        assertEquals(100000, restarted.get("key1").length());
+    }
+
+    public void testValuesOlderThanTimeToLive() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<String, String>(100, 50);
+        cache.put("a", "old");
+        new CacheSnapshot<String, String>(cache, file, 100, new StringSerializer(), new StringSerializer()).save();
+        Thread.sleep(100);
+
+        LRUCache<String, String> restarted = new LRUCache<String, String>(100, 50);
+        UpperCaseLoader loader = new UpperCaseLoader();
+        new CacheSnapshot<String, String>(restarted, file, 100, new StringSerializer(), new StringSerializer())
+                .warm(loader, 1000);
+        assertEquals("A", restarted.get("a"));
+    }
+
+    public void testValuesKeepTheirInsertTime() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<String, String>(100, 200);
+        cache.put("a", "1");
+        Thread.sleep(120);
+        cache.put("b", "2");
+        new CacheSnapshot<String, String>(cache, file, 100, new StringSerializer(), new StringSerializer()).save();
+
+        // Restored with what was left of their time to live, not a new one
+        LRUCache<String, String> restarted = new LRUCache<String, String>(100, 200);
+        UpperCaseLoader loader = new UpperCaseLoader();
+        assertEquals(2, new CacheSnapshot<String, String>(restarted, file, 100, new StringSerializer(),
+                new StringSerializer()).warm(loader, 1000));
+        assertEquals(0, loader.calls.get());
+        Thread.sleep(120);
+        assertNull(restarted.get("a"));
+        assertEquals("2", restarted.get("b"));
+    }
+
+    public void testWarmingCountsNoMisses() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<String, String>(100, 60000);
+        for (int i = 0; i < 10; i++) {
+            cache.put("key" + i, "value" + i);
+        }
+        new CacheSnapshot<String, String>(cache, file, 100, new StringSerializer(), null).save();
+
+        LRUCache<String, String> restarted = new LRUCache<String, String>(100, 60000);
+        restarted.put("key0", "newer");
+        assertEquals(9, new CacheSnapshot<String, String>(restarted, file, 100, new StringSerializer(), null)
+                .warm(new UpperCaseLoader(), 1000));
+        assertEquals(0, restarted.getStats().getRequestCount());
+        assertEquals("newer", restarted.get("key0"));
+    }
+
+    public void testWarmingInBackgroundAndSavingPeriodically() throws Exception {
+        LRUCache<String, String> cache = new LRUCache<String, String>(100, 60000);
+        cache.put("a", "1");
+        CacheSnapshot<String, String> snapshot = new CacheSnapshot<String, String>(cache, file, 100,
+                new StringSerializer(), null);
+        snapshot.save();
+        cache.put("b", "2");
+
+        LRUCache<String, String> restarted = new LRUCache<String, String>(100, 60000);
+        new CacheSnapshot<String, String>(restarted, file, 100, new StringSerializer(), null).startWarming(
+                new UpperCaseLoader(), 100).join(5000);
+        assertEquals("A", restarted.get("a"));
+        assertNull(restarted.get("b"));
+
+        snapshot.start(10);
+        Thread.sleep(100);
+        cache.put("c", "3");
+        snapshot.stop();
+        assertEquals(3, snapshot.read().size());
+    }
+
+    public void testNotASnapshot() throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write("something else altogether");
+        writer.close();
+        try {
+            new CacheSnapshot<String, String>(new LRUCache<String, String>(10, 60000), file, 10,
+                    new StringSerializer(), null).read();
+            fail();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+}
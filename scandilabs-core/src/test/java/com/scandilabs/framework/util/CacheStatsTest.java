@@ -0,0 +1,125 @@
+package com.scandilabs.framework.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+public class CacheStatsTest extends TestCase {
+
+    public void testStripedCounter() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        counter.add(-5);
+        assertEquals(800000 - 5, counter.sum());
+    }
+
+    public void testLRUCache() {
+        LRUCache<String, Integer> cache = new LRUCache<String, Integer>(2, 60000);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.get("a");
+        cache.get("c");
+        cache.put("c", 3);
+        CacheStats stats = cache.getStats();
+        System.out.println(stats);
+        assertEquals(2, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(2.0 / 3, stats.getHitRate(), 0.0001);
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(0, stats.getExpirationCount());
+        assertEquals(0, stats.getLoadCount());
+
+        cache.get("b");
+        CacheStats interval = cache.getStats().minus(stats);
+        assertEquals(0, interval.getHitCount());
+        assertEquals(1, interval.getMissCount());
+    }
+
+    public void testExpirations() {
+        TimingWheel wheel = new TimingWheel(10, false);
+        TimedSet<String> set = new TimedSet<String>(100, wheel);
+        LRUCache<String, String> cache = new LRUCache<String, String>(10, 100, 1, EvictionPolicy.LRU, wheel);
+        set.add("a");
+        set.add("b");
+        cache.put("a", "1");
+        assertTrue(set.contains("a"));
+        assertFalse(set.contains("c"));
+        long later = System.currentTimeMillis() + 1000;
+        while (wheel.getPendingCount() > 0) {
+            wheel.advance(later);
+            later += 1000;
+        }
+        CacheStats stats = set.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(2, stats.getExpirationCount());
+        assertEquals(1, cache.getStats().getExpirationCount());
+    }
+
+    public void testLoadingCache() {
+        LoadingCache<String, String> cache = new LoadingCache<String, String>(new CacheLoader<String, String>() {
+            public String load(String key) throws Exception {
+                if (key.equals("bad")) {
+                    throw new IllegalArgumentException(key);
+                }
+                Thread.sleep(5);
+                return key;
+            }
+        }, 100, 60000);
+        cache.get("a");
+        cache.get("a");
+        cache.getIfPresent("b");
+        try {
+            cache.get("bad");
+            fail();
+        } catch (CacheLoadingException e) {
+        }
+        CacheStats stats = cache.getStats();
+        System.out.println(stats);
+        assertEquals(1, stats.getHitCount());
+        assertEquals(3, stats.getMissCount());
+        assertEquals(1, stats.getLoadSuccessCount());
+        assertEquals(1, stats.getLoadFailureCount());
+        assertTrue(stats.getAverageLoadPenalty() >= 2500000);
+    }
+
+    public void testMonitor() throws Exception {
+        LRUCache<String, Integer> cache = new LRUCache<String, Integer>(10, 60000);
+        cache.put("a", 1);
+        cache.get("a");
+        cache.get("b");
+        ObjectName name = CacheMonitor.register("test cache", cache);
+        try {
+            assertEquals("com.scandilabs.framework:type=Cache,name=\"test cache\"", name.toString());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(1, server.getAttribute(name, "Size"));
+            assertEquals(1L, server.getAttribute(name, "HitCount"));
+            assertEquals(0.5, server.getAttribute(name, "HitRate"));
+
+            // Registering again replaces the cache
+            CacheMonitor.register("test cache", new LRUCache<String, Integer>(10, 60000));
+            assertEquals(0L, server.getAttribute(name, "HitCount"));
+        } finally {
+            CacheMonitor.unregister("test cache");
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.scandilabs.framework.util;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+import junit.framework.TestCase;
+
+public class ClassUtilsTest extends TestCase {
+
+    // Arrays.asList of classes makes a generic array
+    @SuppressWarnings("unchecked")
+    public void testIsInstanceOf() {
+        assertTrue(ClassUtils.isInstanceOf(ArrayList.class, ArrayList.class));
+        assertTrue(ClassUtils.isInstanceOf(ArrayList.class, AbstractList.class));
+        assertTrue(ClassUtils.isInstanceOf(ArrayList.class, Collection.class));
+        assertTrue(ClassUtils.isInstanceOf(ArrayList.class, Iterable.class));
+        assertTrue(ClassUtils.isInstanceOf(ArrayList.class, RandomAccess.class));
+        assertTrue(ClassUtils.isInstanceOf(ArrayList.class, Object.class));
+        assertTrue(ClassUtils.isInstanceOf(List.class, Iterable.class));
+        assertFalse(ClassUtils.isInstanceOf(Collection.class, List.class));
+        assertFalse(ClassUtils.isInstanceOf(String.class, List.class));
+        assertTrue(ClassUtils.isInstanceOf(String.class, "java.io.Serializable"));
+        assertTrue(ClassUtils.isInstanceOf(String.class, Arrays.asList(List.class, Serializable.class)));
+        assertFalse(ClassUtils.isInstanceOf(String.class, Arrays.asList(String.class), true));
+        assertTrue(ClassUtils.isInstanceOf((Class<?>) null, (Class<?>) null));
+        assertFalse(ClassUtils.isInstanceOf(String.class, (Class<?>) null));
+
+        // The same answers again from the cache
+        for (int i = 0; i < 2; i++) {
+            assertTrue(ClassUtils.isInstanceOf(ArrayList.class, Serializable.class));
+            assertFalse(ClassUtils.isInstanceOf(Collection.class, List.class));
+        }
+    }
+
+    public void testToClass() {
+        assertSame(String.class, ClassUtils.toClass(" java.lang.String "));
+        assertSame(String.class, ClassUtils.toClass("java.lang.String"));
+        for (int i = 0; i < 2; i++) {
+            try {
+                ClassUtils.toClass("com.scandilabs.NoSuchClass");
+                fail();
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+
+        // Each context class loader has names of its own
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(new ClassLoader(loader) {
+        });
+        try {
+            assertSame(List.class, ClassUtils.toClass("java.util.List"));
+        } finally {
+            Thread.currentThread().setContextClassLoader(loader);
+        }
+    }
+
+}
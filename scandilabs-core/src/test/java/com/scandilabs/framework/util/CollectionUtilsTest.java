@@ -0,0 +1,57 @@
+package com.scandilabs.framework.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class CollectionUtilsTest extends TestCase {
+
+    private static List<Map<String, Object>> rows(int count, int categories) {
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put("id", Integer.valueOf(i));
+            row.put("category", i % 7 == 0 ? "" : "category" + (i * 31 % categories));
+            row.put("active", Boolean.valueOf(i % 2 == 0));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    public void testFirstSeenOrder() {
+        List<Map<String, Object>> rows = rows(20, 5);
+        List<?> categories = CollectionUtils.extractUniquePropertyList(rows, "category");
+        assertEquals(Arrays.asList("category1", "category2", "category3", "category4", "category0"), categories);
+        assertEquals(categories, CollectionUtils.extractStringList(rows, "category"));
+
+        // Values seen first on rows that do not match still count later
+        Map<String, Object> criteria = new HashMap<String, Object>();
+        criteria.put("active", Boolean.TRUE);
+        assertEquals(Arrays.asList("category2", "category4", "category1", "category3", "category0"),
+                CollectionUtils.extractUniquePropertyList(rows, "category", criteria));
+    }
+
+    public void testSubtractByString() {
+        Collection<?> result = CollectionUtils.subtractByString(Arrays.asList("a", "b", "c", "b", "d"), Arrays
+                .asList("b", "d", "e"));
+        assertEquals(Arrays.asList("a", "c"), result);
+    }
+
+    public void testLargeLists() {
+        List<Map<String, Object>> rows = rows(50000, 50000);
+        List<Object> ids = new ArrayList<Object>();
+        for (Map<String, Object> row : rows) {
+            ids.add(row.get("id"));
+        }
+        List<?> categories = CollectionUtils.extractUniquePropertyList(rows, "category");
+        Collection<?> remaining = CollectionUtils.subtractByString(ids, ids.subList(0, 25000));
+        assertEquals(42857, categories.size());
+        assertEquals(25000, remaining.size());
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.scandilabs.framework.util;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+public class CompiledDateFormatTest extends TestCase {
+
+    private static final String[] PATTERNS = { "yyyy-MM-dd'T'HH:mm:ss'Z'", "yyyy-MM-dd HH:mm:ss.SSS",
+            "EEE, d MMM yyyy HH:mm:ss Z", "EEEE MMMM dd, yyyy h:mm a", "yy/M/d K:m:s", "yyyyMMddHHmmssSSS",
+            "''yyyy'' 'at' kk:mm XXX", "dd.MM.yyyy X", "hh 'o''clock' a, S" };
+
+    private static final String[] ZONES = { "GMT", "America/New_York", "Europe/Oslo", "Asia/Kolkata",
+            "Australia/Lord_Howe" };
+
+    public void testFormatsLikeSimpleDateFormat() {
+        Random random = new Random(42);
+        for (String pattern : PATTERNS) {
+            for (String zone : ZONES) {
+                TimeZone timeZone = TimeZone.getTimeZone(zone);
+                CompiledDateFormat compiled = new CompiledDateFormat(pattern, timeZone, Locale.US);
+                SimpleDateFormat simple = new SimpleDateFormat(pattern, Locale.US);
+                simple.setTimeZone(timeZone);
+                for (int i = 0; i < 2000; i++) {
+
+                    // From 1583 to 2200, then the same second again
+                    long millis = CompiledDateFormat.GREGORIAN_CUTOVER + 1000L * 86400 * 366
+                            + (long) (random.nextDouble() * 19500000000000L);
+                    assertEquals(pattern, simple.format(new Date(millis)), compiled.format(millis));
+                    StringBuilder builder = new StringBuilder("at ");
+                    compiled.format(millis, builder);
+                    assertEquals("at " + simple.format(new Date(millis)), builder.toString());
+                }
+            }
+        }
+    }
+
+    public void testFormatsIntoArray() {
+        CompiledDateFormat format = CompiledDateFormat.ZULU;
+        char[] text = new char[format.getMaxLength() + 2];
+        int end = format.format(1262304000123L, text, 2);
+        assertEquals("2010-01-01T00:00:00Z", new String(text, 2, end - 2));
+
+        // Same second from the cache, then the next
+        assertEquals("2010-01-01T00:00:00Z", format.format(1262304000999L));
+        assertEquals("2010-01-01T00:00:01Z", format.format(1262304001000L));
+        assertEquals("1969-12-31T23:59:59Z", format.format(-1L));
+    }
+
+    public void testParse() {
+        Random random = new Random(7);
+        String[] patterns = { "yyyy-MM-dd'T'HH:mm:ss'Z'", "yyyy-MM-dd HH:mm:ss.SSS", "EEE, d MMM yyyy HH:mm:ss Z",
+                "EEEE MMMM dd, yyyy h:mm a", "yyyyMMddHHmmssSSS", "dd.MM.yyyy X" };
+        for (String pattern : patterns) {
+            for (String zone : ZONES) {
+                TimeZone timeZone = TimeZone.getTimeZone(zone);
+                CompiledDateFormat compiled = new CompiledDateFormat(pattern, timeZone, Locale.US);
+                SimpleDateFormat simple = new SimpleDateFormat(pattern, Locale.US);
+                simple.setTimeZone(timeZone);
+                for (int i = 0; i < 2000; i++) {
+                    long millis = (long) (random.nextDouble() * 4000000000000L);
+                    String text = simple.format(new Date(millis));
+                    assertEquals(pattern + " " + text, simple.parse(text, new ParsePosition(0)).getTime(), compiled
+                            .parse(text));
+                }
+            }
+        }
+    }
+
+    public void testParseIsStrict() {
+        CompiledDateFormat format = new CompiledDateFormat("yyyy-MM-dd HH:mm", TimeZone.getTimeZone("GMT"));
+        assertEquals(1262304000000L, format.parse("2010-01-01 00:00"));
+        for (String text : new String[] { "2010-02-30 00:00", "2010-13-01 00:00", "2010-01-01 24:00",
+                "2010-01-01 00:00 and more", "2010-01-01", "" }) {
+            try {
+                format.parse(text);
+                fail(text);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        ParsePosition position = new ParsePosition(3);
+        assertEquals(Long.MIN_VALUE, format.parse("at 2010-01-x", position));
+        assertEquals(11, position.getErrorIndex());
+        assertEquals(3, position.getIndex());
+    }
+
+    public void testParseIsoTimestamp() {
+        long millis = 1262304000000L;
+        assertEquals(millis, CompiledDateFormat.parseIsoTimestamp("2010-01-01"));
+        assertEquals(millis, CompiledDateFormat.parseIsoTimestamp("2010-01-01T00:00:00Z"));
+        assertEquals(millis, CompiledDateFormat.parseIsoTimestamp("2010-01-01 00:00"));
+        assertEquals(millis + 123, CompiledDateFormat.parseIsoTimestamp("2010-01-01T00:00:00.123Z"));
+        assertEquals(millis + 100, CompiledDateFormat.parseIsoTimestamp("2010-01-01T00:00:00.1"));
+        assertEquals(millis + 123, CompiledDateFormat.parseIsoTimestamp("2010-01-01T00:00:00.123456789Z"));
+        assertEquals(millis - 3600000, CompiledDateFormat.parseIsoTimestamp("2010-01-01T00:00:00+01:00"));
+        assertEquals(millis + 19800000, CompiledDateFormat.parseIsoTimestamp("2010-01-01T00:00-0530"));
+        assertEquals(951782400000L, CompiledDateFormat.parseIsoTimestamp("2000-02-29T00:00:00Z"));
+        for (String text : new String[] { "2010-01-01T", "2010-1-01", "2010-01-01T00:00:00ZZ",
+                "2010-01-01T00:00:00.Z", "2010-01-01T25:00", "2010-01-01T00:00+1", "1900-02-29" }) {
+            try {
+                CompiledDateFormat.parseIsoTimestamp(text);
+                fail(text);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    public void testUnsupportedPattern() {
+        try {
+            new CompiledDateFormat("yyyy G");
+            fail();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+        try {
+            new CompiledDateFormat("yyyy 'unterminated");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void testThreadSafeSimpleDateFormat() throws Exception {
+        ThreadSafeSimpleDateFormat format = new ThreadSafeSimpleDateFormat("yyyy-MM-dd HH:mm", TimeZone
+                .getTimeZone("GMT"));
+        assertEquals("2010-01-01 00:00", format.format(new Date(1262304000000L)));
+        assertEquals(1262304000000L, format.parse("2010-01-01 00:00").getTime());
+
+        // Two digit years and dates before 1583 are left to SimpleDateFormat
+        ThreadSafeSimpleDateFormat twoDigits = new ThreadSafeSimpleDateFormat("yy-MM-dd", TimeZone
+                .getTimeZone("GMT"));
+        assertEquals(1262304000000L, twoDigits.parse("10-01-01").getTime());
+        SimpleDateFormat simple = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        simple.setTimeZone(TimeZone.getTimeZone("GMT"));
+        Date old = simple.parse("1000-06-01 12:00");
+        assertEquals("1000-06-01 12:00", format.format(old));
+
+        format.setTimeZone(TimeZone.getTimeZone("GMT+01:00"));
+        assertEquals("2010-01-01 01:00", format.format(new Date(1262304000000L)));
+        StringBuilder builder = new StringBuilder();
+        format.format(1262304000000L, builder);
+        assertEquals("2010-01-01 01:00", builder.toString());
+
+        // Formats with the same hash code no longer share SimpleDateFormats
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        ThreadSafeSimpleDateFormat aa = new ThreadSafeSimpleDateFormat("'Aa'", TimeZone.getTimeZone("GMT"));
+        ThreadSafeSimpleDateFormat bb = new ThreadSafeSimpleDateFormat("'BB'", TimeZone.getTimeZone("GMT"));
+        aa.setNumberFormat(java.text.NumberFormat.getIntegerInstance());
+        bb.setNumberFormat(java.text.NumberFormat.getIntegerInstance());
+        assertEquals("Aa", aa.format(new Date()));
+        assertEquals("BB", bb.format(new Date()));
+    }
+
+    public void testConsecutiveMillis() {
+        CompiledDateFormat format = CompiledDateFormat.ZULU;
+        SimpleDateFormat simple = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        simple.setTimeZone(TimeZone.getTimeZone("GMT"));
+        char[] text = new char[format.getMaxLength()];
+        StringBuilder builder = new StringBuilder(64);
+
+        // Mostly within the cached second, now and then into the next one
+        for (long millis = 1262304000000L; millis < 1262304000000L + 60000; millis += 7) {
+            String expected = simple.format(new Date(millis));
+            builder.setLength(0);
+            format.format(millis, builder);
+            assertEquals(expected, builder.toString());
+            assertEquals(expected, new String(text, 0, format.format(millis, text, 0)));
+            assertEquals(millis / 1000 * 1000, CompiledDateFormat.parseIsoTimestamp(expected));
+        }
+    }
+
+}
@@ -0,0 +1,372 @@
+package com.scandilabs.framework.util;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class LRUCacheTest extends TestCase {
+
+    public void testEvictsLeastRecentlyUsed() {
+        LRUCache<String, Integer> cache = new LRUCache<String, Integer>(3, 60000);
+        assertEquals(1, cache.getNumberOfSegments());
+
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        
+        // Touching 'a' makes 'b' the least recently used one
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.put("d", 4);
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+        assertEquals(Integer.valueOf(4), cache.get("d"));
+        
+        cache.clear("c");
+        assertNull(cache.get("c"));
+        assertEquals(2, cache.size());
+    }
+    
+    public void testExpiry() throws InterruptedException {
+        LRUCache<String, Integer> cache = new LRUCache<String, Integer>(100, 100);
+        cache.put("a", 1);
+        Thread.sleep(60);
+        cache.put("b", 2);
+        Thread.sleep(60);
+        assertNull(cache.get("a"));
+        assertEquals(Integer.valueOf(2), cache.get("b"));
+        
+        // Putting again resets the insert time
+        cache.put("b", 3);
+        Thread.sleep(60);
+        assertEquals(Integer.valueOf(3), cache.get("b"));
+        Thread.sleep(60);
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.size());
+    }
+    
+    public void testSegmentsShareSize() {
+        LRUCache<String, Integer> cache = new LRUCache<String, Integer>(1000, 60000);
+        assertEquals(16, cache.getNumberOfSegments());
+        for (int i = 0; i < 10000; i++) {
+            cache.put("key" + i, i);
+        }
+        assertEquals(1000, cache.size());
+        
+        // The most recent puts are all still there, give or take the uneven
+        // spread of keys over segments
+        int hits = 0;
+        for (int i = 9900; i < 10000; i++) {
+            if (cache.get("key" + i) != null) {
+                hits++;
+            }
+        }
+        System.out.println(String.format("%d of the last 100 keys still cached", hits));
+        assertTrue(hits > 95);
+    }
+    
+    public void testConcurrentAccess() throws InterruptedException {
+        final LRUCache<String, Integer> cache = new LRUCache<String, Integer>(500, 60000);
+        final CountDownLatch done = new CountDownLatch(8);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        long start = System.currentTimeMillis();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200000; i++) {
+                            int k = (i * 31 + seed * 7) % 2000;
+                            Integer value = cache.get("key" + k);
+                            if (value == null) {
+                                cache.put("key" + k, k);
+                            } else if (value.intValue() != k) {
+                                throw new IllegalStateException("Wrong value for key" + k + ": " + value);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        System.out.println(String.format("8 threads did 1.6M get/puts in %d ms", System.currentTimeMillis() - start));
+        assertNull(failure.get());
+        assertEquals(500, cache.size());
+    }
+
+    public void testWeightBound() {
+        Weigher<String, String> length = new Weigher<String, String>() {
+            public int weigh(String key, String value) {
+                return value.length();
+            }
+        };
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            LRUCache<String, String> cache = new LRUCache<String, String>(1000, length, 60000, 1, policy);
+            Random random = new Random(3);
+            for (int i = 0; i < 5000; i++) {
+                char[] value = new char[1 + random.nextInt(random.nextInt(10) == 0 ? 400 : 40)];
+                cache.put("key" + random.nextInt(300), new String(value));
+                assertTrue(cache.getWeight() <= 1000);
+            }
+            System.out.println(String.format("%s: %d entries weighing %d", policy, cache.size(), cache.getWeight()));
+            assertTrue(cache.getWeight() > 500);
+
+            // One heavy entry pushes out many light ones, one too heavy to
+            // fit at all is not kept
+            cache.put("heavy", new String(new char[800]));
+            assertTrue(cache.getWeight() <= 1000);
+            cache.put("too heavy", new String(new char[1001]));
+            assertNull(cache.get("too heavy"));
+            assertTrue(cache.getWeight() <= 1000);
+
+            // Weight follows a value being replaced by a lighter one
+            cache.put("light", "abc");
+            long weight = cache.getWeight();
+            cache.put("light", "a");
+            assertEquals(weight - 2, cache.getWeight());
+        }
+    }
+
+    public void testWeightBoundOverSegments() {
+        Weigher<String, String> length = new Weigher<String, String>() {
+            public int weigh(String key, String value) {
+                return value.length();
+            }
+        };
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            LRUCache<String, String> cache = new LRUCache<String, String>(16000, length, 60000, 16, policy);
+            assertEquals(16, cache.getNumberOfSegments());
+
+            // Far heavier than one segment's part, but the cache has room
+            cache.put("heavy", new String(new char[8000]));
+            assertNotNull(cache.get("heavy"));
+            Random random = new Random(5);
+            for (int i = 0; i < 20000; i++) {
+                cache.put("key" + random.nextInt(3000), new String(new char[1 + random.nextInt(20)]));
+                assertTrue(cache.getWeight() <= 16000);
+            }
+            System.out.println(String.format("%s: %d entries weighing %d", policy, cache.size(), cache.getWeight()));
+            assertTrue(cache.getWeight() > 12000);
+
+            cache.put("too heavy", new String(new char[16001]));
+            assertNull(cache.get("too heavy"));
+            assertEquals(1, cache.getTooHeavyCount());
+
+            // The other segments make room for an entry that fills the whole
+            // cache, TinyLFU does not admit one that was never used before
+            cache.put("just fits", new String(new char[16000]));
+            assertTrue(cache.getWeight() <= 16000);
+            if (policy == EvictionPolicy.LRU) {
+                assertNotNull(cache.get("just fits"));
+                assertEquals(16000, cache.getWeight());
+            }
+        }
+    }
+
+    public void testTinyLfuKeepsHotEntriesThroughScan() {
+        LRUCache<String, Integer> lru = new LRUCache<String, Integer>(100, 60000, 1, EvictionPolicy.LRU);
+        LRUCache<String, Integer> tinyLfu = new LRUCache<String, Integer>(100, 60000, 1, EvictionPolicy.TINY_LFU);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                lru.put("hot" + i, i);
+                tinyLfu.put("hot" + i, i);
+            }
+        }
+
+        // A crawler pages through 1000 keys nobody asks for again
+        for (int i = 0; i < 1000; i++) {
+            lru.put("scan" + i, i);
+            tinyLfu.put("scan" + i, i);
+        }
+        int lruHits = 0;
+        int tinyLfuHits = 0;
+        for (int i = 0; i < 50; i++) {
+            if (lru.get("hot" + i) != null) {
+                lruHits++;
+            }
+            if (tinyLfu.get("hot" + i) != null) {
+                tinyLfuHits++;
+            }
+        }
+        System.out.println(String.format("Hot entries left after scan: LRU %d, TinyLFU %d", lruHits, tinyLfuHits));
+        assertEquals(0, lruHits);
+
+        // The sketch is approximate, a collision can cost a hot entry or two
+        assertTrue(tinyLfuHits >= 45);
+        assertEquals(100, tinyLfu.size());
+    }
+
+    /**
+     * Replays a Zipf distributed trace mixed with scans through both policies
+     * at equal capacity
+     */
+    public void testHitRatioOnZipfTrace() {
+        Random random = new Random(7);
+        int keys = 100000;
+
+        // Cumulative Zipf(0.9) probabilities, sampled by binary search
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1 / Math.pow(i + 1, 0.9);
+            cumulative[i] = sum;
+        }
+        int[] trace = new int[500000];
+        int scan = keys;
+        for (int i = 0; i < trace.length; i++) {
+            if (i % 10000 < 2000) {
+                trace[i] = scan++;
+            } else {
+                int k = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                trace[i] = k < 0 ? -k - 1 : k;
+            }
+        }
+
+        for (int size : new int[] { 1000, 10000 }) {
+            double lru = hitRatio(new LRUCache<Integer, Integer>(size, 3600000, 16, EvictionPolicy.LRU), trace);
+            double tinyLfu = hitRatio(new LRUCache<Integer, Integer>(size, 3600000, 16, EvictionPolicy.TINY_LFU),
+                    trace);
+            System.out.println(String.format("Cache size %d: LRU hit ratio %.3f, TinyLFU %.3f", size, lru, tinyLfu));
+            assertTrue(tinyLfu > lru);
+        }
+    }
+
+    public void testOffHeapTier() {
+        OffHeapStore<String, String> store = new OffHeapStore<String, String>(1 << 20, 1 << 16, 1,
+                new StringSerializer(), new StringSerializer());
+        try {
+            LRUCache<String, String> cache = new LRUCache<String, String>(10, null, 60000, 1, EvictionPolicy.LRU,
+                    store);
+            for (int i = 0; i < 100; i++) {
+                cache.put("key" + i, "value" + i);
+            }
+            assertEquals(10, cache.size());
+            assertEquals(90, store.size());
+
+            // A miss takes the entry back from the store, and the one it
+            // pushes out goes there instead
+            assertEquals("value0", cache.get("key0"));
+            assertEquals(10, cache.size());
+            assertEquals(90, store.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals("value" + i, cache.get("key" + i));
+            }
+
+            // Putting or clearing a key leaves no older copy in the store
+            cache.put("key1", "new");
+            cache.clear("key2");
+            for (int i = 0; i < 100; i++) {
+                cache.get("key" + i);
+            }
+            assertEquals("new", cache.get("key1"));
+            assertNull(cache.get("key2"));
+            assertEquals(99, cache.size() + store.size());
+
+            store.close();
+            assertNull(cache.get("key50"));
+            cache.put("key50", "value50");
+            assertEquals("value50", cache.get("key50"));
+        } finally {
+            store.close();
+        }
+    }
+
+    public void testOffHeapTierKeepsTimeToLive() throws InterruptedException {
+        OffHeapStore<String, String> store = new OffHeapStore<String, String>(1 << 20, 1 << 16, 1,
+                new StringSerializer(), new StringSerializer());
+        try {
+            LRUCache<String, String> cache = new LRUCache<String, String>(1, null, 100, 1, EvictionPolicy.LRU,
+                    store);
+            cache.put("a", "1");
+            Thread.sleep(60);
+            cache.put("b", "2");
+            assertEquals(1, store.size());
+
+            // Taken back from the store with its original insert time
+            assertEquals("1", cache.get("a"));
+            Thread.sleep(60);
+            assertNull(cache.get("a"));
+            assertEquals("2", cache.get("b"));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Runs the given code while the value "old" is serialized, that is after
+     * its entry was evicted and before it is stored
+     */
+    private static class RacingSerializer extends StringSerializer {
+
+        private Runnable race;
+
+        public byte[] serialize(String object) {
+            Runnable current = race;
+            if ("old".equals(object) && current != null) {
+                race = null;
+                current.run();
+            }
+            return super.serialize(object);
+        }
+    }
+
+    public void testOffHeapTierRacingDemotion() {
+        final RacingSerializer serializer = new RacingSerializer();
+        OffHeapStore<String, String> store = new OffHeapStore<String, String>(1 << 20, 1 << 16, 1,
+                new StringSerializer(), serializer);
+        try {
+            final LRUCache<String, String> cache = new LRUCache<String, String>(1, null, 60000, 1,
+                    EvictionPolicy.LRU, store);
+
+            // Cleared after it was evicted, it must not come back
+            serializer.race = new Runnable() {
+                public void run() {
+                    cache.clear("a");
+                }
+            };
+            cache.put("a", "old");
+            cache.put("b", "1");
+            assertNull(serializer.race);
+            assertNull(cache.get("a"));
+            assertEquals("1", cache.get("b"));
+
+            // Put and evicted again, the newer value gets to the store first
+            // and the older one must not replace it
+            serializer.race = new Runnable() {
+                public void run() {
+                    cache.put("c", "new");
+                    cache.put("d", "2");
+                }
+            };
+            cache.put("c", "old");
+            cache.put("e", "3");
+            assertNull(serializer.race);
+            System.out.println(String.format("Cache size %d, store size %d", cache.size(), store.size()));
+            assertEquals("new", cache.get("c"));
+            assertEquals("3", cache.get("e"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static double hitRatio(LRUCache<Integer, Integer> cache, int[] trace) {
+        int hits = 0;
+        for (int key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+}
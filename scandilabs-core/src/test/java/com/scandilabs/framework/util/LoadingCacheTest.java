@@ -0,0 +1,130 @@
+package com.scandilabs.framework.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class LoadingCacheTest extends TestCase {
+
+    /**
+     * Counts its calls and returns the key with the call number appended
+     */
+    private static class CountingLoader implements CacheLoader<String, String> {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        final AtomicBoolean failing = new AtomicBoolean();
+
+        volatile long delayMillis;
+
+        public String load(String key) throws Exception {
+            int call = calls.incrementAndGet();
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            if (failing.get()) {
+                throw new IllegalStateException("Backend down");
+            }
+            return key + call;
+        }
+    }
+
+    public void testConcurrentMissesLoadOnce() throws InterruptedException {
+        final CountingLoader loader = new CountingLoader();
+        loader.delayMillis = 200;
+        final LoadingCache<String, String> cache = new LoadingCache<String, String>(loader, 100, 60000);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(20);
+        final AtomicInteger wrong = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        if (!"hot1".equals(cache.get("hot"))) {
+                            wrong.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        wrong.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        assertEquals(1, loader.calls.get());
+        assertEquals(0, wrong.get());
+        assertEquals("hot1", cache.get("hot"));
+    }
+
+    public void testRefreshAhead() throws InterruptedException {
+        CountingLoader loader = new CountingLoader();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        LoadingCache<String, String> cache = new LoadingCache<String, String>(loader, 100, 1000, 100, 0, executor);
+        assertEquals("a1", cache.get("a"));
+        Thread.sleep(150);
+
+        // Old value right away, the new one once the refresh has run
+        loader.delayMillis = 100;
+        assertEquals("a1", cache.get("a"));
+        assertEquals("a1", cache.get("a"));
+        Thread.sleep(250);
+        assertEquals(2, loader.calls.get());
+
+        // This read is due for a refresh again, which fails and keeps the
+        // current value
+        loader.failing.set(true);
+        assertEquals("a2", cache.get("a"));
+        Thread.sleep(150);
+        assertEquals("a2", cache.get("a"));
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+        assertEquals("a2", cache.get("a"));
+    }
+
+    public void testServesStaleWhenReloadFails() throws InterruptedException {
+        CountingLoader loader = new CountingLoader();
+        LoadingCache<String, String> cache = new LoadingCache<String, String>(loader, 100, 100, 100, 200, null);
+        assertEquals("a1", cache.get("a"));
+        loader.failing.set(true);
+        Thread.sleep(150);
+        assertEquals("a1", cache.get("a"));
+        assertEquals(2, loader.calls.get());
+
+        // Past the stale limit the failure comes through
+        Thread.sleep(200);
+        try {
+            cache.get("a");
+            fail("Expected the load to fail");
+        } catch (CacheLoadingException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        loader.failing.set(false);
+        assertEquals("a4", cache.get("a"));
+    }
+
+    public void testNullValuesAreCached() {
+        final AtomicInteger calls = new AtomicInteger();
+        LoadingCache<Long, Object> cache = new LoadingCache<Long, Object>(new CacheLoader<Long, Object>() {
+            public Object load(Long key) {
+                calls.incrementAndGet();
+                return null;
+            }
+        }, 10, 60000);
+        assertNull(cache.get(1L));
+        assertNull(cache.get(1L));
+        assertEquals(1, calls.get());
+        cache.invalidate(1L);
+        assertNull(cache.get(1L));
+        assertEquals(2, calls.get());
+    }
+
+}
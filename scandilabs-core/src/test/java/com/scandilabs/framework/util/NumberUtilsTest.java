@@ -6,6 +6,8 @@ import com.scandilabs.framework.util.NumberUtils;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.codec.digest.DigestUtils;
+
 public class NumberUtilsTest extends TestCase {
 
     public void testToUnsignedInt() throws IOException {
@@ -15,4 +17,43 @@ public class NumberUtilsTest extends TestCase {
         }
         
     }
+    
+    public void testStringToUnsignedIntegerCodeMatchesMd5Hex() {
+        
+        String[] keys = { "", "a", "WEBDOC-http://en.wikipedia.org/wiki/Silverton", "bl\u00e5b\u00e6r", "\u65e5\u672c" };
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(legacyUnsignedIntegerCode(keys[i]), NumberUtils.stringToUnsignedIntegerCode(keys[i]));
+        }
+        
+        // Long keys grow the per-thread buffer
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append(i);
+            String key = sb.toString();
+            int code = NumberUtils.stringToUnsignedIntegerCode(key);
+            assertEquals(legacyUnsignedIntegerCode(key), code);
+            assertTrue(code >= 0 && code < (1 << 24));
+        }
+    }
+    
+    public void testMurmurHash3() {
+        
+        // Same string hashes the same, different seeds hash differently
+        assertEquals(NumberUtils.murmurHash3("abcd:1:efgh", 0), NumberUtils.murmurHash3(new String("abcd:1:efgh"), 0));
+        assertFalse(NumberUtils.murmurHash3("abcd:1:efgh", 0) == NumberUtils.murmurHash3("abcd:1:efgh", 1));
+        
+        MurmurKeyHasher hasher = new MurmurKeyHasher();
+        for (int i = 0; i < 10000; i++) {
+            int code = hasher.hash("abcd:" + i + ":efgh");
+            assertTrue(code >= 0 && code < (1 << 24));
+        }
+    }
+    
+    /**
+     * The original implementation of stringToUnsignedIntegerCode
+     */
+    private static int legacyUnsignedIntegerCode(String s) {
+        String md5 = DigestUtils.md5Hex(s);
+        return Integer.parseInt(md5.substring(26, md5.length()), 16);
+    }
 }
@@ -0,0 +1,176 @@
+package com.scandilabs.framework.util;
+
+import java.util.Date;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class OffHeapStoreTest extends TestCase {
+
+    private OffHeapStore<String, String> store;
+
+    protected void setUp() {
+        store = new OffHeapStore<String, String>(1 << 16, 1 << 12, 1, new StringSerializer(), new StringSerializer());
+    }
+
+    protected void tearDown() {
+        store.close();
+    }
+
+    public void testPutGetRemove() {
+        assertNull(store.get("a"));
+        assertTrue(store.put("a", "1"));
+        assertTrue(store.put("b", "2"));
+        assertEquals("1", store.get("a"));
+        assertEquals("2", store.get("b"));
+        assertEquals(2, store.size());
+
+        assertTrue(store.put("a", "one"));
+        assertEquals("one", store.get("a"));
+        assertEquals(2, store.size());
+
+        assertTrue(store.remove("a"));
+        assertFalse(store.remove("a"));
+        assertNull(store.get("a"));
+        assertEquals(1, store.size());
+    }
+
+    public void testSameHashCode() {
+
+        // "Aa" and "BB" have the same hash code
+        store.put("Aa", "1");
+        store.put("BB", "2");
+        assertEquals("1", store.get("Aa"));
+        assertEquals("2", store.get("BB"));
+        store.remove("Aa");
+        assertNull(store.get("Aa"));
+        assertEquals("2", store.get("BB"));
+    }
+
+    public void testExpiry() {
+        long now = System.currentTimeMillis();
+        store.put("old", "1", now - 1);
+        store.put("young", "2", now + 60000);
+        assertNull(store.get("old"));
+        assertEquals("2", store.get("young"));
+        assertEquals(1, store.size());
+    }
+
+    public void testTooBig() {
+        assertFalse(store.put("big", new String(new char[4096])));
+        assertNull(store.get("big"));
+        assertTrue(store.put("fits", new String(new char[4096 - OffHeapStore.HEADER_SIZE - 4])));
+    }
+
+    public void testFailedPutKeepsEarlierEntry() {
+        assertTrue(store.put("key", "small"));
+        assertFalse(store.put("key", new String(new char[4096])));
+        assertEquals("small", store.get("key"));
+
+        // A single slab, taken by the small entry's size class, leaves none
+        // for a bigger one
+        OffHeapStore<String, String> single = new OffHeapStore<String, String>(1 << 12, 1 << 12, 1,
+                new StringSerializer(), new StringSerializer());
+        try {
+            assertTrue(single.put("key", "small"));
+            assertFalse(single.put("key", new String(new char[1000])));
+            assertEquals("small", single.get("key"));
+
+            // Replaced in place within its size class
+            assertTrue(single.put("key", "other"));
+            assertEquals("other", single.get("key"));
+            assertEquals(1, single.size());
+        } finally {
+            single.close();
+        }
+    }
+
+    public void testEvictsWhenFull() {
+
+        // 16 slabs of 4k, 32 entries of 100 bytes fit in a 128 byte chunk
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(store.put("key" + i, "value" + i + new String(new char[80])));
+        }
+        assertEquals(1 << 16, store.getAllocatedBytes());
+        assertEquals(16 * 32, store.size());
+        assertTrue(store.get("key9999").startsWith("value9999"));
+
+        // Entries read since the clock passed them get another round
+        Random random = new Random(5);
+        for (int i = 0; i < 10000; i++) {
+            assertNotNull(store.get("key9999"));
+            store.put("other" + random.nextInt(100000), "x" + new String(new char[80]));
+        }
+        assertNotNull(store.get("key9999"));
+    }
+
+    public void testSizeClassesShareSlabs() {
+
+        // Small entries first take all the memory, then big ones still get
+        // slabs of their own
+        for (int i = 0; i < 10000; i++) {
+            store.put("small" + i, "s");
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.put("big" + i, new String(new char[2000])));
+        }
+        assertNotNull(store.get("big99"));
+        assertNotNull(store.get("small9999"));
+        assertEquals(1 << 16, store.getAllocatedBytes());
+    }
+
+    public void testJavaSerializer() {
+        OffHeapStore<Long, Date> dates = new OffHeapStore<Long, Date>(1 << 16, 1 << 12, 1,
+                new JavaSerializer<Long>(), new JavaSerializer<Date>());
+        try {
+            dates.put(1L, new Date(1000));
+            assertEquals(new Date(1000), dates.get(1L));
+            assertNull(dates.get(2L));
+        } finally {
+            dates.close();
+        }
+    }
+
+    public void testClose() {
+        store.put("a", "1");
+        store.close();
+        assertNull(store.get("a"));
+        assertFalse(store.put("b", "2"));
+        assertEquals(0, store.size());
+        assertEquals(0, store.getAllocatedBytes());
+    }
+
+    public void testThreads() throws InterruptedException {
+        final OffHeapStore<String, String> shared = new OffHeapStore<String, String>(1 << 20, 1 << 12, 16,
+                new StringSerializer(), new StringSerializer());
+        final String[] failure = new String[1];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 50000; i++) {
+                        String key = "key" + random.nextInt(5000);
+                        String value = shared.get(key);
+                        if (value != null && !value.equals("value of " + key)) {
+                            failure[0] = key + " had " + value;
+                        }
+                        if (random.nextInt(4) == 0) {
+                            shared.put(key, "value of " + key);
+                        } else if (random.nextInt(20) == 0) {
+                            shared.remove(key);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        shared.close();
+        assertNull(failure[0]);
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.scandilabs.framework.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import junit.framework.TestCase;
+
+public class PasswordHasherTest extends TestCase {
+
+    public void testHashAndVerify() {
+        PasswordHasher hasher = new PasswordHasher("app", 1000, 1, 10);
+        String hash = hasher.hash("secret");
+        System.out.println(hash);
+        assertTrue(hash.startsWith("$p1$1000$"));
+        assertFalse(hash.equals(hasher.hash("secret")));
+        assertTrue(hasher.verify("secret", hash, null).matches());
+        assertNull(hasher.verify("secret", hash, null).getUpgradedHash());
+        assertFalse(hasher.verify("Secret", hash, null).matches());
+        assertFalse(hasher.verify("secret", null, null).matches());
+        assertTrue(hasher.verify("", hasher.hash(""), null).matches());
+        assertFalse(hasher.needsRehash(hash));
+        hasher.shutdown();
+    }
+
+    public void testSameAsJavaPbkdf2() throws Exception {
+        SecretKeyFactory factory;
+        try {
+            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            System.out.println("No PBKDF2WithHmacSHA256 before Java 8, skipped");
+            return;
+        }
+        byte[] salt = "NaCl and more salt".getBytes("UTF-8");
+        for (String password : new String[] { "password", "p\u00e4ssw\u00f6rd", "x" }) {
+            byte[] expected = factory.generateSecret(new PBEKeySpec(password.toCharArray(), salt, 4096, 256))
+                    .getEncoded();
+            assertTrue(password, Arrays.equals(expected, PasswordHasher.pbkdf2(password, salt, 4096)));
+        }
+    }
+
+    public void testLegacyHashesAreUpgraded() {
+        PasswordHasher hasher = new PasswordHasher("app", 1000, 1, 10);
+        String legacy = PasswordUtils.encode("secret", "app", "42");
+        assertTrue(hasher.needsRehash(legacy));
+        assertFalse(hasher.verify("secret", legacy, null).matches());
+        assertFalse(hasher.verify("wrong", legacy, "42").matches());
+        assertNull(hasher.verify("wrong", legacy, "42").getUpgradedHash());
+        PasswordHasher.Verification verification = hasher.verify("secret", legacy, "42");
+        assertTrue(verification.matches());
+        String upgraded = verification.getUpgradedHash();
+        assertTrue(upgraded.startsWith("$p1$1000$"));
+        assertTrue(hasher.verify("secret", upgraded, null).matches());
+
+        // Raising the cost upgrades older hashes as well
+        PasswordHasher costlier = new PasswordHasher("app", 2000, 1, 10);
+        assertTrue(costlier.needsRehash(upgraded));
+        assertTrue(costlier.verify("secret", upgraded, null).getUpgradedHash().startsWith("$p1$2000$"));
+        hasher.shutdown();
+        costlier.shutdown();
+    }
+
+    public void testIterationsOutOfRange() {
+        PasswordHasher hasher = new PasswordHasher("app", 1000, 1, 10);
+        String hash = hasher.hash("secret");
+        String salted = hash.substring("$p1$1000".length());
+        assertFalse(hasher.verify("secret", "$p1$10000" + salted, null).matches());
+        for (String iterations : new String[] { "0", "-5", "10001", "2147483647" }) {
+            try {
+                hasher.verify("secret", "$p1$" + iterations + salted, null);
+                fail(iterations);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+        hasher.shutdown();
+    }
+
+    public void testBoundedQueue() throws Exception {
+        PasswordHasher hasher = new PasswordHasher("app", 200000, 1, 2);
+        String hash = hasher.hash("secret");
+        List<Future<PasswordHasher.Verification>> futures = new ArrayList<Future<PasswordHasher.Verification>>();
+        int rejected = 0;
+        for (int i = 0; i < 10; i++) {
+            try {
+                futures.add(hasher.verifyAsync(i % 2 == 0 ? "secret" : "wrong", hash, null));
+            } catch (RejectedExecutionException e) {
+                rejected++;
+            }
+        }
+        System.out.println(String.format("%d checks accepted, %d rejected", futures.size(), rejected));
+        assertTrue(rejected >= 6);
+        for (int i = 0; i < futures.size(); i++) {
+            futures.get(i).get();
+        }
+        assertTrue(futures.get(0).get().matches());
+        assertEquals(0, hasher.getQueued());
+        hasher.shutdown();
+    }
+
+    public void testSpeed() {
+        byte[] salt = new byte[16];
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            PasswordHasher.pbkdf2("secret", salt, 100000);
+            long pbkdf2 = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < 100000; i++) {
+                PasswordUtils.encode("secret", "app", "42");
+            }
+            long legacy = System.nanoTime() - start;
+            System.out.println(String.format("PBKDF2 at 100000 iterations %d ms, legacy SHA-1 %.0f ns", pbkdf2 / 1000000,
+                    (double) legacy / 100000));
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.scandilabs.framework.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class PropertyAccessorTest extends TestCase {
+
+    public static class Person {
+
+        private String name;
+
+        private int age;
+
+        private Person parent;
+
+        public Person(String name, int age, Person parent) {
+            this.name = name;
+            this.age = age;
+            this.parent = parent;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getAge() {
+            return age;
+        }
+
+        public Person getParent() {
+            return parent;
+        }
+
+        public boolean isAdult() {
+            return age >= 18;
+        }
+    }
+
+    public static class Employee extends Person {
+
+        public Employee(String name, int age) {
+            super(name, age, null);
+        }
+
+        public String getName() {
+            return "employee " + super.getName();
+        }
+    }
+
+    /**
+     * Not public, its getters can still be called
+     */
+    static class Hidden {
+
+        public String getSecret() {
+            return "secret";
+        }
+    }
+
+    public void testGet() throws Exception {
+        Person parent = new Person("Ann", 60, null);
+        Person child = new Person("Bob", 30, parent);
+        assertEquals("Bob", PropertyAccessor.getProperty(child, "name"));
+        assertEquals(Integer.valueOf(30), PropertyAccessor.getProperty(child, "age"));
+        assertEquals(Boolean.TRUE, PropertyAccessor.getProperty(child, "adult"));
+        assertEquals("Ann", PropertyAccessor.getProperty(child, "parent.name"));
+        assertEquals("secret", PropertyAccessor.getProperty(new Hidden(), "secret"));
+        assertSame(PropertyAccessor.forProperty(Person.class, "name"), PropertyAccessor.forProperty(Person.class,
+                "name"));
+
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("person", child);
+        assertEquals("Ann", PropertyAccessor.getProperty(map, "person.parent.name"));
+
+        // One accessor for beans of several classes
+        PropertyAccessor accessor = PropertyAccessor.forPath("name");
+        assertEquals("Bob", accessor.get(child));
+        assertEquals("employee Eve", accessor.get(new Employee("Eve", 40)));
+        assertEquals("Ann", accessor.get(parent));
+
+        try {
+            PropertyAccessor.getProperty(child, "missing");
+            fail();
+        } catch (NoSuchMethodException e) {
+            System.out.println(e.getMessage());
+        }
+        try {
+            PropertyAccessor.getProperty(parent, "parent.name");
+            fail();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    public void testSortAndExtract() {
+        List<Person> people = new ArrayList<Person>();
+        String[] names = { "Carl", "Ann", "Bob", "Ann", "Dan" };
+        for (int i = 0; i < names.length; i++) {
+            people.add(new Person(names[i], i, null));
+        }
+        CollectionUtils.sortListByProperty(people, "name");
+        StringBuilder sorted = new StringBuilder();
+        for (Person person : people) {
+            sorted.append(person.getName()).append(person.getAge()).append(' ');
+        }
+
+        // Stable, the first Ann stays first
+        assertEquals("Ann1 Ann3 Bob2 Carl0 Dan4 ", sorted.toString());
+
+        assertEquals(4, CollectionUtils.extractUniquePropertyList(people, "name").size());
+        assertEquals("2", CollectionUtils.extractStringList(people, "age").get(2));
+        Map<String, Object> criteria = new HashMap<String, Object>();
+        criteria.put("adult", Boolean.FALSE);
+        assertEquals(4, CollectionUtils.extractUniquePropertyList(people, "name", criteria).size());
+        criteria.put("name", "Ann");
+        assertEquals(2, CollectionUtils.extractUniquePropertyList(people, "age", criteria).size());
+        assertTrue(CollectionUtils.match(people.get(0), criteria));
+    }
+
+    public void testSortMatchesComparator() {
+        List<Person> people = new ArrayList<Person>();
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            people.add(new Person("person" + random.nextInt(1000), i, null));
+        }
+        List<Person> copy = new ArrayList<Person>(people);
+        @SuppressWarnings("unchecked")
+        Comparator<Person> comparator = new BeanPropertyComparator("name");
+        Collections.sort(copy, comparator);
+        List<Person> keyed = new ArrayList<Person>(people);
+        CollectionUtils.sortListByProperty(keyed, "name");
+        assertEquals(copy, keyed);
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.scandilabs.framework.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+public class RequestContextTest extends TestCase {
+
+    private static final ContextKey<String> USER = new ContextKey<String>("user");
+
+    private static final ContextKey<Integer> REQUEST_ID = new ContextKey<Integer>("requestId");
+
+    public void testOpenAndClose() {
+        assertFalse(RequestContext.isOpen());
+        assertNull(RequestContext.get(USER));
+        try {
+            RequestContext.set(USER, "ann");
+            fail();
+        } catch (IllegalStateException e) {
+        }
+
+        RequestContext context = RequestContext.open();
+        try {
+            RequestContext.set(USER, "ann");
+            RequestContext.set(REQUEST_ID, 1);
+            assertEquals("ann", RequestContext.get(USER));
+
+            // Nested contexts start with the outer values, and drop their own
+            RequestContext nested = RequestContext.open();
+            assertEquals("ann", RequestContext.get(USER));
+            RequestContext.set(USER, "bob");
+            assertEquals("bob", RequestContext.get(USER));
+            try {
+                context.close();
+                fail();
+            } catch (IllegalStateException e) {
+            }
+            nested.close();
+            assertEquals("ann", RequestContext.get(USER));
+            RequestContext.remove(REQUEST_ID);
+            assertNull(RequestContext.get(REQUEST_ID));
+        } finally {
+            context.close();
+        }
+        assertFalse(RequestContext.isOpen());
+        assertNull(RequestContext.get(USER));
+    }
+
+    public void testWrappedTasks() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Callable<String> user = new Callable<String>() {
+                public String call() {
+                    String value = RequestContext.get(USER);
+                    if (RequestContext.isOpen()) {
+                        RequestContext.set(USER, "changed by task");
+                    }
+                    return value;
+                }
+            };
+            RequestContext context = RequestContext.open();
+            try {
+                RequestContext.set(USER, "ann");
+                Future<String> unwrapped = executor.submit(user);
+                Future<String> wrapped = executor.submit(RequestContext.wrap(user));
+                assertNull(unwrapped.get());
+                assertEquals("ann", wrapped.get());
+                assertEquals("ann", RequestContext.get(USER));
+            } finally {
+                context.close();
+            }
+
+            // Nothing left on the pooled thread
+            assertNull(executor.submit(user).get());
+            assertSame(user, RequestContext.wrap(user));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testThreadLocalUtilsRemove() {
+        ThreadLocalUtils.remove("nothing set");
+        ThreadLocalUtils.set("key", "value");
+        assertEquals("value", ThreadLocalUtils.get("key"));
+        ThreadLocalUtils.remove("key");
+        assertNull(ThreadLocalUtils.get("key"));
+        ThreadLocalUtils.set("key", "value");
+        ThreadLocalUtils.clear();
+        assertNull(ThreadLocalUtils.get("key"));
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.scandilabs.framework.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class TimedBloomFilterTest extends TestCase {
+
+    public void testAddAndContains() {
+        TimedBloomFilter<String> filter = new TimedBloomFilter<String>(60000, 1000, 0.01);
+        assertFalse(filter.contains("a"));
+        assertTrue(filter.add("a"));
+        assertFalse(filter.add("a"));
+        assertTrue(filter.contains("a"));
+        assertTrue(filter.addIfAbsent("b"));
+        assertFalse(filter.addIfAbsent("b"));
+
+        TimedBloomFilter<Long> numbers = new TimedBloomFilter<Long>(60000, 1000, 0.01);
+        assertTrue(numbers.add(42L));
+        assertTrue(numbers.contains(42L));
+        assertFalse(numbers.contains(43L));
+    }
+
+    public void testWindow() {
+        TimedBloomFilter<String> filter = new TimedBloomFilter<String>(1000, 1000, 0.01, 4);
+        long start = (System.currentTimeMillis() / 250 + 1) * 250;
+        assertTrue(filter.add("a", start, false));
+
+        // Kept for the window and at most one generation of 250 ms more
+        assertTrue(filter.contains("a", start + 999));
+        assertTrue(filter.add("b", start + 999, false));
+        assertFalse(filter.contains("a", start + 1250));
+        assertTrue(filter.contains("b", start + 1250));
+
+        // Refreshing restarts the window
+        assertFalse(filter.add("b", start + 1500, true));
+        assertTrue(filter.contains("b", start + 2400));
+        assertFalse(filter.contains("b", start + 2750));
+
+        // Idle for longer than the window clears everything
+        assertTrue(filter.add("c", start + 3000, false));
+        assertFalse(filter.contains("c", start + 100000));
+    }
+
+    /**
+     * Threads whose clocks are a generation apart must not move the filter
+     * back to an earlier generation, which would clear the current one again
+     */
+    public void testThreadsAcrossGenerations() throws Exception {
+        final TimedBloomFilter<String> filter = new TimedBloomFilter<String>(1000, 100000, 0.01, 4);
+        final long start = (System.currentTimeMillis() / 250 + 1) * 250;
+        final int threads = 8;
+        final int steps = 500;
+        final AtomicInteger lost = new AtomicInteger();
+        final int[] step = new int[1];
+        final CyclicBarrier barrier = new CyclicBarrier(threads, new Runnable() {
+            public void run() {
+
+                // Every key of the step is within the window of the latest
+                // time, whichever thread added it
+                for (int t = 0; t < threads; t++) {
+                    if (!filter.contains(step[0] + "-" + t, start + step[0] * 500L + 499)) {
+                        lost.incrementAndGet();
+                    }
+                }
+                step[0]++;
+            }
+        });
+        List<Thread> running = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thread runner = new Thread() {
+                public void run() {
+                    try {
+                        for (int s = 0; s < steps; s++) {
+
+                            // Each step starts two generations, half the
+                            // threads are in the first of them
+                            long now = start + s * 500L + (thread % 2 == 0 ? 250 : 0);
+                            filter.add(s + "-" + thread, now, false);
+                            barrier.await();
+                        }
+                    } catch (Exception e) {
+                        lost.incrementAndGet();
+                    }
+                }
+            };
+            running.add(runner);
+            runner.start();
+        }
+        for (Thread runner : running) {
+            runner.join();
+        }
+        System.out.println(String.format("Lost %d of %d keys", lost.get(), threads * steps));
+        assertEquals(0, lost.get());
+    }
+
+    public void testFalsePositiveRateAndMemory() {
+        int keys = 100000;
+        for (double rate : new double[] { 0.01, 0.001 }) {
+            TimedBloomFilter<String> filter = new TimedBloomFilter<String>(3600000, keys, rate);
+
+            // Keys coming in at a steady rate over the window
+            long start = System.currentTimeMillis();
+            long end = start + 3600000 - 1;
+            for (int i = 0; i < keys; i++) {
+                filter.add("event:" + i, start + 3600000L * i / keys, false);
+            }
+            for (int i = 0; i < keys; i++) {
+                assertTrue(filter.contains("event:" + i, end));
+            }
+            int falsePositives = 0;
+            for (int i = keys; i < 2 * keys; i++) {
+                if (filter.contains("event:" + i, end)) {
+                    falsePositives++;
+                }
+            }
+            double measured = (double) falsePositives / keys;
+            System.out.println(String.format(
+                    "Target %.3f: false positive rate %.4f, %d hashes, %.1f bytes per key, %d KB in all", rate,
+                    measured, filter.getHashes(), (double) filter.getMemoryBytes() / keys,
+                    filter.getMemoryBytes() / 1024));
+            assertTrue(measured < rate * 1.5);
+        }
+    }
+
+    public void testRejectsBadArguments() {
+        try {
+            new TimedBloomFilter<String>(60000, 1000, 1.0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new TimedBloomFilter<String>(3, 1000, 0.01, 4);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+}
@@ -1,5 +1,13 @@
 package com.scandilabs.framework.util;
 
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import com.scandilabs.framework.util.TimedSet;
 
 import junit.framework.TestCase;
@@ -30,4 +38,92 @@ public class TimedSetUnitTest extends TestCase {
 
     }
 
+    public void testAddIfAbsentRefreshes() throws InterruptedException {
+        TimedSet<String> set = new TimedSet<String>(300);
+
+        assertTrue(set.addIfAbsent("HOST.COM"));
+        assertFalse(set.addIfAbsent("HOST.COM"));
+        set.add("OTHERHOST.COM");
+
+        // Refreshed halfway, so HOST.COM outlives OTHERHOST.COM
+        Thread.sleep(200);
+        assertFalse(set.add("HOST.COM"));
+        assertFalse(set.addIfAbsent("HOST.COM"));
+        Thread.sleep(200);
+        assertTrue(set.contains("HOST.COM"));
+        assertFalse(set.contains("OTHERHOST.COM"));
+        Thread.sleep(200);
+        assertFalse(set.contains("HOST.COM"));
+
+        assertTrue(set.addIfAbsent("HOST.COM"));
+        assertTrue(set.remove("HOST.COM"));
+        assertFalse(set.remove("HOST.COM"));
+        assertFalse(set.contains("HOST.COM"));
+    }
+
+    /**
+     * Hammers one set from many threads. Each thread checks that its own keys
+     * behave as if it were alone, while all threads also fight over a small
+     * set of shared keys and keep iterating.
+     */
+    public void testConcurrentStress() throws InterruptedException {
+        final TimedSet<String> set = new TimedSet<String>(1000);
+        final int threads = 16;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger iterated = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50000; i++) {
+                            String own = "own:" + thread + ":" + (i % 500);
+                            if (set.addIfAbsent(own) && set.add(own)) {
+                                throw new IllegalStateException("Added twice: " + own);
+                            }
+                            if (!set.contains(own)) {
+                                throw new IllegalStateException("Lost " + own);
+                            }
+                            if (i % 7 == 0 && !set.remove(own)) {
+                                throw new IllegalStateException("Could not remove " + own);
+                            }
+                            String shared = "shared:" + (i % 50);
+                            set.add(shared);
+                            if (i % 3 == 0) {
+                                set.remove(shared);
+                            }
+                            if (i % 1000 == 0) {
+                                for (Iterator<String> it = set.iterator(); it.hasNext();) {
+                                    it.next();
+                                    iterated.incrementAndGet();
+                                }
+                            }
+                        }
+                    } catch (ConcurrentModificationException e) {
+                        failure.set(e);
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        System.out.println(String.format("%d threads did 800k adds in %d ms, iterated %d entries", threads, System
+                .currentTimeMillis() - start, iterated.get()));
+        if (failure.get() != null) {
+            failure.get().printStackTrace();
+        }
+        assertNull(failure.get());
+
+        // Everything expires once the threads are gone
+        Thread.sleep(1500);
+        List<String> left = new ArrayList<String>(set);
+        assertTrue(left.toString(), left.isEmpty());
+        assertEquals(0, set.size());
+    }
+
 }
@@ -0,0 +1,248 @@
+package com.scandilabs.framework.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+public class TimingWheelTest extends TestCase {
+
+    private static class Recorder extends TimingWheel.Timeout {
+
+        private final List<Recorder> expired;
+
+        private long now;
+
+        private long expiredAt = -1;
+
+        Recorder(List<Recorder> expired) {
+            this.expired = expired;
+        }
+
+        @Override
+        protected void expire() {
+            expiredAt = now;
+            expired.add(this);
+        }
+    }
+
+    /**
+     * Schedules timeouts from milliseconds up to days ahead and steps the
+     * wheel through time by hand
+     */
+    public void testExpiresWithinOneTick() {
+        TimingWheel wheel = new TimingWheel(10, false);
+        List<Recorder> expired = new ArrayList<Recorder>();
+        List<Recorder> timeouts = new ArrayList<Recorder>();
+        Random random = new Random(11);
+        long start = System.currentTimeMillis();
+        long[] horizons = { 100, 5000, 600000, 100000000L, 3 * 24 * 3600 * 1000L };
+        for (long horizon : horizons) {
+            for (int i = 0; i < 200; i++) {
+                Recorder timeout = new Recorder(expired);
+                wheel.schedule(timeout, start + (long) (random.nextDouble() * horizon));
+                timeouts.add(timeout);
+            }
+        }
+        assertEquals(1000, wheel.getPendingCount());
+
+        // Jump ahead in uneven steps, like a thread that wakes up late
+        long now = start;
+        long end = start + 3 * 24 * 3600 * 1000L + 1000;
+        while (now < end) {
+            now += 1 + random.nextInt(now - start < 10000 ? 20 : 5000000);
+            for (Recorder timeout : timeouts) {
+                timeout.now = now;
+            }
+            wheel.advance(now);
+        }
+        assertEquals(1000, expired.size());
+        assertEquals(0, wheel.getPendingCount());
+        for (Recorder timeout : timeouts) {
+            assertTrue(timeout.expiredAt >= timeout.getDeadline());
+        }
+    }
+
+    public void testExactTicks() {
+        TimingWheel wheel = new TimingWheel(10, false);
+        List<Recorder> expired = new ArrayList<Recorder>();
+        long start = (System.currentTimeMillis() / 10 + 1) * 10;
+        long[] offsets = { 0, 10, 2550, 2560, 2570, 655360, 655370, 90000000L };
+        List<Recorder> timeouts = new ArrayList<Recorder>();
+        for (long offset : offsets) {
+            Recorder timeout = new Recorder(expired);
+            wheel.schedule(timeout, start + offset);
+            timeouts.add(timeout);
+        }
+        for (long now = start; now <= start + 90000000L; now += 10) {
+            for (Recorder timeout : timeouts) {
+                timeout.now = now;
+            }
+            wheel.advance(now);
+        }
+        for (Recorder timeout : timeouts) {
+            assertEquals(timeout.getDeadline(), timeout.expiredAt);
+        }
+    }
+
+    public void testCancelAndReschedule() {
+        TimingWheel wheel = new TimingWheel(10, false);
+        List<Recorder> expired = new ArrayList<Recorder>();
+        long start = System.currentTimeMillis();
+        Recorder cancelled = new Recorder(expired);
+        Recorder moved = new Recorder(expired);
+        wheel.schedule(cancelled, start + 100);
+        wheel.schedule(moved, start + 100);
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+        wheel.schedule(moved, start + 5000);
+        assertEquals(1, wheel.getPendingCount());
+
+        wheel.advance(start + 1000);
+        assertTrue(expired.isEmpty());
+        assertTrue(wheel.isScheduled(moved));
+        wheel.advance(start + 5010);
+        assertEquals(1, expired.size());
+        assertSame(moved, expired.get(0));
+        assertFalse(wheel.isScheduled(moved));
+    }
+
+    /**
+     * The wheel only stops at ticks with timeouts in their slots
+     */
+    public void testSkipsEmptyTicks() {
+        TimingWheel wheel = new TimingWheel(10, false);
+        List<Recorder> expired = new ArrayList<Recorder>();
+        long start = (System.currentTimeMillis() / 10 + 1) * 10;
+        wheel.advance(start);
+        assertEquals(Long.MAX_VALUE, wheel.getNextTickMillis());
+
+        Recorder soon = new Recorder(expired);
+        wheel.schedule(soon, start + 500);
+        wheel.advance(start);
+        assertEquals(start + 500, wheel.getNextTickMillis());
+
+        // An hour ahead is on a higher level, which is only looked at when
+        // the level below has turned round, long before the deadline but
+        // not every tick
+        Recorder later = new Recorder(expired);
+        wheel.schedule(later, start + 3600000);
+        soon.now = start + 500;
+        assertEquals(1, wheel.advance(start + 500));
+        long next = wheel.getNextTickMillis();
+        System.out.println(String.format("Next tick after %d ms for a timeout an hour ahead", next - start));
+        assertTrue(next > start + 2560);
+        assertTrue(next <= later.getDeadline());
+        while (next < later.getDeadline()) {
+            assertEquals(0, wheel.advance(next));
+            assertTrue(wheel.getNextTickMillis() > next);
+            next = wheel.getNextTickMillis();
+        }
+        later.now = next;
+        assertEquals(1, wheel.advance(next));
+        assertEquals(next, later.expiredAt);
+        assertEquals(Long.MAX_VALUE, wheel.getNextTickMillis());
+    }
+
+    /**
+     * Threads schedule, reschedule and cancel timeouts on a wheel running its
+     * own thread, which expires each one that is still scheduled once
+     */
+    public void testConcurrentScheduling() throws InterruptedException {
+        final TimingWheel wheel = new TimingWheel(1);
+        final AtomicInteger expected = new AtomicInteger();
+        final AtomicInteger early = new AtomicInteger();
+        final List<Recorder> expired = Collections.synchronizedList(new ArrayList<Recorder>());
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            new Thread() {
+                public void run() {
+                    try {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 10000; i++) {
+                            Recorder timeout = new Recorder(expired) {
+                                protected void expire() {
+                                    if (System.currentTimeMillis() < getDeadline()) {
+                                        early.incrementAndGet();
+                                    }
+                                    super.expire();
+                                }
+                            };
+
+                            // Far enough ahead that it is still scheduled when
+                            // rescheduled or cancelled right after
+                            long now = System.currentTimeMillis();
+                            wheel.schedule(timeout, now + 100 + random.nextInt(200));
+                            if (random.nextInt(4) == 0) {
+                                wheel.schedule(timeout, now + 100 + random.nextInt(200));
+                            }
+                            if (random.nextInt(4) == 0) {
+                                assertTrue(wheel.cancel(timeout));
+                            } else {
+                                expected.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        assertNull(failure.get());
+        long start = System.currentTimeMillis();
+        while (wheel.getPendingCount() > 0 && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(10);
+        }
+        System.out.println(String.format("%d of 80000 timeouts expired", expired.size()));
+        assertEquals(0, wheel.getPendingCount());
+        assertEquals(expected.get(), expired.size());
+        assertEquals(expected.get(), new HashSet<Recorder>(expired).size());
+        assertEquals(0, early.get());
+    }
+
+    public void testTimedSetAndLRUCacheExpireWithoutAccess() {
+        TimingWheel wheel = new TimingWheel(10, false);
+        long start = System.currentTimeMillis();
+        TimedSet<String> set = new TimedSet<String>(1000, wheel);
+        LRUCache<String, String> cache = new LRUCache<String, String>(1000, 1000, 16, EvictionPolicy.LRU, wheel);
+        for (int i = 0; i < 500; i++) {
+            set.add("key" + i);
+            cache.put("key" + i, "value" + i);
+        }
+        assertEquals(500, set.size());
+
+        // One timeout per set entry, one per cache segment
+        assertEquals(500 + 16, wheel.getPendingCount());
+        set.remove("key0");
+        assertEquals(499 + 16, wheel.getPendingCount());
+
+        // A cache segment expires its oldest entry and schedules itself again
+        // for the next one, which has passed as well by then
+        for (long now = start + 60000; wheel.getPendingCount() > 0 && now < start + 70000; now += 10) {
+            wheel.advance(now);
+        }
+        assertEquals(0, set.size());
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    public void testSharedWheelThread() throws InterruptedException {
+        TimedSet<String> set = new TimedSet<String>(50);
+        set.add("HOST.COM");
+        assertTrue(set.contains("HOST.COM"));
+        Thread.sleep(200);
+        assertEquals(0, set.size());
+        assertFalse(set.contains("HOST.COM"));
+    }
+
+}
@@ -5,10 +5,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Order;
 
+import com.scandilabs.framework.util.CacheLoader;
+
 public class EntityFinder {
 	
 	private SessionFactory sessionFactory;
@@ -105,5 +108,26 @@ public class EntityFinder {
 	public <T> T get(Long id) {
 		return (T) PersistableUtils.getPersistentEntity(this.sessionFactory, clazz, id);
 	}
+
+	/**
+	 * Creates a loader for a LoadingCache keyed by primary key. Each load
+	 * opens and closes its own session, so it also works on refresh threads
+	 * that have no current session, and the cached objects are detached.
+	 * Missing objects load as null.
+	 * 
+	 * @return
+	 */
+	public <T> CacheLoader<Long, T> loader() {
+		return new CacheLoader<Long, T>() {
+			public T load(Long id) {
+				Session session = sessionFactory.openSession();
+				try {
+					return (T) session.get(clazz, id);
+				} finally {
+					session.close();
+				}
+			}
+		};
+	}
 	
 }
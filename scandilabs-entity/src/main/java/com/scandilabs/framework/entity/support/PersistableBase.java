@@ -16,7 +16,6 @@ import javax.persistence.Id;
 import javax.persistence.MappedSuperclass;
 import javax.persistence.Transient;
 
-import org.catamarancode.util.ClassUtils;
 import org.catamarancode.util.Timestamped;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -24,6 +23,8 @@ import org.hibernate.metadata.ClassMetadata;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.scandilabs.framework.util.ClassUtils;
+
 /**
  * A base class for all persistent entity objects in an application. Provides
  * extending objects with defaults behaviors that make it easier to implement a
@@ -2,7 +2,6 @@ package com.scandilabs.framework.entity.support;
 
 import java.util.List;
 
-import org.catamarancode.util.ClassUtils;
 import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
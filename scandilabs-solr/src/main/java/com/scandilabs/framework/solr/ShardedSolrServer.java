@@ -7,16 +7,25 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,35 +40,354 @@ import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.SolrInputField;
 import org.apache.solr.common.util.NamedList;
-import org.catamarancode.pool.ConsistentHashingResourcePool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.scandilabs.framework.pool.ConsistentHashingResourcePool;
+import com.scandilabs.framework.pool.KeyPartition;
+import com.scandilabs.framework.pool.RebalancePlan;
+import com.scandilabs.framework.util.CacheLoader;
+import com.scandilabs.framework.util.RequestContext;
+
 public class ShardedSolrServer {
 
     private AtomicLong lastCommitTime = new AtomicLong();
 
     public static String facetDelimiter = "\t";
 
+    // Documents fetched per request when copying documents written during a
+    // rebalance again
+    private static final int COPY_BATCH_SIZE = 500;
+
     static Logger logger = LoggerFactory.getLogger(ShardedSolrServer.class
             .getName());
 
-    private List<SolrServerConfig> servers = new ArrayList<SolrServerConfig>();
-
-    private ConsistentHashingResourcePool resourcePool;
+    // Replaced as a whole, so every read or write sees one consistent layout
+    private volatile Layout layout;
 
     // A pool of threads to facilitate concurrent Solr requests,
     // thereby providing for client-side federation. 
     private ExecutorService threadPool;
     
     public ShardedSolrServer(List<SolrServerConfig> servers) {
-        this.servers = servers;
         this.threadPool = Executors.newCachedThreadPool();
-        resourcePool = new ConsistentHashingResourcePool(servers.size());
+        this.layout = new Layout(servers, createResourcePool(servers), null);
         logger.debug(String.format("Created SharderSolrServer with %d servers",
                 servers.size()));
     }
 
+    private static ConsistentHashingResourcePool createResourcePool(List<SolrServerConfig> servers) {
+
+        // Size each server's share of documents by its weight. Equal weights
+        // give the same layout as an unweighted pool.
+        double[] weights = new double[servers.size()];
+        for (int i = 0; i < servers.size(); i++) {
+            weights[i] = servers.get(i).getWeight();
+        }
+        ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(weights);
+        for (int i = 0; i < servers.size(); i++) {
+            logger.debug(String.format("Shard %s gets %.1f%% of documents", servers.get(i),
+                    pool.getLoadShare(i) * 100));
+        }
+        return pool;
+    }
+
+    /**
+     * The servers documents go to, the pool that picks among them and,
+     * during a rebalance, the layout being moved away from
+     */
+    private static class Layout {
+
+        private final List<SolrServerConfig> servers;
+
+        private final ConsistentHashingResourcePool resourcePool;
+
+        // Only set while documents are being moved to this layout
+        private final Rebalance rebalance;
+
+        // Writes that started on this layout and have not finished
+        private final AtomicInteger writers = new AtomicInteger();
+
+        Layout(List<SolrServerConfig> servers, ConsistentHashingResourcePool resourcePool, Rebalance rebalance) {
+            this.servers = servers;
+            this.resourcePool = resourcePool;
+            this.rebalance = rebalance;
+        }
+    }
+
+    /**
+     * The server layout before and the moves needed to get to the new one
+     */
+    private static class Rebalance {
+
+        private final List<SolrServerConfig> previousServers;
+
+        private final List<SolrServerConfig> servers;
+
+        private final RebalancePlan plan;
+
+        // Moves whose documents are all on the new server
+        private final AtomicIntegerArray completedMoves;
+
+        // Held shared by dual writes and exclusively to complete a move, by
+        // move
+        private final ReentrantReadWriteLock[] moveLocks;
+
+        // Keys dual-written since they were last copied again, by move
+        private final List<Set<String>> updatedKeys;
+
+        Rebalance(List<SolrServerConfig> previousServers, List<SolrServerConfig> servers, RebalancePlan plan) {
+            this.previousServers = previousServers;
+            this.servers = servers;
+            this.plan = plan;
+            int moves = plan.getMoves().size();
+            this.completedMoves = new AtomicIntegerArray(moves);
+            this.moveLocks = new ReentrantReadWriteLock[moves];
+            this.updatedKeys = new ArrayList<Set<String>>(moves);
+            for (int i = 0; i < moves; i++) {
+                moveLocks[i] = new ReentrantReadWriteLock();
+                updatedKeys.add(Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+            }
+        }
+
+        /**
+         * @return the previous server still holding the current copy of the
+         *         given key hash, or null if it has moved or does not move
+         */
+        SolrServerConfig sourceFor(int keyHashCode) {
+            int moveIndex = plan.indexOfMove(keyHashCode);
+            if (moveIndex < 0 || completedMoves.get(moveIndex) == 1) {
+                return null;
+            }
+            return sourceOf(moveIndex);
+        }
+
+        SolrServerConfig sourceOf(int moveIndex) {
+            return previousServers.get(plan.getMoves().get(moveIndex).getFromResource());
+        }
+
+        SolrServerConfig targetOf(int moveIndex) {
+            return servers.get(plan.getMoves().get(moveIndex).getToResource());
+        }
+
+        Set<String> takeUpdatedKeys(int moveIndex) {
+            Set<String> keys = new HashSet<String>();
+            Iterator<String> updated = updatedKeys.get(moveIndex).iterator();
+            while (updated.hasNext()) {
+                keys.add(updated.next());
+                updated.remove();
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * Registers a write on the current layout, to be ended with
+     * {@link #endWrite(Layout)}. A new layout is only published once all
+     * writes on the old one have ended.
+     */
+    private Layout beginWrite() {
+        while (true) {
+            Layout current = layout;
+            current.writers.incrementAndGet();
+            if (current == layout) {
+                return current;
+            }
+
+            // Replaced meanwhile, and the replacing thread may not have seen
+            // this write, so go by the new layout instead
+            current.writers.decrementAndGet();
+        }
+    }
+
+    private static void endWrite(Layout current) {
+        current.writers.decrementAndGet();
+    }
+
+    /**
+     * Switches to a new layout, then waits for writes still going by the old
+     * one to finish
+     */
+    private void replaceLayout(Layout next) {
+        Layout previous = layout;
+        layout = next;
+        boolean interrupted = false;
+        while (previous.writers.get() > 0) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Switches to a new server layout. Until {@link #finishRebalance()} is
+     * called, documents in moving key hash ranges are written to both their
+     * previous and their new server and read from the previous one, and
+     * queries go to the servers of both layouts. Documents are moved by a
+     * {@link com.scandilabs.framework.solr.rebalance.ShardRebalancer}.
+     *
+     * Returns once all writes that went by the previous layout have finished,
+     * so that a copy started after that misses none of them once the previous
+     * servers are committed.
+     *
+     * @return the key hash ranges that move
+     */
+    public synchronized RebalancePlan beginRebalance(List<SolrServerConfig> newServers) {
+        Layout current = layout;
+        if (current.rebalance != null) {
+            throw new IllegalStateException("A rebalance is already in progress");
+        }
+        ConsistentHashingResourcePool newPool = createResourcePool(newServers);
+        RebalancePlan plan = new RebalancePlan(current.resourcePool, newPool);
+        logger.info(String.format("Rebalancing from %d to %d servers, moving %d ranges with %.1f%% of documents",
+                current.servers.size(), newServers.size(), plan.getMoves().size(), plan.getMovedFraction() * 100));
+        replaceLayout(new Layout(newServers, newPool, new Rebalance(current.servers, newServers, plan)));
+        return plan;
+    }
+
+    /**
+     * Marks all documents of one move as copied to, and committed on, their
+     * new server. Reads for that range go to the new server from now on.
+     *
+     * A copy that read a document before it was written may have put the
+     * older version over the one the write left on the new server. So
+     * documents written since the move began are first copied again from
+     * the previous server, the last of them while writes to the range wait.
+     *
+     * @param moveIndex
+     *            index into {@link RebalancePlan#getMoves()}
+     */
+    public void completeMove(int moveIndex) throws SolrServerException, IOException {
+        Rebalance current = layout.rebalance;
+        if (current == null) {
+            throw new IllegalStateException("No rebalance in progress");
+        }
+        if (current.completedMoves.get(moveIndex) == 1) {
+            return;
+        }
+        SolrServerConfig source = current.sourceOf(moveIndex);
+        SolrServerConfig target = current.targetOf(moveIndex);
+
+        // Copy most of them without holding up writes
+        for (int pass = 0; pass < 3; pass++) {
+            Set<String> keys = current.takeUpdatedKeys(moveIndex);
+            if (keys.isEmpty()) {
+                break;
+            }
+            copyDocuments(keys, source, target);
+        }
+
+        // Once the move is complete writes no longer go to the previous
+        // server, and nothing copies over them any more
+        Lock lock = current.moveLocks[moveIndex].writeLock();
+        lock.lock();
+        try {
+            copyDocuments(current.takeUpdatedKeys(moveIndex), source, target);
+            target.getSolrServer().commit(true, true);
+            current.completedMoves.set(moveIndex, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the committed version of the given documents
+     */
+    private static void copyDocuments(Set<String> keys, SolrServerConfig source, SolrServerConfig target)
+            throws SolrServerException, IOException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        source.getSolrServer().commit(true, true);
+        List<String> keyList = new ArrayList<String>(keys);
+        for (int i = 0; i < keyList.size(); i += COPY_BATCH_SIZE) {
+            List<String> batchKeys = keyList.subList(i, Math.min(keyList.size(), i + COPY_BATCH_SIZE));
+            SolrQuery query = new SolrQuery(keysQuery(batchKeys));
+            query.setRows(batchKeys.size());
+            SolrDocumentList batch = source.getSolrServer().query(query).getResults();
+            if (batch.isEmpty()) {
+                continue;
+            }
+            List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(batch.size());
+            for (SolrDocument doc : batch) {
+                docs.add(SolrUtil.copy(doc));
+            }
+            target.getSolrServer().add(docs);
+        }
+        logger.debug(String.format("Copied %d documents written during a move again from %s to %s", keys.size(),
+                source, target));
+    }
+
+    static String keysQuery(Collection<String> keys) {
+        StringBuilder query = new StringBuilder("key:(");
+        for (String key : keys) {
+            if (query.length() > 5) {
+                query.append(" OR ");
+            }
+            query.append('"').append(key.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return query.append(')').toString();
+    }
+
+    /**
+     * Stops writing to and reading from the previous server layout. Returns
+     * once dual writes in progress have finished, so documents deleted from
+     * the previous servers after that stay deleted.
+     */
+    public synchronized void finishRebalance() {
+        Layout current = layout;
+        replaceLayout(new Layout(current.servers, current.resourcePool, null));
+        logger.info(String.format("Finished rebalancing to %d servers", current.servers.size()));
+    }
+
+    public boolean isRebalancing() {
+        return layout.rebalance != null;
+    }
+
+    /**
+     * @return the plan of the rebalance in progress, or null
+     */
+    public RebalancePlan getRebalancePlan() {
+        Rebalance current = layout.rebalance;
+        return current == null ? null : current.plan;
+    }
+
+    public List<SolrServerConfig> getServers() {
+        return layout.servers;
+    }
+
+    /**
+     * @return servers of the layout being rebalanced away from, or null if no
+     *         rebalance is in progress
+     */
+    public List<SolrServerConfig> getPreviousServers() {
+        Rebalance current = layout.rebalance;
+        return current == null ? null : current.previousServers;
+    }
+
+    /**
+     * @return current servers plus, during a rebalance, any previous servers
+     *         that are not part of the new layout
+     */
+    private List<SolrServerConfig> getAllServers() {
+        Layout current = layout;
+        List<SolrServerConfig> all = current.servers;
+        if (current.rebalance != null) {
+            all = new ArrayList<SolrServerConfig>(all);
+            for (SolrServerConfig previous : current.rebalance.previousServers) {
+                if (!all.contains(previous)) {
+                    all.add(previous);
+                }
+            }
+        }
+        return all;
+    }
+
     /**
      * Perform a Solr query and do custom, client-side federation to make it faster.
      * @param solrQuery
@@ -103,10 +431,13 @@ public class ShardedSolrServer {
         logger.debug(String.format("SHARD: Executing query %s", solrQuery.toString()));
         
         // Execute query on all servers concurrently.
+        List<SolrServerConfig> servers = getAllServers();
         List<FutureTask<QueryResponse>> futures = new ArrayList<FutureTask<QueryResponse>>();
     	for (int i = 0; i < servers.size(); i++) {
     		SolrServerConfig serverConfig = servers.get(i);
-    		FutureTask<QueryResponse> query = new FutureTask<QueryResponse>(new SingleShardQuery(serverConfig, solrQuery, method));
+    		// Shard threads see the request context of the calling thread
+    		FutureTask<QueryResponse> query = new FutureTask<QueryResponse>(
+    				RequestContext.wrap(new SingleShardQuery(serverConfig, solrQuery, method)));
     		futures.add(query);
     		threadPool.execute(query);
     		logger.debug(String.format("SHARD: Scheduled query on shard %s", serverConfig.getSolrHost()));
@@ -156,9 +487,9 @@ public class ShardedSolrServer {
 	}
     
     /**
-     * Adds a batch of solr documents to solr TODO: Maybe add per-server
-     * batching later. If so, use a public commit() method call to signal the
-     * end of an operation. For now, just add one-by-one
+     * Adds a batch of solr documents to solr. Documents are grouped by the
+     * server their 'key' field hashes to, and each server gets one add request
+     * for its whole group.
      * 
      * @param docs
      * @throws SolrServerException
@@ -168,8 +499,97 @@ public class ShardedSolrServer {
             throws SolrServerException, IOException {
         logger.debug(String.format("Adding %d docs to sharded solr servers",
                 docs.size()));
-        for (SolrInputDocument doc : docs) {
-            this.add(doc);
+        List<SolrInputDocument> docList = new ArrayList<SolrInputDocument>(docs);
+        List<String> keys = new ArrayList<String>(docList.size());
+        for (SolrInputDocument doc : docList) {
+            keys.add((String) doc.getField("key").getValue());
+        }
+
+        Layout current = beginWrite();
+        try {
+            KeyPartition partition = current.resourcePool.partition(keys);
+            for (int serverIndex = 0; serverIndex < partition.getSize(); serverIndex++) {
+                if (partition.getCount(serverIndex) == 0) {
+                    continue;
+                }
+                int[] indexes = partition.getIndexes(serverIndex);
+                int[] keyHashCodes = partition.getKeyHashes(serverIndex);
+                List<SolrInputDocument> serverDocs = new ArrayList<SolrInputDocument>(indexes.length);
+                for (int i = 0; i < indexes.length; i++) {
+                    SolrInputDocument doc = docList.get(indexes[i]);
+
+                    // See add(SolrInputDocument)
+                    doc.setField("keyHashCode", keyHashCodes[i]);
+                    serverDocs.add(doc);
+                }
+                addToServer(current, serverIndex, serverDocs, keyHashCodes);
+            }
+        } finally {
+            endWrite(current);
+        }
+    }
+
+    /**
+     * Adds documents to one server of the layout. During a rebalance, also
+     * writes those in ranges being moved to their previous server, so that
+     * neither copy goes stale.
+     */
+    private UpdateResponse addToServer(Layout current, int serverIndex, List<SolrInputDocument> docs,
+            int[] keyHashCodes) throws SolrServerException, IOException {
+        Rebalance rebalance = current.rebalance;
+        int[] moveIndexes = null;
+        List<Lock> locks = Collections.emptyList();
+        if (rebalance != null) {
+
+            // Lock in the order of the moves, so a batch never waits for a
+            // completing move while holding up another one
+            moveIndexes = new int[docs.size()];
+            Set<Integer> moves = new TreeSet<Integer>();
+            for (int i = 0; i < moveIndexes.length; i++) {
+                moveIndexes[i] = rebalance.plan.indexOfMove(keyHashCodes[i]);
+                if (moveIndexes[i] >= 0) {
+                    moves.add(moveIndexes[i]);
+                }
+            }
+            locks = new ArrayList<Lock>(moves.size());
+            for (int moveIndex : moves) {
+                Lock lock = rebalance.moveLocks[moveIndex].readLock();
+                lock.lock();
+                locks.add(lock);
+            }
+            for (int i = 0; i < moveIndexes.length; i++) {
+                if (moveIndexes[i] >= 0 && rebalance.completedMoves.get(moveIndexes[i]) == 1) {
+                    moveIndexes[i] = -1;
+                }
+            }
+        }
+        try {
+            SolrServerConfig solr = current.servers.get(serverIndex);
+            UpdateResponse response = docs.size() == 1 ? solr.getSolrServer().add(docs.get(0)) : solr
+                    .getSolrServer().add(docs);
+            logger.debug(String.format("Added %d docs to server %s with response %s", docs.size(), solr
+                    .toString(), response.toString()));
+            if (moveIndexes != null) {
+                for (int i = 0; i < moveIndexes.length; i++) {
+                    if (moveIndexes[i] >= 0) {
+                        rebalance.sourceOf(moveIndexes[i]).getSolrServer().add(docs.get(i));
+                    }
+                }
+            }
+            return response;
+        } finally {
+
+            // Also after a failed write, one of the servers may have taken it
+            if (moveIndexes != null) {
+                for (int i = 0; i < moveIndexes.length; i++) {
+                    if (moveIndexes[i] >= 0) {
+                        rebalance.updatedKeys.get(moveIndexes[i]).add((String) docs.get(i).getFieldValue("key"));
+                    }
+                }
+            }
+            for (Lock lock : locks) {
+                lock.unlock();
+            }
         }
     }
 
@@ -185,21 +605,20 @@ public class ShardedSolrServer {
             throws SolrServerException, IOException {
         SolrInputField keyField = doc.getField("key");
         String key = (String) keyField.getValue();
-        int keyHashCode = resourcePool.computeKeyHash(key);
-        int serverIndex = resourcePool.locateResourceByKeyHash(keyHashCode);
-
-        // Add the keyHashCode to the solr document before saving, in case we
-        // ever need to migrate docs for a keyHash range from one server to
-        // another
-        doc.setField("keyHashCode", keyHashCode);
-
-        SolrServerConfig solr = this.servers.get(serverIndex);
-        SolrServer server = solr.getSolrServer();
-        UpdateResponse response = server.add(doc);
-        logger.debug(String.format(
-                "Added doc with key %s to server %s with response %s", key,
-                solr.toString(), response.toString()));
-        return response;
+        Layout current = beginWrite();
+        try {
+            int keyHashCode = current.resourcePool.computeKeyHash(key);
+            int serverIndex = current.resourcePool.locateResourceByKeyHash(keyHashCode);
+
+            // Add the keyHashCode to the solr document before saving, in case we
+            // ever need to migrate docs for a keyHash range from one server to
+            // another
+            doc.setField("keyHashCode", keyHashCode);
+
+            return addToServer(current, serverIndex, Collections.singletonList(doc), new int[] { keyHashCode });
+        } finally {
+            endWrite(current);
+        }
     }
 
     /**
@@ -211,12 +630,19 @@ public class ShardedSolrServer {
      */
     public SolrDocument loadByKey(String key) throws SolrServerException {
         SearchQuery searchQuery = new SearchQuery("key:\"" + key + "\"");
-        int keyHashCode = resourcePool.computeKeyHash(key);
-        int serverIndex = resourcePool.locateResourceByKeyHash(keyHashCode);
-        SolrServerConfig solr = this.servers.get(serverIndex);
+        Layout current = layout;
+        int keyHashCode = current.resourcePool.computeKeyHash(key);
+        int serverIndex = current.resourcePool.locateResourceByKeyHash(keyHashCode);
+        SolrServerConfig solr = current.servers.get(serverIndex);
+
+        // Documents still being moved are only complete on their previous server
+        SolrServerConfig source = current.rebalance == null ? null : current.rebalance.sourceFor(keyHashCode);
+        if (source != null) {
+            solr = source;
+        }
 
-        logger.debug(String.format("Looking up doc with key %s from server %d",
-                key, serverIndex));
+        logger.debug(String.format("Looking up doc with key %s from server %s",
+                key, solr));
         QueryResponse response = solr.getSolrServer().query(
                 searchQuery.getSolrQuery(), searchQuery.getSolrMethod());
         SolrDocumentList documentList = response.getResults();
@@ -230,6 +656,19 @@ public class ShardedSolrServer {
         }
         return document;
     }
+
+    /**
+     * Creates a loader for a LoadingCache of documents by key, which goes
+     * through {@link #loadByKey(String)}. Keys without a document load as
+     * null.
+     */
+    public CacheLoader<String, SolrDocument> documentLoader() {
+        return new CacheLoader<String, SolrDocument>() {
+            public SolrDocument load(String key) throws SolrServerException {
+                return loadByKey(key);
+            }
+        };
+    }
     
     private final long MIN_DELAY_BETWEEN_MANUAL_COMMITS = 5000;
 
@@ -238,6 +677,8 @@ public class ShardedSolrServer {
      */
     public void commitToAllServers() {
         
+        List<SolrServerConfig> servers = getAllServers();
+
         // Enough time elapsed since last commit?
         if ((System.currentTimeMillis() - lastCommitTime.longValue()) < MIN_DELAY_BETWEEN_MANUAL_COMMITS) {
             logger.info(String.format("Not enough time since last commit, skipping commit to all %d solr servers", servers
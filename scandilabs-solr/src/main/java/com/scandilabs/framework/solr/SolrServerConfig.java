@@ -36,6 +36,22 @@ public class SolrServerConfig {
         this.solrPort = solrPort;
     }
 
+    // relative capacity of this server compared to the others in a shard set
+    private double weight = 1.0;
+
+    /**
+     * Sets the relative capacity of this server. A server with weight 2.0
+     * receives twice as many documents as one with the default weight of 1.0
+     * when used in a {@link ShardedSolrServer}.
+     */
+    public void setWeight(double weight) {
+        this.weight = weight;
+    }
+
+    public double getWeight() {
+        return weight;
+    }
+
     public String toString() {
         return String.format("%s:%d/solr", solrHost, solrPort);
     }
@@ -71,6 +87,14 @@ public class SolrServerConfig {
         }
     }
 
+    /**
+     * Uses an already created SolrServer instead of calling {@link #init()},
+     * for instance an embedded server in tests
+     */
+    public void setSolrServer(SolrServer solrServer) {
+        this.solrServer = solrServer;
+    }
+
     /**
      * {@inheritDoc}
      */
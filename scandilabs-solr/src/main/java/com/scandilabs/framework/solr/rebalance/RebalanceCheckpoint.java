@@ -0,0 +1,155 @@
+package com.scandilabs.framework.solr.rebalance;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import com.scandilabs.framework.pool.RangeMove;
+import com.scandilabs.framework.pool.RebalancePlan;
+
+/**
+ * Records how far each move of a rebalance has come, so an interrupted
+ * rebalance can pick up where it stopped. Progress is kept in a properties
+ * file, rewritten after every batch. Without a file, progress is only kept in
+ * memory.
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class RebalanceCheckpoint {
+
+    private final File file;
+
+    private final Properties properties = new Properties();
+
+    public RebalanceCheckpoint() {
+        this(null);
+    }
+
+    public RebalanceCheckpoint(File file) {
+        this.file = file;
+        if (file != null && file.exists()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                properties.load(in);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read rebalance checkpoint " + file, e);
+            } finally {
+                close(in);
+            }
+        }
+    }
+
+    /**
+     * Ties the checkpoint to a plan. A checkpoint left by an earlier run of a
+     * different plan cannot be resumed and causes an exception.
+     */
+    public synchronized void open(RebalancePlan plan) {
+        String fingerprint = fingerprint(plan);
+        String existing = properties.getProperty("plan");
+        if (existing == null) {
+            properties.setProperty("plan", fingerprint);
+            save();
+        } else if (!existing.equals(fingerprint)) {
+            throw new IllegalStateException(String.format(
+                    "Checkpoint %s belongs to a different rebalance plan, remove it to start over", file));
+        }
+    }
+
+    private static String fingerprint(RebalancePlan plan) {
+        int hash = 17;
+        for (RangeMove move : plan.getMoves()) {
+            hash = 31 * hash + move.getLowerLimit();
+            hash = 31 * hash + move.getUpperLimit();
+            hash = 31 * hash + move.getFromResource();
+            hash = 31 * hash + move.getToResource();
+        }
+        return plan.getMoves().size() + ":" + Integer.toHexString(hash);
+    }
+
+    /**
+     * @return number of documents of the given move already copied
+     */
+    public synchronized long getCopied(int moveIndex) {
+        String value = properties.getProperty("move." + moveIndex + ".copied");
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    public synchronized void setCopied(int moveIndex, long copied) {
+        properties.setProperty("move." + moveIndex + ".copied", String.valueOf(copied));
+        save();
+    }
+
+    public synchronized boolean isComplete(int moveIndex) {
+        return "true".equals(properties.getProperty("move." + moveIndex + ".complete"));
+    }
+
+    public synchronized void setComplete(int moveIndex) {
+        properties.setProperty("move." + moveIndex + ".complete", "true");
+        save();
+    }
+
+    /**
+     * Forgets how far each move has come but keeps the plan, for a run that
+     * has to copy every range again
+     */
+    public synchronized void restart() {
+        String plan = properties.getProperty("plan");
+        properties.clear();
+        if (plan != null) {
+            properties.setProperty("plan", plan);
+        }
+        save();
+    }
+
+    /**
+     * Forgets all progress, once the rebalance has finished
+     */
+    public synchronized void clear() {
+        properties.clear();
+        if (file != null && file.exists() && !file.delete()) {
+            throw new RuntimeException("Failed to delete rebalance checkpoint " + file);
+        }
+    }
+
+    private void save() {
+        if (file == null) {
+            return;
+        }
+
+        // Write a new file and swap it in, so a crash never leaves half a checkpoint
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            properties.store(out, "Solr shard rebalance progress");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write rebalance checkpoint " + tmp, e);
+        } finally {
+            close(out);
+        }
+        if (file.exists() && !file.delete()) {
+            throw new RuntimeException("Failed to replace rebalance checkpoint " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new RuntimeException("Failed to replace rebalance checkpoint " + file);
+        }
+    }
+
+    private static void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
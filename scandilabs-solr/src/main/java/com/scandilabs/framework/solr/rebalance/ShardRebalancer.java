@@ -0,0 +1,235 @@
+package com.scandilabs.framework.solr.rebalance;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.scandilabs.framework.pool.RangeMove;
+import com.scandilabs.framework.pool.RebalancePlan;
+import com.scandilabs.framework.solr.ShardedSolrServer;
+import com.scandilabs.framework.solr.SolrServerConfig;
+import com.scandilabs.framework.solr.SolrUtil;
+
+/**
+ * Moves documents to a new set of solr servers without a full reindex. Uses
+ * the keyHashCode field that {@link ShardedSolrServer} stamps on every
+ * document to find the documents of each moving key hash range.
+ * 
+ * A rebalance runs in three steps:
+ * <ol>
+ * <li>The sharded server switches to the new layout, dual-writing documents
+ * in moving ranges to their previous server as well, and the previous servers
+ * are committed.</li>
+ * <li>Each moving range is copied in batches from its previous to its new
+ * server, several ranges in parallel. Progress is saved to a
+ * {@link RebalanceCheckpoint} after each batch. Documents written during
+ * the copy are copied again, see
+ * {@link ShardedSolrServer#completeMove(int)}, then reads for the range go to
+ * the new server.</li>
+ * <li>The sharded server stops dual-writing and the moved ranges are deleted
+ * from their previous servers.</li>
+ * </ol>
+ * 
+ * If a run fails, run it again with the same servers and checkpoint to resume.
+ * Within the same JVM it picks up after the last batch copied. After a
+ * restart the keys written during the copy are gone, and writes since then
+ * only reached the previous servers, so every range is copied again from the
+ * start.
+ * 
+ * @author mkvalsvik
+ * 
+ */
+public class ShardRebalancer {
+
+    private static Logger logger = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    private ShardedSolrServer shardedServer;
+
+    private RebalanceCheckpoint checkpoint;
+
+    private int batchSize = 500;
+
+    private int threads = 4;
+
+    public ShardRebalancer(ShardedSolrServer shardedServer, RebalanceCheckpoint checkpoint) {
+        this.shardedServer = shardedServer;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Moves documents so that the sharded server ends up using the given
+     * servers. Blocks until all documents have moved.
+     */
+    public void rebalance(List<SolrServerConfig> newServers) throws SolrServerException, IOException {
+
+        // A failed run leaves the sharded server rebalancing, pick that up
+        RebalancePlan plan = shardedServer.getRebalancePlan();
+        boolean resumed = plan != null;
+        if (!resumed) {
+            plan = shardedServer.beginRebalance(newServers);
+        }
+        checkpoint.open(plan);
+        if (!resumed) {
+            checkpoint.restart();
+        }
+        List<SolrServerConfig> previousServers = shardedServer.getPreviousServers();
+        List<RangeMove> moves = plan.getMoves();
+        List<SolrServerConfig> sources = new ArrayList<SolrServerConfig>();
+        for (RangeMove move : moves) {
+            SolrServerConfig source = previousServers.get(move.getFromResource());
+            if (!sources.contains(source)) {
+                sources.add(source);
+            }
+        }
+
+        // Writes that went by the previous layout have finished, make them
+        // visible to the copy
+        for (SolrServerConfig source : sources) {
+            source.getSolrServer().commit(true, true);
+        }
+
+        // Copy
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (int i = 0; i < moves.size(); i++) {
+                if (checkpoint.isComplete(i)) {
+                    shardedServer.completeMove(i);
+                    continue;
+                }
+                RangeMove move = moves.get(i);
+                futures.add(executor.submit(new MoveTask(i, move, previousServers.get(move.getFromResource()),
+                        newServers.get(move.getToResource()))));
+            }
+            long copied = 0;
+            for (Future<Long> future : futures) {
+                copied += waitFor(future);
+            }
+            logger.info(String.format("Copied %d documents in %d ranges", copied, moves.size()));
+        } finally {
+            executor.shutdown();
+        }
+
+        // Cut over. Dual writes have stopped once finishRebalance returns, so
+        // none can put a deleted document back.
+        shardedServer.finishRebalance();
+        for (RangeMove move : moves) {
+            previousServers.get(move.getFromResource()).getSolrServer().deleteByQuery(rangeQuery(move));
+        }
+        for (SolrServerConfig source : sources) {
+            source.getSolrServer().commit(true, true);
+        }
+        checkpoint.clear();
+    }
+
+    private static long waitFor(Future<Long> future) throws SolrServerException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SolrServerException("Interrupted while rebalancing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SolrServerException) {
+                throw (SolrServerException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new SolrServerException("Failed to move documents", cause);
+        }
+    }
+
+    static String rangeQuery(RangeMove move) {
+        return String.format("keyHashCode:[%d TO %d]", move.getLowerLimit(), move.getUpperLimit());
+    }
+
+    /**
+     * Copies all documents of one range, batch by batch, then commits them
+     */
+    private class MoveTask implements Callable<Long> {
+
+        private final int moveIndex;
+
+        private final RangeMove move;
+
+        private final SolrServerConfig source;
+
+        private final SolrServerConfig target;
+
+        MoveTask(int moveIndex, RangeMove move, SolrServerConfig source, SolrServerConfig target) {
+            this.moveIndex = moveIndex;
+            this.move = move;
+            this.source = source;
+            this.target = target;
+        }
+
+        public Long call() throws SolrServerException, IOException {
+            long start = checkpoint.getCopied(moveIndex);
+            logger.info(String.format("Moving %s from %s to %s, starting at document %d", move, source, target,
+                    start));
+
+            // Order by key so paging is stable while the source is not modified
+            SolrQuery query = new SolrQuery(rangeQuery(move));
+            query.addSortField("key", SolrQuery.ORDER.asc);
+            query.setRows(batchSize);
+
+            SolrServer targetServer = target.getSolrServer();
+            long copied = 0;
+            while (true) {
+                query.setStart((int) start);
+                SolrDocumentList batch = source.getSolrServer().query(query).getResults();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(batch.size());
+                for (SolrDocument doc : batch) {
+                    docs.add(SolrUtil.copy(doc));
+                }
+                targetServer.add(docs);
+                start += batch.size();
+                copied += batch.size();
+                checkpoint.setCopied(moveIndex, start);
+                if (batch.size() < batchSize) {
+                    break;
+                }
+            }
+
+            // Commits the target once documents written meanwhile are
+            // copied again
+            shardedServer.completeMove(moveIndex);
+            checkpoint.setComplete(moveIndex);
+            logger.info(String.format("Moved %s, %d documents", move, start));
+            return copied;
+        }
+    }
+
+    /**
+     * Number of documents fetched and added per request, 500 by default
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Number of ranges copied in parallel, 4 by default
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+}
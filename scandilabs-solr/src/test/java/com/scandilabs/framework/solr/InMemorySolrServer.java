@@ -0,0 +1,178 @@
+package com.scandilabs.framework.solr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * A solr server in memory, for tests. Documents are kept by their key field
+ * and, as with solr, only become visible to queries once committed.
+ * Understands the queries sharding and rebalancing send: *:*,
+ * field:"value", field:("value" OR ...) and field:[lower TO upper] on
+ * integer fields.
+ *
+ * @author mkvalsvik
+ *
+ */
+public class InMemorySolrServer extends SolrServer {
+
+    private static final Pattern TERMS = Pattern.compile("(\\w+):\\((.*)\\)");
+
+    private static final Pattern TERM = Pattern.compile("(\\w+):\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private static final Pattern RANGE = Pattern.compile("(\\w+):\\[(-?\\d+) TO (-?\\d+)\\]");
+
+    private static final Pattern QUOTED = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final Map<String, SolrDocument> latest = new TreeMap<String, SolrDocument>();
+
+    private volatile Map<String, SolrDocument> committed = Collections.emptyMap();
+
+    /**
+     * Called before documents are added, from the adding thread
+     */
+    protected void beforeAdd(Collection<SolrInputDocument> docs) {
+    }
+
+    public UpdateResponse add(SolrInputDocument doc) {
+        return add(Collections.singletonList(doc));
+    }
+
+    public UpdateResponse add(Collection<SolrInputDocument> docs) {
+        beforeAdd(docs);
+        synchronized (latest) {
+            for (SolrInputDocument doc : docs) {
+                SolrDocument stored = new SolrDocument();
+                for (String name : doc.getFieldNames()) {
+                    Collection<Object> values = doc.getFieldValues(name);
+                    stored.setField(name, values.size() == 1 ? values.iterator().next() : new ArrayList<Object>(
+                            values));
+                }
+                latest.put((String) doc.getFieldValue("key"), stored);
+            }
+        }
+        return new UpdateResponse();
+    }
+
+    public UpdateResponse deleteByQuery(String query) {
+        synchronized (latest) {
+            latest.values().removeAll(select(latest.values(), query));
+        }
+        return new UpdateResponse();
+    }
+
+    public UpdateResponse commit() {
+        return commit(true, true);
+    }
+
+    public UpdateResponse commit(boolean waitFlush, boolean waitSearcher) {
+        synchronized (latest) {
+            committed = new TreeMap<String, SolrDocument>(latest);
+        }
+        return new UpdateResponse();
+    }
+
+    public QueryResponse query(SolrParams params) {
+        return query(params, SolrRequest.METHOD.GET);
+    }
+
+    public QueryResponse query(SolrParams params, SolrRequest.METHOD method) {
+
+        // Committed documents are in key order, the only sort asked for
+        List<SolrDocument> matches = select(committed.values(), params.get("q"));
+        int start = params.get("start") == null ? 0 : Integer.parseInt(params.get("start"));
+        int rows = params.get("rows") == null ? 10 : Integer.parseInt(params.get("rows"));
+        SolrDocumentList results = new SolrDocumentList();
+        results.setNumFound(matches.size());
+        results.setStart(start);
+        results.addAll(matches.subList(Math.min(start, matches.size()), Math.min(start + rows, matches.size())));
+        NamedList<Object> response = new NamedList<Object>();
+        response.add("response", results);
+        QueryResponse queryResponse = new QueryResponse();
+        queryResponse.setResponse(response);
+        return queryResponse;
+    }
+
+    public NamedList<Object> request(SolrRequest request) {
+        throw new UnsupportedOperationException("Not supported in memory: " + request);
+    }
+
+    /**
+     * @return the document with the given key, committed or not
+     */
+    public SolrDocument get(String key) {
+        synchronized (latest) {
+            return latest.get(key);
+        }
+    }
+
+    /**
+     * @return the number of documents, committed or not
+     */
+    public int size() {
+        synchronized (latest) {
+            return latest.size();
+        }
+    }
+
+    private static List<SolrDocument> select(Collection<SolrDocument> docs, String query) {
+        List<SolrDocument> matches = new ArrayList<SolrDocument>();
+        for (SolrDocument doc : docs) {
+            if (matches(doc, query)) {
+                matches.add(doc);
+            }
+        }
+        return matches;
+    }
+
+    private static boolean matches(SolrDocument doc, String query) {
+        if ("*:*".equals(query)) {
+            return true;
+        }
+        Matcher matcher = RANGE.matcher(query);
+        if (matcher.matches()) {
+            Object value = doc.getFieldValue(matcher.group(1));
+            if (value == null) {
+                return false;
+            }
+            int number = ((Number) value).intValue();
+            return number >= Integer.parseInt(matcher.group(2)) && number <= Integer.parseInt(matcher.group(3));
+        }
+        matcher = TERM.matcher(query);
+        if (matcher.matches()) {
+            return unescape(matcher.group(2)).equals(String.valueOf(doc.getFieldValue(matcher.group(1))));
+        }
+        matcher = TERMS.matcher(query);
+        if (matcher.matches()) {
+            String value = String.valueOf(doc.getFieldValue(matcher.group(1)));
+            Matcher term = QUOTED.matcher(matcher.group(2));
+            while (term.find()) {
+                if (unescape(term.group(1)).equals(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        throw new UnsupportedOperationException("Query not supported in memory: " + query);
+    }
+
+    private static String unescape(String s) {
+        return s.replaceAll("\\\\(.)", "$1");
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.scandilabs.framework.solr.rebalance;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.scandilabs.framework.pool.ConsistentHashingResourcePool;
+import com.scandilabs.framework.pool.RebalancePlan;
+
+public class RebalanceCheckpointTest extends TestCase {
+
+    public void testResume() throws IOException {
+        
+        File file = File.createTempFile("rebalance", ".properties");
+        file.delete();
+        RebalancePlan plan = new RebalancePlan(new ConsistentHashingResourcePool(2), new ConsistentHashingResourcePool(3));
+        
+        RebalanceCheckpoint checkpoint = new RebalanceCheckpoint(file);
+        checkpoint.open(plan);
+        checkpoint.setCopied(0, 1500);
+        checkpoint.setComplete(1);
+        
+        // A new run picks up the saved progress
+        RebalanceCheckpoint resumed = new RebalanceCheckpoint(file);
+        resumed.open(plan);
+        assertEquals(1500, resumed.getCopied(0));
+        assertFalse(resumed.isComplete(0));
+        assertTrue(resumed.isComplete(1));
+        
+        // but not for a different plan
+        RebalancePlan otherPlan = new RebalancePlan(new ConsistentHashingResourcePool(2), new ConsistentHashingResourcePool(4));
+        try {
+            new RebalanceCheckpoint(file).open(otherPlan);
+            fail("Opened checkpoint of another plan");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        
+        resumed.clear();
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,324 @@
+package com.scandilabs.framework.solr.rebalance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+
+import com.scandilabs.framework.pool.ConsistentHashingResourcePool;
+import com.scandilabs.framework.pool.RebalancePlan;
+import com.scandilabs.framework.solr.InMemorySolrServer;
+import com.scandilabs.framework.solr.ShardedSolrServer;
+import com.scandilabs.framework.solr.SolrServerConfig;
+
+/**
+ * Drives rebalances of a {@link ShardedSolrServer} against solr servers in
+ * memory
+ */
+public class ShardRebalancerTest extends TestCase {
+
+    private static SolrServerConfig server(String host, InMemorySolrServer solrServer) {
+        SolrServerConfig server = new SolrServerConfig();
+        server.setSolrHost(host);
+        server.setSolrServer(solrServer);
+        return server;
+    }
+
+    private static List<SolrServerConfig> servers(int count) {
+        List<SolrServerConfig> servers = new ArrayList<SolrServerConfig>();
+        for (int i = 0; i < count; i++) {
+            servers.add(server("shard" + i, new InMemorySolrServer()));
+        }
+        return servers;
+    }
+
+    private static List<SolrServerConfig> grow(List<SolrServerConfig> servers, SolrServerConfig added) {
+        List<SolrServerConfig> grown = new ArrayList<SolrServerConfig>(servers);
+        grown.add(added);
+        return grown;
+    }
+
+    private static SolrInputDocument doc(String key, int version) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("key", key);
+        doc.setField("version", version);
+        return doc;
+    }
+
+    private static InMemorySolrServer solr(SolrServerConfig server) {
+        return (InMemorySolrServer) server.getSolrServer();
+    }
+
+    private static void commit(List<SolrServerConfig> servers) throws Exception {
+        for (SolrServerConfig server : servers) {
+            server.getSolrServer().commit(true, true);
+        }
+    }
+
+    private static int size(List<SolrServerConfig> servers) {
+        int size = 0;
+        for (SolrServerConfig server : servers) {
+            size += solr(server).size();
+        }
+        return size;
+    }
+
+    /**
+     * @return a key whose document moves when going from 2 to 3 servers
+     */
+    private static String movingKey(RebalancePlan plan) {
+        ConsistentHashingResourcePool pool = new ConsistentHashingResourcePool(2);
+        for (int i = 0;; i++) {
+            String key = "doc" + i;
+            if (plan.indexOfMove(pool.computeKeyHash(key)) >= 0) {
+                return key;
+            }
+        }
+    }
+
+    public void testRebalance() throws Exception {
+        List<SolrServerConfig> servers = servers(2);
+        ShardedSolrServer shardedServer = new ShardedSolrServer(servers);
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+        for (int i = 0; i < 1000; i++) {
+            docs.add(doc("doc" + i, 1));
+        }
+        shardedServer.add(docs);
+        commit(servers);
+
+        List<SolrServerConfig> newServers = grow(servers, server("shard2", new InMemorySolrServer()));
+        ShardRebalancer rebalancer = new ShardRebalancer(shardedServer, new RebalanceCheckpoint());
+        rebalancer.setBatchSize(50);
+        rebalancer.rebalance(newServers);
+        assertFalse(shardedServer.isRebalancing());
+
+        // Every document is on its new server only
+        System.out.println(String.format("Documents per server: %d, %d, %d", solr(newServers.get(0)).size(), solr(
+                newServers.get(1)).size(), solr(newServers.get(2)).size()));
+        assertEquals(1000, size(newServers));
+        assertTrue(solr(newServers.get(2)).size() > 0);
+        for (int i = 0; i < 1000; i++) {
+            assertNotNull("doc" + i, shardedServer.loadByKey("doc" + i));
+        }
+    }
+
+    public void testDualWritesAndReads() throws Exception {
+        List<SolrServerConfig> servers = servers(2);
+        ShardedSolrServer shardedServer = new ShardedSolrServer(servers);
+        List<SolrServerConfig> newServers = grow(servers, server("shard2", new InMemorySolrServer()));
+        RebalancePlan plan = new RebalancePlan(new ConsistentHashingResourcePool(2),
+                new ConsistentHashingResourcePool(3));
+        String key = movingKey(plan);
+        int moveIndex = plan.indexOfMove(new ConsistentHashingResourcePool(2).computeKeyHash(key));
+        SolrServerConfig source = servers.get(plan.getMoves().get(moveIndex).getFromResource());
+        SolrServerConfig target = newServers.get(plan.getMoves().get(moveIndex).getToResource());
+        shardedServer.add(doc(key, 1));
+        commit(servers);
+
+        shardedServer.beginRebalance(newServers);
+        assertTrue(shardedServer.isRebalancing());
+        assertEquals(newServers, shardedServer.getServers());
+        assertEquals(servers, shardedServer.getPreviousServers());
+
+        try {
+            shardedServer.beginRebalance(servers);
+            fail("Began a second rebalance");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // Written to both servers while the range moves
+        shardedServer.add(doc(key, 2));
+        assertEquals(2, solr(source).get(key).getFieldValue("version"));
+        assertEquals(2, solr(target).get(key).getFieldValue("version"));
+
+        // and read from the previous server until the move completes
+        solr(target).add(doc(key, 1));
+        commit(servers);
+        commit(newServers);
+        assertEquals(2, shardedServer.loadByKey(key).getFieldValue("version"));
+
+        // Completing copies documents written during the move again, over
+        // the older version a copy put there
+        shardedServer.completeMove(moveIndex);
+        assertEquals(2, solr(target).get(key).getFieldValue("version"));
+        solr(target).add(doc(key, 3));
+        commit(newServers);
+        assertEquals(3, shardedServer.loadByKey(key).getFieldValue("version"));
+
+        // Completed ranges and finished rebalances are only written to the
+        // new server
+        shardedServer.add(doc(key, 4));
+        assertEquals(2, solr(source).get(key).getFieldValue("version"));
+        assertEquals(4, solr(target).get(key).getFieldValue("version"));
+        shardedServer.finishRebalance();
+        assertFalse(shardedServer.isRebalancing());
+        assertNull(shardedServer.getPreviousServers());
+        shardedServer.add(doc(key, 5));
+        assertEquals(2, solr(source).get(key).getFieldValue("version"));
+        assertEquals(5, solr(target).get(key).getFieldValue("version"));
+    }
+
+    /**
+     * An update lands on the new server between the copy reading a document
+     * and writing it there
+     */
+    public void testUpdateRacingCopy() throws Exception {
+        List<SolrServerConfig> servers = servers(2);
+        final ShardedSolrServer shardedServer = new ShardedSolrServer(servers);
+        RebalancePlan plan = new RebalancePlan(new ConsistentHashingResourcePool(2),
+                new ConsistentHashingResourcePool(3));
+        final String key = movingKey(plan);
+        shardedServer.add(doc(key, 1));
+        commit(servers);
+
+        final AtomicBoolean raced = new AtomicBoolean();
+        InMemorySolrServer target = new InMemorySolrServer() {
+            protected void beforeAdd(Collection<SolrInputDocument> docs) {
+                for (SolrInputDocument doc : docs) {
+                    if (key.equals(doc.getFieldValue("key")) && Integer.valueOf(1).equals(doc.getFieldValue("version"))
+                            && raced.compareAndSet(false, true)) {
+                        try {
+                            shardedServer.add(doc(key, 2));
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            }
+        };
+        List<SolrServerConfig> newServers = grow(servers, server("shard2", target));
+        new ShardRebalancer(shardedServer, new RebalanceCheckpoint()).rebalance(newServers);
+
+        assertTrue("Copied the document", raced.get());
+        assertEquals(2, target.get(key).getFieldValue("version"));
+        assertEquals(2, shardedServer.loadByKey(key).getFieldValue("version"));
+    }
+
+    /**
+     * A rebalance fails part way, the application restarts on the previous
+     * servers and documents are updated before the rebalance runs again
+     */
+    public void testResumeAfterRestart() throws Exception {
+        File file = File.createTempFile("rebalance", ".properties");
+        file.delete();
+        try {
+            List<SolrServerConfig> servers = servers(2);
+            ShardedSolrServer shardedServer = new ShardedSolrServer(servers);
+            int keys = 500;
+            List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+            for (int i = 0; i < keys; i++) {
+                docs.add(doc("doc" + i, 1));
+            }
+            shardedServer.add(docs);
+            commit(servers);
+
+            final AtomicInteger adds = new AtomicInteger();
+            InMemorySolrServer target = new InMemorySolrServer() {
+                protected void beforeAdd(Collection<SolrInputDocument> docs) {
+                    if (adds.incrementAndGet() == 6) {
+                        throw new IllegalStateException("Crashed");
+                    }
+                }
+            };
+            List<SolrServerConfig> newServers = grow(servers, server("shard2", target));
+            ShardRebalancer rebalancer = new ShardRebalancer(shardedServer, new RebalanceCheckpoint(file));
+            rebalancer.setBatchSize(10);
+            rebalancer.setThreads(1);
+            try {
+                rebalancer.rebalance(newServers);
+                fail("Did not crash");
+            } catch (Exception e) {
+                System.out.println(e.getMessage());
+            }
+            assertTrue(solr(newServers.get(2)).size() > 0);
+
+            // Restarted on the previous servers, with the progress on file
+            shardedServer = new ShardedSolrServer(servers);
+            docs.clear();
+            for (int i = 0; i < keys; i++) {
+                docs.add(doc("doc" + i, 2));
+            }
+            shardedServer.add(docs);
+            commit(servers);
+            new ShardRebalancer(shardedServer, new RebalanceCheckpoint(file)).rebalance(newServers);
+
+            commit(newServers);
+            assertEquals(keys, size(newServers));
+            for (int i = 0; i < keys; i++) {
+                assertEquals("doc" + i, 2, shardedServer.loadByKey("doc" + i).getFieldValue("version"));
+            }
+            assertFalse(file.exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Documents keep being updated from another thread all through a
+     * rebalance, and end up with their last version on their new server
+     */
+    public void testUpdatesDuringRebalance() throws Exception {
+        final List<SolrServerConfig> servers = servers(2);
+        final ShardedSolrServer shardedServer = new ShardedSolrServer(servers);
+        final int keys = 2000;
+        final Map<String, Integer> versions = new ConcurrentHashMap<String, Integer>();
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+        for (int i = 0; i < keys; i++) {
+            docs.add(doc("doc" + i, 0));
+            versions.put("doc" + i, 0);
+        }
+        shardedServer.add(docs);
+        commit(servers);
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread writer = new Thread() {
+            public void run() {
+                Random random = new Random(1);
+                int updates = 0;
+                try {
+                    while (!done.get()) {
+                        String key = "doc" + random.nextInt(keys);
+                        int version = versions.get(key) + 1;
+                        shardedServer.add(doc(key, version));
+                        versions.put(key, version);
+                        if (++updates % 100 == 0) {
+                            shardedServer.commitToAllServers();
+                        }
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+                System.out.println(String.format("Updated %d documents during the rebalance", updates));
+            }
+        };
+        writer.start();
+        List<SolrServerConfig> newServers = grow(servers, server("shard2", new InMemorySolrServer()));
+        ShardRebalancer rebalancer = new ShardRebalancer(shardedServer, new RebalanceCheckpoint());
+        rebalancer.setBatchSize(20);
+        rebalancer.rebalance(newServers);
+        done.set(true);
+        writer.join();
+        assertNull(failure.get());
+
+        commit(newServers);
+        assertEquals(keys, size(newServers));
+        for (int i = 0; i < keys; i++) {
+            SolrDocument doc = shardedServer.loadByKey("doc" + i);
+            assertEquals("doc" + i, versions.get("doc" + i), doc.getFieldValue("version"));
+        }
+    }
+
+}